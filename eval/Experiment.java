@@ -330,6 +330,7 @@ public class Experiment {
    * OPTIONs can be
    * "-html" to specify HTML files whose HTML tags should be removed, and
    * "-stem" to specify tokens should be stemmed with Porter stemmer.
+   * "-build" to index the corpus again and save the index for later runs.
    */
   public static void main(String[] args) throws IOException {
     // Parse the arguments into a directory name and optional flag
@@ -338,6 +339,7 @@ public class Experiment {
     String outFile = args[args.length - 1];
     short docType = DocumentIterator.TYPE_TEXT;
     boolean stem = false;
+    boolean build = false;
     for (int i = 0; i < args.length - 3; i++) {
       String flag = args[i];
       if (flag.equals("-html"))
@@ -346,12 +348,19 @@ public class Experiment {
       else if (flag.equals("-stem"))
         // Stem tokens with Porter stemmer
         stem = true;
+      else if (flag.equals("-build"))
+        // Re-index and save the index
+        build = true;
       else {
         throw new IllegalArgumentException("Unknown flag: " + flag);
       }
     }
+    if (build)
+      InvertedIndex.deleteIndex(new File(corpusDir));
     Experiment exper = new Experiment(new File(corpusDir), new File(queryFile),
         new File(outFile), docType, stem);
+    if (build)
+      exper.index.saveIndex();
     exper.makeRpCurve();
   }
 }
\ No newline at end of file
@@ -226,6 +226,7 @@ public class ExperimentRated extends Experiment {
    * OPTIONs can be
    * "-html" to specify HTML files whose HTML tags should be removed, and
    * "-stem" to specify tokens should be stemmed with Porter stemmer.
+   * "-build" to index the corpus again and save the index for later runs.
    */
   public static void main(String[] args) throws IOException {
     // Parse the arguments into a directory name and optional flag
@@ -234,6 +235,7 @@ public class ExperimentRated extends Experiment {
     String outFile = args[args.length - 1];
     short docType = DocumentIterator.TYPE_TEXT;
     boolean stem = false;
+    boolean build = false;
 
     boolean pseudofeedback = false;
     int top_k = 0;
@@ -249,6 +251,9 @@ public class ExperimentRated extends Experiment {
       else if (flag.equals("-stem"))
         // Stem tokens with Porter stemmer
         stem = true;
+      else if (flag.equals("-build"))
+        // Re-index and save the index
+        build = true;
       
         // Parse pseudo relevance feedback
       else if (flag.equals("-pseudofeedback")) {
@@ -269,11 +274,15 @@ public class ExperimentRated extends Experiment {
         throw new IllegalArgumentException("Unknown flag: " + flag);
       }
     }
+    if (build)
+      InvertedIndex.deleteIndex(new File(corpusDir));
     ExperimentRated exper = new ExperimentRated(new File(corpusDir), new File(queryFile),
         new File(outFile), docType, stem, pseudofeedback, top_k, alpha, beta, gamma);
     // Generate a recall precision curve and NDCG results for this dataset
     // makeRpCurve must be first since it calculates the statistics for both
     
+    if (build)
+      exper.index.saveIndex();
     exper.makeRpCurve();
     exper.makeNDCGtable();
   }
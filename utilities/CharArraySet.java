@@ -0,0 +1,119 @@
+package ir.utilities;
+
+import java.util.*;
+
+/**
+ * A set of strings stored as char arrays in an open-addressing hash
+ * table with linear probing.  Membership can be tested on a slice of a
+ * char array, so a token can be looked up before a String is made of it.
+ */
+
+public class CharArraySet {
+  /**
+   * The hash table, a power of two in length, null for an empty slot
+   */
+  protected char[][] table;
+
+  /**
+   * The number of elements in the set
+   */
+  protected int size = 0;
+
+  /**
+   * Create an empty set that can hold the given number of elements
+   * without growing.
+   */
+  public CharArraySet(int expected) {
+    int capacity = 4;
+    while (capacity * 3 < expected * 4)
+      capacity <<= 1;
+    table = new char[capacity][];
+  }
+
+  /**
+   * Add a string to the set.
+   *
+   * @return true if the string was not already present
+   */
+  public boolean add(String string) {
+    char[] chars = string.toCharArray();
+    int mask = table.length - 1;
+    int slot = hash(chars, 0, chars.length) & mask;
+    while (table[slot] != null) {
+      if (equals(table[slot], chars, 0, chars.length))
+        return false;
+      slot = (slot + 1) & mask;
+    }
+    table[slot] = chars;
+    // Keep the load factor at or below 3/4
+    if (++size * 4 > table.length * 3)
+      rehash(table.length << 1);
+    return true;
+  }
+
+  /**
+   * Returns true iff the chars from offset to offset + length are in the set
+   */
+  public boolean contains(char[] chars, int offset, int length) {
+    int mask = table.length - 1;
+    int slot = hash(chars, offset, length) & mask;
+    while (table[slot] != null) {
+      if (equals(table[slot], chars, offset, length))
+        return true;
+      slot = (slot + 1) & mask;
+    }
+    return false;
+  }
+
+  /**
+   * Returns true iff the string is in the set
+   */
+  public boolean contains(String string) {
+    char[] chars = string.toCharArray();
+    return contains(chars, 0, chars.length);
+  }
+
+  /**
+   * Return the number of strings in the set
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Grow the table to the given capacity and reinsert all strings
+   */
+  protected void rehash(int capacity) {
+    char[][] old = table;
+    table = new char[capacity][];
+    int mask = capacity - 1;
+    for (char[] chars : old) {
+      if (chars != null) {
+        int slot = hash(chars, 0, chars.length) & mask;
+        while (table[slot] != null)
+          slot = (slot + 1) & mask;
+        table[slot] = chars;
+      }
+    }
+  }
+
+  protected static boolean equals(char[] key, char[] chars, int offset, int length) {
+    if (key.length != length)
+      return false;
+    for (int i = 0; i < length; i++) {
+      if (key[i] != chars[offset + i])
+        return false;
+    }
+    return true;
+  }
+
+  /**
+   * The String hash code of the chars with its high bits folded in
+   */
+  protected static int hash(char[] chars, int offset, int length) {
+    int h = 0;
+    for (int i = offset; i < offset + length; i++)
+      h = 31 * h + chars[i];
+    return h ^ (h >>> 16);
+  }
+}
@@ -0,0 +1,137 @@
+package ir.utilities;
+
+import java.util.*;
+
+/**
+ * A set of non-negative ints stored in an open-addressing hash table
+ * with linear probing.  Avoids the boxing and per-entry objects of a
+ * HashSet&lt;Integer&gt; when the set is small and there are many of them.
+ */
+
+public class IntHashSet {
+  /**
+   * Marker for an empty slot in the table
+   */
+  protected static final int EMPTY = -1;
+
+  /**
+   * The hash table, a power of two in length
+   */
+  protected int[] table;
+
+  /**
+   * The number of elements in the set
+   */
+  protected int size = 0;
+
+  /**
+   * Create an empty set with a small initial capacity
+   */
+  public IntHashSet() {
+    this(4);
+  }
+
+  /**
+   * Create an empty set that can hold the given number of elements
+   * without growing.
+   */
+  public IntHashSet(int expected) {
+    int capacity = 4;
+    while (capacity * 3 < expected * 4)
+      capacity <<= 1;
+    table = new int[capacity];
+    Arrays.fill(table, EMPTY);
+  }
+
+  /**
+   * Add a value to the set.
+   *
+   * @return true if the value was not already present
+   */
+  public boolean add(int value) {
+    if (value < 0)
+      throw new IllegalArgumentException("IntHashSet: Negative value " + value);
+    int mask = table.length - 1;
+    int slot = mix(value) & mask;
+    while (table[slot] != EMPTY) {
+      if (table[slot] == value)
+        return false;
+      slot = (slot + 1) & mask;
+    }
+    table[slot] = value;
+    // Keep the load factor at or below 3/4
+    if (++size * 4 > table.length * 3)
+      rehash(table.length << 1);
+    return true;
+  }
+
+  /**
+   * Returns true iff the value is in the set
+   */
+  public boolean contains(int value) {
+    if (value < 0)
+      return false;
+    int mask = table.length - 1;
+    int slot = mix(value) & mask;
+    while (table[slot] != EMPTY) {
+      if (table[slot] == value)
+        return true;
+      slot = (slot + 1) & mask;
+    }
+    return false;
+  }
+
+  /**
+   * Return the number of values in the set
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Remove all values from the set
+   */
+  public void clear() {
+    Arrays.fill(table, EMPTY);
+    size = 0;
+  }
+
+  /**
+   * Return the values in the set in no particular order
+   */
+  public int[] toArray() {
+    int[] values = new int[size];
+    int i = 0;
+    for (int value : table) {
+      if (value != EMPTY)
+        values[i++] = value;
+    }
+    return values;
+  }
+
+  /**
+   * Grow the table to the given capacity and reinsert all values
+   */
+  protected void rehash(int capacity) {
+    int[] old = table;
+    table = new int[capacity];
+    Arrays.fill(table, EMPTY);
+    int mask = capacity - 1;
+    for (int value : old) {
+      if (value != EMPTY) {
+        int slot = mix(value) & mask;
+        while (table[slot] != EMPTY)
+          slot = (slot + 1) & mask;
+        table[slot] = value;
+      }
+    }
+  }
+
+  /**
+   * Scramble the bits of a value so that sequential ids spread over the table
+   */
+  protected static int mix(int value) {
+    int h = value * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+}
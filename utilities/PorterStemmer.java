@@ -0,0 +1,309 @@
+package ir.utilities;
+
+import java.io.*;
+
+/**
+ * The Porter stemmer of Porter working in place on a reusable char
+ * array instead of building Strings a character at a time.  It gives
+ * exactly the stems of Porter.stripAffixes, including its prefix
+ * stripping and its variations on the published algorithm.
+ * <p/>
+ * A PorterStemmer keeps its word in a buffer, so each thread must use
+ * its own.  StemCache shares stems between threads.
+ *
+ * @see Porter
+ * @see StemCache
+ */
+
+public class PorterStemmer {
+
+  protected static final String[][] STEP2_SUFFIXES = {{"ational", "ate"},
+      {"tional", "tion"},
+      {"enci", "ence"},
+      {"anci", "ance"},
+      {"izer", "ize"},
+      {"iser", "ize"},
+      {"abli", "able"},
+      {"alli", "al"},
+      {"entli", "ent"},
+      {"eli", "e"},
+      {"ousli", "ous"},
+      {"ization", "ize"},
+      {"isation", "ize"},
+      {"ation", "ate"},
+      {"ator", "ate"},
+      {"alism", "al"},
+      {"iveness", "ive"},
+      {"fulness", "ful"},
+      {"ousness", "ous"},
+      {"aliti", "al"},
+      {"iviti", "ive"},
+      {"biliti", "ble"}};
+
+  protected static final String[][] STEP3_SUFFIXES = {{"icate", "ic"},
+      {"ative", ""},
+      {"alize", "al"},
+      {"alise", "al"},
+      {"iciti", "ic"},
+      {"ical", "ic"},
+      {"ful", ""},
+      {"ness", ""}};
+
+  protected static final String[] STEP4_SUFFIXES = {"al", "ance", "ence", "er", "ic", "able", "ible", "ant",
+      "ement", "ment", "ent", "sion", "tion", "ou", "ism", "ate", "iti", "ous", "ive", "ize", "ise"};
+
+  protected static final String[] PREFIXES = {"kilo", "micro", "milli", "intra", "ultra", "mega", "nano",
+      "pico", "pseudo"};
+
+  /**
+   * The word being stemmed, in its first k chars.
+   */
+  protected char[] b = new char[32];
+
+  /**
+   * The length of the word being stemmed.
+   */
+  protected int k = 0;
+
+  /**
+   * Returns the stem of a word.
+   */
+  public String stem(String word) {
+    int length = word.length();
+    if (length + 1 > b.length)
+      b = new char[length + 1];
+    word.getChars(0, length, b, 0);
+    return stem(b, 0, length);
+  }
+
+  /**
+   * Returns the stem of the word in chars from offset to offset + length.
+   */
+  public String stem(char[] chars, int offset, int length) {
+    boolean lowerCase = true;
+    for (int i = offset; i < offset + length; i++) {
+      if (chars[i] < 'a' || chars[i] > 'z') {
+        lowerCase = false;
+        break;
+      }
+    }
+    if (lowerCase) {
+      if (length + 1 > b.length)
+        b = new char[length + 1];
+      System.arraycopy(chars, offset, b, 0, length);
+      k = length;
+    } else {
+      // Lowercase the word and keep only its letters and digits
+      String lower = new String(chars, offset, length).toLowerCase();
+      if (lower.length() + 1 > b.length)
+        b = new char[lower.length() + 1];
+      k = 0;
+      for (int i = 0; i < lower.length(); i++) {
+        if (Character.isLetterOrDigit(lower.charAt(i)))
+          b[k++] = lower.charAt(i);
+      }
+    }
+    if (k > 2) {
+      stripPrefixes();
+      if (k > 0)
+        stripSuffixes();
+    }
+    return new String(b, 0, k);
+  }
+
+  protected static boolean vowel(char ch, char prev) {
+    switch (ch) {
+      case 'a':
+      case 'e':
+      case 'i':
+      case 'o':
+      case 'u':
+        return true;
+      case 'y':
+        switch (prev) {
+          case 'a':
+          case 'e':
+          case 'i':
+          case 'o':
+          case 'u':
+            return false;
+          default:
+            return true;
+        }
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * The number of vowel-consonant sequences in the first length chars.
+   */
+  protected int measure(int length) {
+    int i = 0, count = 0;
+    while (i < length) {
+      for (; i < length; i++) {
+        if (vowel(b[i], (i > 0) ? b[i - 1] : 'a'))
+          break;
+      }
+      for (i++; i < length; i++) {
+        if (!vowel(b[i], (i > 0) ? b[i - 1] : '?'))
+          break;
+      }
+      if (i < length) {
+        count++;
+        i++;
+      }
+    }
+    return count;
+  }
+
+  protected boolean containsVowel(int length) {
+    for (int i = 0; i < length; i++) {
+      if (vowel(b[i], (i > 0) ? b[i - 1] : 'a'))
+        return true;
+    }
+    return false;
+  }
+
+  /**
+   * Whether the first length chars end consonant-vowel-consonant, the
+   * last not w, x or y.
+   */
+  protected boolean cvc(int length) {
+    if (length < 3)
+      return false;
+    if (!vowel(b[length - 1], b[length - 2]) && b[length - 1] != 'w' && b[length - 1] != 'x'
+        && b[length - 1] != 'y' && vowel(b[length - 2], b[length - 3])) {
+      if (length == 3)
+        return !vowel(b[0], '?');
+      else
+        return !vowel(b[length - 3], b[length - 4]);
+    }
+    return false;
+  }
+
+  /**
+   * Whether the word is longer than suffix and ends with it.
+   */
+  protected boolean endsWith(String suffix) {
+    int n = suffix.length();
+    if (k <= n)
+      return false;
+    for (int i = 0; i < n; i++) {
+      if (b[k - n + i] != suffix.charAt(i))
+        return false;
+    }
+    return true;
+  }
+
+  protected void append(String suffix) {
+    for (int i = 0; i < suffix.length(); i++)
+      b[k++] = suffix.charAt(i);
+  }
+
+  protected void step1() {
+    if (b[k - 1] == 's') {
+      if (endsWith("sses") || endsWith("ies"))
+        k -= 2;
+      else {
+        if (k == 1) {
+          k = 0;
+          return;
+        }
+        if (b[k - 2] != 's')
+          k--;
+      }
+    }
+    if (endsWith("eed")) {
+      if (measure(k - 3) > 0)
+        k--;
+    } else {
+      int stem = endsWith("ed") ? k - 2 : endsWith("ing") ? k - 3 : -1;
+      if (stem >= 0 && containsVowel(stem)) {
+        k = stem;
+        if (k == 1)
+          return;
+        if (endsWith("at") || endsWith("bl") || endsWith("iz"))
+          append("e");
+        else if (b[k - 1] == b[k - 2] && b[k - 1] != 'l' && b[k - 1] != 's' && b[k - 1] != 'z')
+          k--;
+        else if (measure(k) == 1 && cvc(k))
+          append("e");
+      }
+    }
+    if (endsWith("y") && containsVowel(k - 1))
+      b[k - 1] = 'i';
+  }
+
+  /**
+   * Replace the first suffix in the table found after a stem with a
+   * measure over minMeasure.
+   */
+  protected void replaceSuffix(String[][] suffixes, int minMeasure) {
+    for (String[] suffix : suffixes) {
+      if (endsWith(suffix[0]) && measure(k - suffix[0].length()) > minMeasure) {
+        k -= suffix[0].length();
+        append(suffix[1]);
+        return;
+      }
+    }
+  }
+
+  protected void step4() {
+    for (String suffix : STEP4_SUFFIXES) {
+      if (endsWith(suffix) && measure(k - suffix.length()) > 1) {
+        k -= suffix.length();
+        return;
+      }
+    }
+  }
+
+  protected void step5() {
+    if (b[k - 1] == 'e') {
+      int m = measure(k);
+      if (m > 1)
+        k--;
+      else if (m == 1 && !cvc(k - 1))
+        k--;
+    }
+    if (k == 1)
+      return;
+    if (b[k - 1] == 'l' && b[k - 2] == 'l' && measure(k) > 1)
+      k--;
+  }
+
+  protected void stripPrefixes() {
+    for (String prefix : PREFIXES) {
+      int n = prefix.length();
+      if (k < n)
+        continue;
+      int i = 0;
+      while (i < n && b[i] == prefix.charAt(i))
+        i++;
+      if (i == n) {
+        System.arraycopy(b, n, b, 0, k - n);
+        k -= n;
+        return;
+      }
+    }
+  }
+
+  protected void stripSuffixes() {
+    step1();
+    if (k >= 1)
+      replaceSuffix(STEP2_SUFFIXES, 0);
+    if (k >= 1)
+      replaceSuffix(STEP3_SUFFIXES, 0);
+    if (k >= 1)
+      step4();
+    if (k >= 1)
+      step5();
+  }
+
+  /**
+   * For testing, print the stemmed version of a word
+   */
+  public static void main(String[] args) throws IOException {
+    System.out.println(new PorterStemmer().stem(args[0]));
+  }
+}
@@ -0,0 +1,104 @@
+package ir.utilities;
+
+/**
+ * A bounded cache of Porter stems that any number of threads can share.
+ * Words go to a slot of a fixed table by their hash, replacing the word
+ * there, so the cache never grows and the frequent words of a Zipfian
+ * vocabulary stay in it.  Entries are immutable and a slot is replaced
+ * whole, so readers need no locks; a lost or stale slot only costs
+ * stemming a word again.  Misses are stemmed by a PorterStemmer confined
+ * to the calling thread.
+ *
+ * @see PorterStemmer
+ */
+
+public class StemCache {
+  /**
+   * The default number of slots
+   */
+  public static final int DEFAULT_CAPACITY = 1 << 14;
+
+  /**
+   * A word and its stem
+   */
+  protected static final class Entry {
+    final String word;
+    final String stem;
+
+    Entry(String word, String stem) {
+      this.word = word;
+      this.stem = stem;
+    }
+  }
+
+  /**
+   * The slots, a power of two in length
+   */
+  protected final Entry[] table;
+
+  /**
+   * The stemmer of each thread
+   */
+  protected final ThreadLocal<PorterStemmer> stemmers = new ThreadLocal<PorterStemmer>() {
+    protected PorterStemmer initialValue() {
+      return new PorterStemmer();
+    }
+  };
+
+  /**
+   * Create a cache with at least the given number of slots
+   */
+  public StemCache(int capacity) {
+    int slots = 1;
+    while (slots < capacity)
+      slots <<= 1;
+    table = new Entry[slots];
+  }
+
+  /**
+   * Returns the stem of the word in chars from offset to offset + length,
+   * the same as Porter.stripAffixes of it.
+   */
+  public String stem(char[] chars, int offset, int length) {
+    int h = 0;
+    for (int i = offset; i < offset + length; i++)
+      h = 31 * h + chars[i];
+    int slot = slot(h);
+    Entry entry = table[slot];
+    if (entry != null && matches(entry.word, chars, offset, length))
+      return entry.stem;
+    String stem = stemmers.get().stem(chars, offset, length);
+    table[slot] = new Entry(new String(chars, offset, length), stem);
+    return stem;
+  }
+
+  /**
+   * Returns the stem of a word, the same as Porter.stripAffixes of it.
+   */
+  public String stem(String word) {
+    int slot = slot(word.hashCode());
+    Entry entry = table[slot];
+    if (entry != null && entry.word.equals(word))
+      return entry.stem;
+    String stem = stemmers.get().stem(word);
+    table[slot] = new Entry(word, stem);
+    return stem;
+  }
+
+  /**
+   * The slot of a word with the given String hash code
+   */
+  protected int slot(int h) {
+    return (h ^ (h >>> 16)) & (table.length - 1);
+  }
+
+  protected static boolean matches(String word, char[] chars, int offset, int length) {
+    if (word.length() != length)
+      return false;
+    for (int i = 0; i < length; i++) {
+      if (word.charAt(i) != chars[offset + i])
+        return false;
+    }
+    return true;
+  }
+}
@@ -28,11 +28,16 @@ public abstract class Document {
   /**
    * The hashtable where stopwords are indexed
    */
-  protected static HashSet<String> stopWords = null;
+  protected static volatile HashSet<String> stopWords = null;
   /**
-   * The Porter stemmer
+   * The stopwords as char arrays, for checking tokens before they are Strings
    */
-  protected static Porter stemmer = new Porter();
+  protected static CharArraySet stopWordChars = null;
+  /**
+   * The Porter stems of tokens, cached for all documents and safe to use
+   * from the threads documents are created on
+   */
+  protected static final StemCache stemmer = new StemCache(StemCache.DEFAULT_CAPACITY);
 
   /**
    * The next token in the document
@@ -41,6 +46,12 @@ public abstract class Document {
   protected String nextToken1 = null;
   protected String nextToken2 = null;
 
+  /**
+   * The tokenizer over the text of the document, or null if candidate
+   * tokens come from getNextCandidateToken
+   */
+  protected Tokenizer tokenizer = null;
+
   /**
    * The number of tokens currently read from document
    */
@@ -79,6 +90,27 @@ public abstract class Document {
    * Performs stop-word removal of candidate tokens.
    */
   protected void prepareNextToken() {
+    if (tokenizer != null) {
+      // Check each candidate on the lowercased chars of the tokenizer and
+      // only make a String of the ones that are kept
+      while (tokenizer.next()) {
+        if (!tokenizer.allLetters() || stopWordChars.contains(tokenizer.token, 0, tokenizer.length))
+          continue;
+        if (stem) {
+          // Stem from the chars, usually without making a String of the token
+          nextToken1 = stemmer.stem(tokenizer.token, 0, tokenizer.length);
+          if (stopWords.contains(nextToken1))
+            continue;
+        } else
+          nextToken1 = tokenizer.toString();
+        return;
+      }
+      nextToken1 = null;
+      return;
+    }
+    // Every document in this package sets a tokenizer, so this fallback
+    // and the getNextCandidateToken overrides are only still used by the
+    // deprecated prepareNextToken2 bigram path of hashMapVector2.
     // Loop until a non-stopword token is found
     do {
       nextToken1 = getNextCandidateToken();
@@ -91,7 +123,7 @@ public abstract class Document {
       if (stopWords.contains(nextToken1) || !allLetters(nextToken1))
         nextToken1 = null;
       else if (stem) {
-        nextToken1 = stemmer.stripAffixes(nextToken1);
+        nextToken1 = stemmer.stem(nextToken1);
         if (stopWords.contains(nextToken1))
           nextToken1 = null;
       }
@@ -119,13 +151,18 @@ public abstract class Document {
 
   /**
    * Load the stopwords from file to the hashtable where they are indexed.
+   * The table is only published once full, so documents may be created
+   * on several threads.
    */
-  protected static void loadStopWords() {
+  protected static synchronized void loadStopWords() {
+    if (stopWords != null)
+      return;
     // Initialize hashtable to proper size given known number of
     // stopwords in the file and a default 75% load factor with
     // 10 extra slots for spare room.
     int HashMapSize = (int) (numStopWords / 0.75 + 10);
-    stopWords = new HashSet<String>(HashMapSize);
+    HashSet<String> words = new HashSet<String>(HashMapSize);
+    CharArraySet wordChars = new CharArraySet(numStopWords);
     String line;
     try {
       // Open stopword file for reading
@@ -134,9 +171,13 @@ public abstract class Document {
       while ((line = in.readLine()) != null) {
         // Index word into the hashtable with
         // the default empty string as a "dummy" value.
-        stopWords.add(line);
+        words.add(line);
+        wordChars.add(line);
       }
       in.close();
+      // Publishing stopWords last also publishes stopWordChars
+      stopWordChars = wordChars;
+      stopWords = words;
     }
     catch (IOException e) {
       System.out.println("\nCould not load stopwords file: " + stopWordsFile);
@@ -193,7 +234,10 @@ public abstract class Document {
    * it occurs in the document as stored in a Weight.
    *
    * @see Weight
+   * @deprecated Two-word tokens only support two-word phrases; use a
+   *             PositionalInvertedIndex for phrase queries of any length.
    */
+  @Deprecated
   public HashMapVector hashMapVector2() {
     //Here, both nextToken1 and nextToken2 is used.
     if (numTokens != 0)
@@ -255,7 +299,7 @@ public abstract class Document {
       if (stopWords.contains(nextToken1) || !allLetters(nextToken1))
         nextToken1 = null;
       else if (stem) {
-        nextToken1 = stemmer.stripAffixes(nextToken1);
+        nextToken1 = stemmer.stem(nextToken1);
         if (stopWords.contains(nextToken1))
           nextToken1 = null;
       }
@@ -87,18 +87,49 @@ public class DocumentIterator {
   public FileDocument nextDocument() {
     if (position >= files.length)
       return null;
+    FileDocument doc = getDocument(position);
+    // Reset position to the next file
+    position++;
+    return doc;
+  }
+
+  /**
+   * Returns the number of documents in the directory.
+   */
+  public int numDocuments() {
+    return (files == null) ? 0 : files.length;
+  }
+
+  /**
+   * Returns the file of the document at a position.
+   */
+  public File getFile(int position) {
+    return files[position];
+  }
+
+  /**
+   * Creates the document at a position without moving the iterator, so
+   * documents can be created on several threads.
+   */
+  public FileDocument getDocument(int position) {
+    return createDocument(files[position], null);
+  }
+
+  /**
+   * Creates a document of docType for a file whose contents are read
+   * from reader, or from the file if reader is null.
+   */
+  protected FileDocument createDocument(File file, Reader reader) {
     FileDocument doc = null;
     // Create the correct type of FileDocument based on docType
     switch (docType) {
       case TYPE_TEXT:
-        doc = new TextFileDocument(files[position], stem);
+        doc = new TextFileDocument(file, reader, stem);
         break;
       case TYPE_HTML:
-        doc = new HTMLFileDocument(files[position], stem);
+        doc = new HTMLFileDocument(file, reader, stem);
         break;
     }
-    // Reset position to the next file
-    position++;
     return doc;
   }
 
@@ -20,6 +20,11 @@ public class DocumentReference {
    * The length of the corresponding Document vector.
    */
   public double length = 0.0;
+  /**
+   * The position of the document in the docRefs of its index, -1 if
+   * not indexed.
+   */
+  public int id = -1;
 
   public DocumentReference(File file, double length) {
     this.file = file;
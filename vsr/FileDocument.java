@@ -22,8 +22,21 @@ public abstract class FileDocument extends Document {
    * Creates a FileDocument and initializes its name and reader.
    */
   public FileDocument(File file, boolean stem) {
+    this(file, null, stem);
+  }
+
+  /**
+   * Creates a FileDocument whose contents are read from reader instead
+   * of the file, such as a reader over the bytes of the file loaded
+   * ahead of time.  If reader is null the file is opened.
+   */
+  public FileDocument(File file, Reader reader, boolean stem) {
     super(stem);
     this.file = file;
+    if (reader != null) {
+      this.reader = new BufferedReader(reader);
+      return;
+    }
     try {
       this.reader = new BufferedReader(new FileReader(file));
     }
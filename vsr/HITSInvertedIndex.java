@@ -0,0 +1,170 @@
+package ir.vsr;
+
+import java.io.*;
+import java.util.*;
+
+import ir.utilities.*;
+import ir.webutils.CSRGraph;
+import ir.webutils.GraphFile;
+import ir.webutils.HITS;
+import ir.webutils.HTMLPage;
+
+/**
+ * An inverted index over a crawl by PageRankSpider that reranks each
+ * query with HITS.  The top retrievals form the root set, HITS runs on
+ * the base set drawn from graph.bin, and every base set page is scored
+ * by its cosine similarity mixed with its authority score relative to
+ * the best authority.  Pages pulled in only by links are scored by
+ * their authority alone.
+ */
+public class HITSInvertedIndex extends PageRankInvertedIndex {
+
+    //Number of top retrievals used as the HITS root set
+    public int rootSize = 200;
+    //Weight of the authority score against the cosine similarity
+    public double hitsWeight = 0.5;
+
+    //The crawl graph and the HITS engine over it, null if there is no graph.bin
+    protected CSRGraph graph = null;
+    protected HITS hits = null;
+    //Document of each graph node, null for nodes without one
+    protected DocumentReference[] nodeDocs = null;
+    //Graph node of each document
+    protected Map<DocumentReference, Integer> docNodes = new HashMap<DocumentReference, Integer>();
+
+    public HITSInvertedIndex(File dirFile, short docType, boolean stem, boolean feedback, Double weight){
+        super(dirFile, docType, stem, feedback, weight);
+        loadGraph(new File(dirFile, "graph.bin"));
+    }
+
+// open the graph written by the spider and match its nodes to documents
+// through the URL in the BASE element of each saved page
+  protected void loadGraph(File file){
+      if (!file.exists()) {
+          System.out.println("No graph.bin in " + dirFile + ", HITS is off");
+          return;
+      }
+      try {
+          graph = GraphFile.open(file);
+          hits = new HITS(graph);
+          nodeDocs = new DocumentReference[graph.numNodes()];
+          for (DocumentReference docRef : docRefs) {
+              String url = HTMLPage.readBaseURL(docRef.file);
+              if (url == null)
+                  continue;
+              int id = graph.getId(url);
+              // Saved pages add a "/" to directory URLs
+              if (id < 0 && url.endsWith("/"))
+                  id = graph.getId(url.substring(0, url.length() - 1));
+              if (id >= 0) {
+                  nodeDocs[id] = docRef;
+                  docNodes.put(docRef, id);
+              }
+          }
+          System.out.println("Matched " + docNodes.size() + " documents to " + graph.numNodes() + " graph nodes");
+      } catch (IOException e) {
+          e.printStackTrace();
+          graph = null;
+          hits = null;
+      }
+  }
+
+  /**
+   * Retrieves as usual, then reranks the base set of the top retrievals
+   * by mixing in their HITS authority scores.
+   */
+  public Retrieval[] retrieve(HashMapVector vector){
+      Retrieval[] retrievals = super.retrieve(vector);
+      if (hits == null || retrievals.length == 0)
+          return retrievals;
+      long start = System.nanoTime();
+      int[] root = new int[Math.min(rootSize, retrievals.length)];
+      int rootCount = 0;
+      for (int i = 0; i < retrievals.length && rootCount < root.length; i++) {
+          Integer id = docNodes.get(retrievals[i].docRef);
+          if (id != null && !isDeleted(retrievals[i].docRef))
+              root[rootCount++] = id;
+      }
+      HITS.Result result;
+      // The engine reuses its scratch array, so queries take turns with it
+      synchronized (hits) {
+          result = hits.compute(Arrays.copyOf(root, rootCount));
+      }
+      double best = 0.0;
+      for (double authority : result.authorities)
+          best = Math.max(best, authority);
+      if (best == 0.0)
+          return retrievals;
+
+      Map<DocumentReference, Double> scores = new HashMap<DocumentReference, Double>();
+      for (Retrieval retrieval : retrievals)
+          scores.put(retrieval.docRef, (1.0 - hitsWeight) * retrieval.score);
+      for (int v = 0; v < result.nodes.length; v++) {
+          DocumentReference docRef = nodeDocs[result.nodes[v]];
+          // Deleted pages may still be linked to, but are never retrieved
+          if (docRef == null || isDeleted(docRef))
+              continue;
+          Double score = scores.get(docRef);
+          scores.put(docRef, ((score == null) ? 0.0 : score) + hitsWeight * result.authorities[v] / best);
+      }
+      Retrieval[] reranked = new Retrieval[scores.size()];
+      int count = 0;
+      for (Map.Entry<DocumentReference, Double> entry : scores.entrySet())
+          reranked[count++] = new Retrieval(entry.getKey(), entry.getValue());
+      Arrays.sort(reranked);
+      System.out.println("HITS: base set of " + result.nodes.length + " pages, " + result.iterations +
+          " iterations in " + (System.nanoTime() - start) / 1000000 + " ms");
+      return reranked;
+  }
+
+public static void main(String[] args) {
+    // Parse the arguments into a directory name and optional flag
+
+    String dirName = args[args.length - 1];
+    short docType = DocumentIterator.TYPE_TEXT;
+    boolean stem = false, feedback = false;
+    double weight = 0.0;
+    double hitsWeight = 0.5;
+    int rootSize = 200;
+
+    for (int i = 0; i < args.length - 1; i++) {
+      String flag = args[i];
+      if (flag.equals("-html"))
+        // Create HTMLFileDocuments to filter HTML tags
+        docType = DocumentIterator.TYPE_HTML;
+      else if (flag.equals("-stem"))
+        // Stem tokens with Porter stemmer
+        stem = true;
+      else if (flag.equals("-feedback"))
+        // Use relevance feedback
+        feedback = true;
+
+      else if (flag.equals("-weight")) {
+        // Weight of the global pagerank
+        weight = Double.parseDouble(args[++i]);
+      }
+
+      else if (flag.equals("-hits")) {
+        // Weight of the HITS authority score
+        hitsWeight = Double.parseDouble(args[++i]);
+      }
+
+      else if (flag.equals("-root")) {
+        // Number of top retrievals in the root set
+        rootSize = Integer.parseInt(args[++i]);
+      }
+
+      else {
+        throw new IllegalArgumentException("Unknown flag: "+ flag);
+      }
+    }
+
+    // Create an inverted index for the files in the given directory.
+    HITSInvertedIndex index = new HITSInvertedIndex(new File(dirName), docType, stem, feedback, weight);
+    index.hitsWeight = hitsWeight;
+    index.rootSize = rootSize;
+    // Interactively process queries to this index.
+    index.processQueries(false);
+  }
+
+}
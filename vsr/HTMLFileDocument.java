@@ -6,83 +6,15 @@ import javax.swing.text.html.*;
 import javax.swing.text.html.parser.*;
 import javax.swing.text.MutableAttributeSet;
 
-/**
- * A thread that parses an HTML file document and extracts plain text
- * from the title and the document body.  It feeds the
- * HTMLFileDocument reader with a stream of text free of HTML
- * commands.  It makes use of the Swing HTML parser which converts
- * HTML character entities into Java characters automatically.
- *
- * @author Yuk Wah Wong
- */
-class HTMLFileParserThread extends Thread {
-
-  /**
-   * The name of the HTML file
-   */
-  protected File file;
-  /**
-   * The I/O reader for accessing the HTML file
-   */
-  protected BufferedReader reader;
-  /**
-   * The I/O writer to which extracted plain text is written
-   */
-  protected PrintWriter writer;
-
-  /**
-   * Create an HTMLFileParserThread and initialize its reader and writer.
-   */
-  public HTMLFileParserThread(File file, BufferedReader reader, Writer writer) {
-    this.file = file;
-    this.reader = reader;
-    this.writer = new PrintWriter(writer);
-  }
-
-  /**
-   * Read the HTML file and parse it.  Extract plain text from the
-   * document and print it to the I/O writer.
-   */
-  public void run() {
-    try {
-      // the HTML parser callback ignores everything but the
-      // content of the document
-      HTMLEditorKit.ParserCallback callback =
-          new HTMLEditorKit.ParserCallback() {
-            // Don't add for CSS Styles
-            protected boolean add_it = true;
-
-            public void handleText(char[] data, int pos) {
-              // print the text to the I/O writer
-              if (this.add_it){
-                  writer.println(data);
-                }
-            }
-
-            public void handleStartTag(HTML.Tag t, MutableAttributeSet a, int pos) {
-                if (t == HTML.Tag.STYLE) {
-                  this.add_it = false;
-                }
-              }
-          };
-
-      // entry point into the Swing HTML parser
-      new ParserDelegator().parse(reader, callback, true);
-      // close the I/O reader and writer when parsing is finished
-      reader.close();
-      writer.close();
-    } catch (IOException e) {
-      System.out.println("\nCould not read HTMLFileDocument: " + file);
-      System.exit(1);
-    }
-  }
-
-}
-
 /**
  * An HTML file document where HTML commands are removed
  * from the token stream.  To include HTML tokens, just
  * create a TextFileDocument from the HTML file.
+ * <p/>
+ * The plain text of the title and the document body is extracted on
+ * the calling thread with the Swing HTML parser, which converts HTML
+ * character entities into Java characters automatically.  The content
+ * of STYLE and SCRIPT elements is skipped.
  *
  * @author Ray Mooney
  */
@@ -90,41 +22,40 @@ class HTMLFileParserThread extends Thread {
 public class HTMLFileDocument extends FileDocument {
 
   /**
-   * StringTokenizer delim for tokenizing only alphabetic strings.
+   * The delimiters of the Tokenizer, kept under their old name.
    */
-  public static final String tokenizerDelim = " \t\n\r\f\'\"\\1234567890!@#$%^&*()_+-={}|[]:;<,>.?/`~";
+  public static final String tokenizerDelim = Tokenizer.DELIMITERS;
 
   /**
-   * The tokenizer for lines read from this document.
+   * The extractor of each thread, whose buffer is reused across documents.
    */
-  protected StringTokenizer tokenizer = null;
+  protected static final ThreadLocal<TextExtractor> extractors = new ThreadLocal<TextExtractor>() {
+    protected TextExtractor initialValue() {
+      return new TextExtractor();
+    }
+  };
 
   /**
-   * The I/O reader for accessing the output of the HTML parser.
+   * Create a new text document for the given file.
    */
-  protected BufferedReader textReader = null;
+  public HTMLFileDocument(File file, boolean stem) {
+    this(file, null, stem);
+  }
 
   /**
-   * Create a new text document for the given file.
+   * Create a new HTML document for the given file whose contents are
+   * read from source, or from the file if source is null.
    */
-  public HTMLFileDocument(File file, boolean stem) {
-    super(file, stem);  // Create a FileDocument
+  public HTMLFileDocument(File file, Reader source, boolean stem) {
+    super(file, source, stem);  // Create a FileDocument
     try {
-      // Create a new thread for parsing the HTML file.  The
-      // output stream of the thread is connected to textReader.
-      PipedWriter textWriter = new PipedWriter();
-      textReader = new BufferedReader(new PipedReader(textWriter));
-      HTMLFileParserThread thread = new HTMLFileParserThread(file, reader, textWriter);
-      // The thread parses the HTML file at the same time when
-      // its plain text output is read
-      thread.start();
-
-      // create a StringTokenizer for the first line of the
-      // plain text
-      String line = textReader.readLine();
-      if (line != null) {
-        this.tokenizer = new StringTokenizer(line, tokenizerDelim);
-      }
+      TextExtractor extractor = extractors.get();
+      extractor.reset();
+      // entry point into the Swing HTML parser
+      new ParserDelegator().parse(reader, extractor, true);
+      reader.close();
+      // Tokenize a copy of the text, each run of text ended by a newline
+      tokenizer = new Tokenizer(Arrays.copyOf(extractor.buffer, extractor.length));
       prepareNextToken();  // Prepare the first token
     }
     catch (IOException e) {
@@ -141,33 +72,47 @@ public class HTMLFileDocument extends FileDocument {
   }
 
   /**
-   * Return the next purely alpha-character token in the document, or null if none left.
+   * An HTML parser callback that collects the text of the document into
+   * a growable buffer, ignoring everything but the content of the
+   * document.
    */
-  protected String getNextCandidateToken() {
-    if (tokenizer == null)
-      return null;
-    String candidateToken = null;
-    try {
-      // Loop until you find a line in the file with a token
-      while (!tokenizer.hasMoreTokens()) {
-        // Read another line of plain text
-        String line = textReader.readLine();
-        if (line == null) {
-          // End of file, no more tokens, return null
-          textReader.close();
-          return null;
-        } else
-          // Create a tokenizer for this file line
-          tokenizer = new StringTokenizer(line, tokenizerDelim);
-      }
-      // Get the next token in the current line
-      candidateToken = tokenizer.nextToken();
+  protected static class TextExtractor extends HTMLEditorKit.ParserCallback {
+    char[] buffer = new char[8192];
+    int length = 0;
+    // Depth of STYLE and SCRIPT elements around the current text
+    int skipDepth = 0;
+
+    void reset() {
+      length = 0;
+      skipDepth = 0;
     }
-    catch (IOException e) {
-      System.out.println("\nCould not read from HTMLFileDocument: " + file);
-      System.exit(1);
+
+    public void handleText(char[] data, int pos) {
+      if (skipDepth > 0)
+        return;
+      if (length + data.length + 1 > buffer.length)
+        buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + data.length + 1));
+      System.arraycopy(data, 0, buffer, length, data.length);
+      length += data.length;
+      buffer[length++] = '\n';
+    }
+
+    public void handleStartTag(HTML.Tag t, MutableAttributeSet a, int pos) {
+      if (t == HTML.Tag.STYLE || t == HTML.Tag.SCRIPT)
+        skipDepth++;
+    }
+
+    public void handleEndTag(HTML.Tag t, int pos) {
+      if ((t == HTML.Tag.STYLE || t == HTML.Tag.SCRIPT) && skipDepth > 0)
+        skipDepth--;
     }
-    return candidateToken;
+  }
+
+  /**
+   * Return the next purely alpha-character token in the document, or null if none left.
+   */
+  protected String getNextCandidateToken() {
+    return tokenizer.next() ? tokenizer.toString() : null;
   }
 
   /**
@@ -181,4 +126,3 @@ public class HTMLFileDocument extends FileDocument {
   }
 
 }
-
@@ -0,0 +1,137 @@
+package ir.vsr;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * A persistent inverted index, saved next to the indexed directory as
+ * DIR.idx so that later runs open it instead of re-indexing the
+ * documents.  The binary file holds a header with the document type and
+ * stemming it was built with, the document table of file names and
+ * vector lengths, and then the TermDictionary of the tokens with their
+ * IDFs and compressed postings.
+ * <p/>
+ * A saved index is only used if it was built with the same settings
+ * over the same files and is newer than all of them, otherwise the
+ * documents are indexed again.
+ *
+ * @see InvertedIndex
+ */
+public class IndexFile {
+
+  /**
+   * Marks the start of an index file.
+   */
+  public static final int MAGIC = 0x49445831;
+
+  /**
+   * Version of the file format.
+   */
+  public static final int VERSION = 4;
+
+  /**
+   * Returns the index file of a directory of documents, DIR.idx in its
+   * parent directory.
+   */
+  public static File forDirectory(File dirFile) {
+    File dir = dirFile.getAbsoluteFile();
+    return new File(dir.getParentFile(), dir.getName() + ".idx");
+  }
+
+  /**
+   * Writes an index.  The file is written under a temporary name and
+   * then renamed, so readers never see a partial index.
+   */
+  public static void write(InvertedIndex index, File file) throws IOException {
+    File temp = new File(file.getPath() + ".tmp");
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 1 << 16));
+    try {
+      writeHeader(out, index.docType, index.stem, index.docRefs.size());
+      for (DocumentReference docRef : index.docRefs) {
+        out.writeUTF(docRef.file.getName());
+        out.writeDouble(docRef.length);
+      }
+      index.terms.write(out);
+    }
+    finally {
+      out.close();
+    }
+    Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  /**
+   * Writes an index from the files and vector lengths of its documents
+   * and a dictionary spooled by a TermDictionary.Writer, as built by
+   * SpimiIndexBuilder.  Like write, the file appears whole.
+   */
+  public static void write(File file, short docType, boolean stem, List<File> docFiles, double[] lengths,
+                           TermDictionary.Writer terms) throws IOException {
+    File temp = new File(file.getPath() + ".tmp");
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 1 << 16));
+    try {
+      writeHeader(out, docType, stem, docFiles.size());
+      for (int id = 0; id < docFiles.size(); id++) {
+        out.writeUTF(docFiles.get(id).getName());
+        out.writeDouble(lengths[id]);
+      }
+      terms.finish(out);
+    }
+    finally {
+      out.close();
+    }
+    Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  protected static void writeHeader(DataOutputStream out, short docType, boolean stem, int numDocs)
+      throws IOException {
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+    out.writeShort(docType);
+    out.writeBoolean(stem);
+    out.writeInt(numDocs);
+  }
+
+  /**
+   * Loads a saved index into an empty index if it is current for the
+   * documents of the iterator.
+   *
+   * @return true if the index was loaded, false if the file is missing
+   *         or out of date, in which case the index is left empty.
+   */
+  public static boolean load(File file, InvertedIndex index, DocumentIterator docIter) throws IOException {
+    if (!file.exists())
+      return false;
+    long saved = file.lastModified();
+    DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+    try {
+      if (in.readInt() != MAGIC)
+        throw new IOException(file + " is not an index file");
+      int version = in.readInt();
+      if (version != VERSION)
+        throw new IOException("Unsupported index version " + version + " in " + file);
+      if (in.readShort() != index.docType || in.readBoolean() != index.stem)
+        return false;
+      int numDocs = in.readInt();
+      if (numDocs != docIter.numDocuments())
+        return false;
+      DocumentReference[] docRefs = new DocumentReference[numDocs];
+      for (int id = 0; id < numDocs; id++) {
+        File docFile = docIter.getFile(id);
+        if (!in.readUTF().equals(docFile.getName()) || docFile.lastModified() > saved)
+          return false;
+        docRefs[id] = new DocumentReference(docFile, in.readDouble());
+        docRefs[id].id = id;
+      }
+      TermDictionary terms = TermDictionary.read(in);
+      index.docRefs.addAll(Arrays.asList(docRefs));
+      index.terms = terms;
+      index.tokenHash = null;
+      return true;
+    }
+    finally {
+      in.close();
+    }
+  }
+}
@@ -2,6 +2,9 @@ package ir.vsr;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.lang.*;
 
 import ir.utilities.*;
@@ -24,11 +27,19 @@ public class InvertedIndex {
   public static final int MAX_RETRIEVALS = 10;
 
   /**
-   * A HashMap where tokens are indexed. Each indexed token maps
-   * to a TokenInfo.
+   * A HashMap where tokens are indexed while documents are added. Each
+   * indexed token maps to a TokenInfo.  Once all documents are indexed it
+   * is replaced by terms and set to null.  Documents added later with
+   * addDocument are indexed in a new tokenHash alongside terms.
    */
   public Map<String, TokenInfo> tokenHash = null;
 
+  /**
+   * The dictionary of indexed tokens with their IDFs and postings, built
+   * from tokenHash once all documents are indexed.
+   */
+  public TermDictionary terms = null;
+
   /**
    * A list of all indexed documents.  Elements are DocumentReference's.
    */
@@ -68,7 +79,69 @@ public class InvertedIndex {
 
   //Weight for irrelevant documents
   public float gamma = 0;
-  
+
+  /**
+   * The number of threads documents are parsed in, 1 to index on the
+   * calling thread.
+   */
+  public int numThreads = 1;
+
+  /**
+   * The number of consecutive documents parsed by one task when indexing
+   * in parallel.
+   */
+  public static final int CHUNK_SIZE = 64;
+
+  /**
+   * The number of files read ahead of the document being indexed on a
+   * background thread, 0 to read each file when its document is created.
+   */
+  public int readAhead = 0;
+
+  /**
+   * The ids of the documents removed with deleteDocument.  Their postings
+   * stay in the index but they are never retrieved.
+   */
+  protected BitSet deleted = new BitSet();
+
+  /**
+   * The number of deleted documents.
+   */
+  protected int numDeleted = 0;
+
+  /**
+   * The number of documents added or deleted since the index was built.
+   */
+  protected int epoch = 0;
+
+  /**
+   * The epoch the document lengths were last computed at.
+   */
+  protected int lengthEpoch = 0;
+
+  /**
+   * The IDF of each token as of the current epoch, computed when first
+   * needed after an update.
+   */
+  protected final Map<String, Double> liveIdf = new ConcurrentHashMap<String, Double>();
+
+  /**
+   * Retrievals share the read lock, adding and deleting documents takes
+   * the write lock.
+   */
+  protected final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+  /**
+   * The thread document lengths are refreshed on after updates, started
+   * by the first update.
+   */
+  protected ExecutorService refresher = null;
+
+  /**
+   * Whether a refresh of the document lengths is waiting to run.
+   */
+  protected final AtomicBoolean refreshPending = new AtomicBoolean(false);
+
   /**
    * Create an inverted index of the documents in a directory.
    *
@@ -86,10 +159,35 @@ public class InvertedIndex {
    */
 
   public InvertedIndex(File dirFile, short docType, boolean stem, boolean feedback) {
+    this(dirFile, docType, stem, feedback, 1);
+  }
+
+  /**
+   * Create an inverted index of the documents in a directory, parsing
+   * them in several threads.  The index is the same as one built on a
+   * single thread.
+   *
+   * @param numThreads The number of threads documents are parsed in.
+   */
+  public InvertedIndex(File dirFile, short docType, boolean stem, boolean feedback, int numThreads) {
+    this(dirFile, docType, stem, feedback, numThreads, 0);
+  }
+
+  /**
+   * Create an inverted index of the documents in a directory, reading
+   * files ahead of the documents being indexed.  Reading ahead applies
+   * when documents are parsed on the calling thread.
+   *
+   * @param numThreads The number of threads documents are parsed in.
+   * @param readAhead  The number of files to read ahead, 0 for none.
+   */
+  public InvertedIndex(File dirFile, short docType, boolean stem, boolean feedback, int numThreads, int readAhead) {
     this.dirFile = dirFile;
     this.docType = docType;
     this.stem = stem;
     this.feedback = feedback;
+    this.numThreads = numThreads;
+    this.readAhead = readAhead;
 
     tokenHash = new HashMap<String, TokenInfo>();
     docRefs = new ArrayList<DocumentReference>();
@@ -133,24 +231,42 @@ public class InvertedIndex {
    * Index the documents in dirFile.
    */
   protected void indexDocuments() {
-    if (!tokenHash.isEmpty() || !docRefs.isEmpty()) {
+    if (terms != null || !tokenHash.isEmpty() || !docRefs.isEmpty()) {
       // Currently can only index one set of documents when an index is created
       throw new IllegalStateException("Cannot indexDocuments more than once in the same InvertedIndex");
     }
     // Get an iterator for the documents
     //docType : DocumentIterator.TYPE_HTML / DocumentIterator.TYPE_TEXT
-    DocumentIterator docIter = new DocumentIterator(dirFile, docType, stem);
+    DocumentIterator docIter = getDocumentIterator();
+    // Open the saved index of the directory if it is up to date
+    long start = System.nanoTime();
+    File indexFile = IndexFile.forDirectory(dirFile);
+    try {
+      if (IndexFile.load(indexFile, this, docIter)) {
+        System.out.println("Loaded " + docRefs.size() + " documents with " + size() + " unique terms from " +
+            indexFile + " in " + (System.nanoTime() - start) / 1000000 + " ms.");
+        return;
+      }
+    }
+    catch (IOException e) {
+      System.out.println("Could not load " + indexFile + ": " + e.getMessage());
+      clear();
+    }
     System.out.println("Indexing documents in " + dirFile);
     // Loop, processing each of the documents
 
-    while (docIter.hasMoreDocuments()) {
-      //doc : HTMLFileDocument object or TEXTFileDocument object
-      FileDocument doc = docIter.nextDocument();
-      // Create a document vector for this document
-      System.out.print(doc.file.getName() + ",");
-      HashMapVector vector = doc.hashMapVector();
-
-      indexDocument(doc, vector);
+    if (numThreads > 1)
+      indexDocumentsInParallel(docIter);
+    else {
+      while (docIter.hasMoreDocuments()) {
+        //doc : HTMLFileDocument object or TEXTFileDocument object
+        FileDocument doc = docIter.nextDocument();
+        // Create a document vector for this document
+        System.out.print(doc.file.getName() + ",");
+        HashMapVector vector = doc.hashMapVector();
+
+        indexDocument(doc, vector);
+      }
     }
 
     // Now that all documents have been processed, we can calculate the IDF weights for
@@ -159,11 +275,120 @@ public class InvertedIndex {
     System.out.println("\nIndexed " + docRefs.size() + " documents with " + size() + " unique terms.");
   }
 
+  /**
+   * Save the index to the index file of dirFile, where later indexes of
+   * the same directory load it from.
+   */
+  public void saveIndex() throws IOException {
+    if (epoch > 0)
+      throw new IllegalStateException("Cannot save an index after documents were added or deleted");
+    File indexFile = IndexFile.forDirectory(dirFile);
+    IndexFile.write(this, indexFile);
+    System.out.println("Saved index to " + indexFile);
+  }
+
+  /**
+   * Delete the saved index of a directory so that the next index of it
+   * is built from the documents.
+   */
+  public static void deleteIndex(File dirFile) {
+    IndexFile.forDirectory(dirFile).delete();
+  }
+
+  /**
+   * Return an iterator over the documents in dirFile to index.
+   */
+  protected DocumentIterator getDocumentIterator() {
+    if (readAhead > 0)
+      return new PrefetchingDocumentIterator(dirFile, docType, stem, readAhead);
+    return new DocumentIterator(dirFile, docType, stem);
+  }
+
+  /**
+   * The postings of a chunk of consecutive documents, built by one task.
+   * Tokens are kept in the order they were first seen so that merging
+   * chunks in order inserts them into tokenHash in the same order as a
+   * sequential build.
+   */
+  protected static class PartialIndex {
+    final List<DocumentReference> docRefs = new ArrayList<DocumentReference>();
+    // Postings by the position of the document in the chunk
+    final Map<String, PostingsList> postings = new LinkedHashMap<String, PostingsList>();
+  }
+
+  /**
+   * Parse and invert the documents of the iterator in chunks of
+   * CHUNK_SIZE on numThreads threads, merging the chunks in document
+   * order as they finish.
+   */
+  protected void indexDocumentsInParallel(final DocumentIterator docIter) {
+    // Make sure the stopwords are loaded before documents are created
+    Document.loadStopWords();
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    try {
+      List<Future<PartialIndex>> chunks = new ArrayList<Future<PartialIndex>>();
+      for (int from = 0; from < docIter.numDocuments(); from += CHUNK_SIZE) {
+        final int start = from;
+        final int end = Math.min(from + CHUNK_SIZE, docIter.numDocuments());
+        chunks.add(executor.submit(new Callable<PartialIndex>() {
+          public PartialIndex call() {
+            PartialIndex partial = new PartialIndex();
+            for (int i = start; i < end; i++) {
+              FileDocument doc = docIter.getDocument(i);
+              partial.docRefs.add(new DocumentReference(doc));
+              for (Map.Entry<String, Weight> entry : doc.hashMapVector().entrySet()) {
+                PostingsList postings = partial.postings.get(entry.getKey());
+                if (postings == null) {
+                  postings = new PostingsList();
+                  partial.postings.put(entry.getKey(), postings);
+                }
+                postings.add(i - start, (int) entry.getValue().getValue());
+              }
+            }
+            return partial;
+          }
+        }));
+      }
+      for (Future<PartialIndex> chunk : chunks)
+        mergePartialIndex(chunk.get());
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while indexing " + dirFile);
+    }
+    catch (ExecutionException e) {
+      throw new IllegalStateException("Could not index " + dirFile, e.getCause());
+    }
+    finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Append the documents and postings of a chunk to the index.
+   */
+  protected void mergePartialIndex(PartialIndex partial) {
+    int offset = docRefs.size();
+    for (DocumentReference docRef : partial.docRefs) {
+      System.out.print(docRef.file.getName() + ",");
+      docRef.id = docRefs.size();
+      docRefs.add(docRef);
+    }
+    for (Map.Entry<String, PostingsList> entry : partial.postings.entrySet()) {
+      TokenInfo tokenInfo = tokenHash.get(entry.getKey());
+      if (tokenInfo == null) {
+        tokenInfo = new TokenInfo();
+        tokenHash.put(entry.getKey(), tokenInfo);
+      }
+      tokenInfo.postings.addAll(entry.getValue(), offset);
+    }
+  }
+
   /**
    * Index the documents in the List of Examples for text categorization.
    */
   public void indexDocuments(List<Example> examples) {
-    if (!tokenHash.isEmpty() || !docRefs.isEmpty()) {
+    if (terms != null || !tokenHash.isEmpty() || !docRefs.isEmpty()) {
       // Currently can only index one set of documents when an index is created
       throw new IllegalStateException("Cannot indexDocuments more than once in the same InvertedIndex");
     }
@@ -187,7 +412,8 @@ public class InvertedIndex {
   protected void indexDocument(FileDocument doc, HashMapVector vector) {
     // Create a reference to this document
     DocumentReference docRef = new DocumentReference(doc);
-    // Add this document to the list of documents indexed
+    // Add this document to the list of documents indexed, its id is its position
+    docRef.id = docRefs.size();
     docRefs.add(docRef);
     // Iterate through each of the tokens in the document
     //System.out.print("vector size : " + vector.entrySet().size() + ", ");
@@ -221,7 +447,7 @@ public class InvertedIndex {
     }
 
     // Add a new occurrence for this token to its info
-    tokenInfo.occList.add(new TokenOccurrence(docRef, count));
+    tokenInfo.postings.add(docRef.id, count);
   }
 
   /**
@@ -239,20 +465,22 @@ public class InvertedIndex {
 
       TokenInfo tokenInfo = entry.getValue();
       // Get the total number of documents in which this token occurs
-      double numDocRefs = tokenInfo.occList.size();
+      double numDocRefs = tokenInfo.postings.size();
       // Calculate the IDF factor for this token
       double idf = Math.log(N / numDocRefs);
       //  System.out.println(token + " occurs in " + Math.round(numDocRefs) + " docs so IDF=" + idf);
-      if (idf == 0.0)
-        // If IDF is 0, then just remove this inconsequential token from the index
-        mapEntries.remove();
-      else {
-        tokenInfo.idf = idf;
+      tokenInfo.idf = idf;
+      tokenInfo.postings.trim();
+      // A token with an IDF of 0 adds nothing to retrieval, but is kept
+      // since adding documents without it gives it a positive IDF
+      if (idf != 0.0) {
         // In order to compute document vector lengths,  sum the
         // square of the weights (IDF * occurrence count) across
         // every token occurrence for each document and store sum in docRef.length.
-        for (TokenOccurrence occ : tokenInfo.occList) {
-          occ.docRef.length = occ.docRef.length + Math.pow(idf * occ.count, 2);
+        PostingsList.Cursor cursor = tokenInfo.postings.cursor();
+        while (cursor.next()) {
+          DocumentReference docRef = docRefs.get(cursor.doc);
+          docRef.length = docRef.length + Math.pow(idf * cursor.count, 2);
         }
       }
     }
@@ -262,6 +490,9 @@ public class InvertedIndex {
     for (DocumentReference docRef : docRefs) {
       docRef.length = Math.sqrt(docRef.length);
     }
+    // Replace the hashtable by the compact dictionary used for retrieval
+    terms = TermDictionary.build(tokenHash);
+    tokenHash = null;
   }
 
   /**
@@ -269,25 +500,48 @@ public class InvertedIndex {
    * Include info on IDF factors, occurrence counts, and document vector lengths.
    */
   public void print() {
-    // Iterate through each token in the index
-    for (Map.Entry<String, TokenInfo> entry : tokenHash.entrySet()) {
-      String token = entry.getKey();
+    // Iterate through each token in the index in order
+    for (int id = 0; id < terms.size(); id++) {
       // Print the token and its IDF factor
-      System.out.println(token + " (IDF=" + entry.getValue().idf + ") occurs in:");
+      System.out.println(terms.term(id) + " (IDF=" + terms.idf(id) + ") occurs in:");
       // For each document referenced, print its name, occurrence count for this token, and
       // document vector length (|D|).
-      for (TokenOccurrence occ : entry.getValue().occList) {
-        System.out.println("   " + occ.docRef.file.getName() + " " + occ.count +
-            " times; |D|=" + occ.docRef.length);
+      PostingsList.Cursor cursor = terms.postings(id).cursor();
+      while (cursor.next()) {
+        DocumentReference docRef = docRefs.get(cursor.doc);
+        System.out.println("   " + docRef.file.getName() + " " + cursor.count +
+            " times; |D|=" + docRef.length);
       }
     }
   }
 
   /**
-   * Return the number of tokens indexed.
+   * Return the number of tokens indexed that occur in a document that is
+   * not deleted.
    */
   public int size() {
-    return tokenHash.size();
+    if (terms == null)
+      return tokenHash.size();
+    lock.readLock().lock();
+    try {
+      int size = 0;
+      for (int id = 0; id < terms.size(); id++) {
+        TokenInfo added = (tokenHash == null) ? null : tokenHash.get(terms.term(id));
+        if (numLive(terms.postings(id)) > 0 || numLive((added != null) ? added.postings : null) > 0)
+          size++;
+      }
+      if (tokenHash != null) {
+        // Count the tokens first seen in added documents
+        for (Map.Entry<String, TokenInfo> entry : tokenHash.entrySet()) {
+          if (terms.termId(entry.getKey()) < 0 && numLive(entry.getValue().postings) > 0)
+            size++;
+        }
+      }
+      return size;
+    }
+    finally {
+      lock.readLock().unlock();
+    }
   }
 
   /**
@@ -295,7 +549,13 @@ public class InvertedIndex {
    */
   public void clear() {
     docRefs.clear();
-    tokenHash.clear();
+    tokenHash = new HashMap<String, TokenInfo>();
+    terms = null;
+    deleted.clear();
+    numDeleted = 0;
+    epoch = 0;
+    lengthEpoch = 0;
+    liveIdf.clear();
   }
 
   /**
@@ -317,38 +577,51 @@ public class InvertedIndex {
    * Perform ranked retrieval on this input query Document vector.
    */
   public Retrieval[] retrieve(HashMapVector vector) {
-    // Create a hashtable to store the retrieved documents.  Keys
-    // are docRefs and values are DoubleValues which indicate the
-    // partial score accumulated for this document so far.
+    // Create arrays indexed by document id to store the retrieved
+    // documents.  scores holds the partial score accumulated for each
+    // document so far and retrieved marks the documents found.
     // As each token in the query is processed, each document
-    // it indexes is added to this hashtable and its retrieval
+    // it indexes is marked as retrieved and its retrieval
     // score (similarity to the query) is appropriately updated.
-    Map<DocumentReference, DoubleValue> retrievalHash =
-        new HashMap<DocumentReference, DoubleValue>();
-    // Initialize a variable to store the length of the query vector
-    double queryLength = 0.0;
-    // Iterate through each token in the query input Document
-    for (Map.Entry<String, Weight> entry : vector.entrySet()) {
-      String token = entry.getKey();
-      double count = entry.getValue().getValue();
-      // Determine the score added to the similarity of each document
-      // indexed under this token and update the length of the
-      // query vector with the square of the weight for this token.
-      queryLength = queryLength + incorporateToken(token, count, retrievalHash);
-    }
-    // Finalize the length of the query vector by taking the square-root of the
-    // final sum of squares of its token weights.
-    queryLength = Math.sqrt(queryLength);
-
-    // Make an array to store the final ranked Retrievals.
-    Retrieval[] retrievals = new Retrieval[retrievalHash.size()];
-    // Iterate through each of the retrieved documents stored in
-    // the final retrievalHash.
-    int retrievalCount = 0;
-    for (Map.Entry<DocumentReference, DoubleValue> entry : retrievalHash.entrySet()) {
-      DocumentReference docRef = entry.getKey();
-      double score = entry.getValue().value;
-      retrievals[retrievalCount++] = getRetrieval(queryLength, docRef, score);
+    Retrieval[] retrievals;
+    lock.readLock().lock();
+    try {
+      double[] scores = new double[docRefs.size()];
+      boolean[] retrieved = new boolean[docRefs.size()];
+      // Initialize a variable to store the length of the query vector
+      double queryLength = 0.0;
+      // Iterate through each token in the query input Document
+      for (Map.Entry<String, Weight> entry : vector.entrySet()) {
+        String token = entry.getKey();
+        double count = entry.getValue().getValue();
+        // Determine the score added to the similarity of each document
+        // indexed under this token and update the length of the
+        // query vector with the square of the weight for this token.
+        queryLength = queryLength + incorporateToken(token, count, scores, retrieved);
+      }
+      // Finalize the length of the query vector by taking the square-root of the
+      // final sum of squares of its token weights.
+      queryLength = Math.sqrt(queryLength);
+      // Deleted documents are never retrieved
+      for (int id = deleted.nextSetBit(0); id >= 0; id = deleted.nextSetBit(id + 1))
+        retrieved[id] = false;
+
+      // Make an array to store the final ranked Retrievals.
+      int numRetrieved = 0;
+      for (boolean found : retrieved) {
+        if (found)
+          numRetrieved++;
+      }
+      retrievals = new Retrieval[numRetrieved];
+      // Iterate through each of the retrieved documents in id order.
+      int retrievalCount = 0;
+      for (int id = 0; id < retrieved.length; id++) {
+        if (retrieved[id])
+          retrievals[retrievalCount++] = getRetrieval(queryLength, docRefs.get(id), scores[id]);
+      }
+    }
+    finally {
+      lock.readLock().unlock();
     }
 
     // Sort the retrievals to produce a final ranked list using the
@@ -377,42 +650,302 @@ public class InvertedIndex {
 
   /**
    * Retrieve the documents indexed by this token in the inverted index,
-   * add it to the retrievalHash if needed, and update its running total score.
+   * mark them as retrieved, and update their running total scores.
    *
-   * @param token         The token in the query to incorporate.
-   * @param count         The count of this token in the query.
-   * @param retrievalHash The hash table of retrieved DocumentReferences and current
-   *                      scores.
+   * @param token     The token in the query to incorporate.
+   * @param count     The count of this token in the query.
+   * @param scores    The current score of each document by id.
+   * @param retrieved Whether each document by id has been retrieved.
    * @return The square of the weight of this token in the query vector for use
    *         in calculating the length of the query vector.
    */
-  public double incorporateToken(String token, double count,
-                                 Map<DocumentReference, DoubleValue> retrievalHash) {
-    TokenInfo tokenInfo = tokenHash.get(token);
+  public double incorporateToken(String token, double count, double[] scores, boolean[] retrieved) {
+    int id = terms.termId(token);
+    TokenInfo added = (tokenHash == null) ? null : tokenHash.get(token);
     // If token is not in the index, it adds nothing and its squared weight is 0
-    if (tokenInfo == null) return 0.0;
+    if (id < 0 && added == null) return 0.0;
+    double idf = idf(token, id, added);
+    // Neither does a token that occurs in every document
+    if (idf == 0.0) return 0.0;
     // The weight of a token in the query is is IDF factor times the number
     // of times it occurs in the query.
-    double weight = tokenInfo.idf * count;
+    double weight = idf * count;
+    // Each occurrence adds the product of the weight of this token in
+    // the query and its weight in the retrieved document (IDF * occurrence count)
+    double factor = weight * idf;
     // For each document occurrence indexed for this token...
-    for (TokenOccurrence occ : tokenInfo.occList) {
-      // Get the current score for this document in the retrievalHash.
-      DoubleValue val = retrievalHash.get(occ.docRef);
-      if (val == null) {
-        // If this is a new retrieved document, create an initial score
-        // for it and store in the retrievalHash
-        val = new DoubleValue(0.0);
-        retrievalHash.put(occ.docRef, val);
-      }
-      // Update the score for this document by adding the product
-      // of the weight of this token in the query and its weight
-      // in the retrieved document (IDF * occurrence count)
-      val.value = val.value + weight * tokenInfo.idf * occ.count;
-    }
+    if (id >= 0)
+      incorporatePostings(terms.postings(id), factor, scores, retrieved);
+    if (added != null)
+      incorporatePostings(added.postings, factor, scores, retrieved);
     // Return the square of the weight of this token in the query
     return weight * weight;
   }
 
+  /**
+   * Add factor times the occurrence count of each posting to the score
+   * of its document and mark the document retrieved.
+   */
+  protected static void incorporatePostings(PostingsList postings, double factor, double[] scores, boolean[] retrieved) {
+    PostingsList.Cursor cursor = postings.cursor();
+    while (cursor.next()) {
+      scores[cursor.doc] += factor * cursor.count;
+      retrieved[cursor.doc] = true;
+    }
+  }
+
+  /**
+   * Return the IDF of a token as of the current epoch.  Until documents
+   * are added or deleted it is the IDF in terms, afterwards it is
+   * computed from the documents that are not deleted the first time it
+   * is needed in each epoch.
+   *
+   * @param token The token.
+   * @param id    The id of the token in terms, -1 if it is not there.
+   * @param added The info of the token in added documents, null if none.
+   */
+  protected double idf(String token, int id, TokenInfo added) {
+    if (epoch == 0)
+      return terms.idf(id);
+    Double idf = liveIdf.get(token);
+    if (idf == null) {
+      int df = numLive((id >= 0) ? terms.postings(id) : null) + numLive((added != null) ? added.postings : null);
+      idf = (df == 0) ? 0.0 : Math.log((double) (docRefs.size() - numDeleted) / df);
+      liveIdf.put(token, idf);
+    }
+    return idf;
+  }
+
+  /**
+   * Return the number of postings of documents that are not deleted.
+   */
+  protected int numLive(PostingsList postings) {
+    if (postings == null)
+      return 0;
+    if (numDeleted == 0)
+      return postings.size();
+    int live = 0;
+    PostingsList.Cursor cursor = postings.cursor();
+    while (cursor.next()) {
+      if (!deleted.get(cursor.doc))
+        live++;
+    }
+    return live;
+  }
+
+  /**
+   * Add a document to the index without rebuilding it.  The document is
+   * retrievable as soon as this returns, with its vector length computed
+   * from the current IDFs.  The IDFs of its tokens change, so the lengths
+   * of the other documents are refreshed in the background.
+   *
+   * @return The reference to the document in the index.
+   */
+  public DocumentReference addDocument(FileDocument doc) {
+    // Tokenize outside the lock so retrievals are not held up
+    return addDocument(doc, doc.hashMapVector());
+  }
+
+  /**
+   * Add a document with its already computed vector to the index without
+   * rebuilding it.
+   */
+  protected DocumentReference addDocument(FileDocument doc, HashMapVector vector) {
+    DocumentReference docRef;
+    lock.writeLock().lock();
+    try {
+      if (tokenHash == null)
+        tokenHash = new HashMap<String, TokenInfo>();
+      docRef = new DocumentReference(doc);
+      docRef.id = docRefs.size();
+      docRefs.add(docRef);
+      for (Map.Entry<String, Weight> entry : vector.entrySet())
+        indexToken(entry.getKey(), (int) entry.getValue().getValue(), docRef);
+      startEpoch();
+      double length = 0.0;
+      for (Map.Entry<String, Weight> entry : vector.entrySet()) {
+        String token = entry.getKey();
+        double idf = idf(token, terms.termId(token), tokenHash.get(token));
+        length = length + Math.pow(idf * entry.getValue().getValue(), 2);
+      }
+      docRef.length = Math.sqrt(length);
+    }
+    finally {
+      lock.writeLock().unlock();
+    }
+    scheduleRefresh();
+    return docRef;
+  }
+
+  /**
+   * Add the document in a file to the index without rebuilding it.
+   */
+  public DocumentReference addDocument(File file) {
+    return addDocument((FileDocument) new DocumentReference(file, 0.0).getDocument(docType, stem));
+  }
+
+  /**
+   * Delete a document from the index by marking it with a tombstone.  It
+   * is never retrieved again, and the IDFs of its tokens and the lengths
+   * of the other documents are updated as after addDocument.
+   *
+   * @return false if the document was already deleted.
+   */
+  public boolean deleteDocument(DocumentReference docRef) {
+    lock.writeLock().lock();
+    try {
+      if (docRef.id < 0 || docRef.id >= docRefs.size() || docRefs.get(docRef.id) != docRef)
+        throw new IllegalArgumentException(docRef + " is not in this index");
+      if (deleted.get(docRef.id))
+        return false;
+      deleted.set(docRef.id);
+      numDeleted++;
+      startEpoch();
+    }
+    finally {
+      lock.writeLock().unlock();
+    }
+    scheduleRefresh();
+    return true;
+  }
+
+  /**
+   * Delete the indexed document with the given file name.
+   *
+   * @return false if there is no such document that is not deleted.
+   */
+  public boolean deleteDocument(String fileName) {
+    DocumentReference found = null;
+    lock.readLock().lock();
+    try {
+      for (DocumentReference docRef : docRefs) {
+        if (docRef.file.getName().equals(fileName) && !deleted.get(docRef.id)) {
+          found = docRef;
+          break;
+        }
+      }
+    }
+    finally {
+      lock.readLock().unlock();
+    }
+    return (found != null) && deleteDocument(found);
+  }
+
+  /**
+   * Return true if a document has been deleted from the index.
+   */
+  public boolean isDeleted(DocumentReference docRef) {
+    return deleted.get(docRef.id);
+  }
+
+  /**
+   * Return the number of documents that are not deleted.
+   */
+  public int numDocuments() {
+    return docRefs.size() - numDeleted;
+  }
+
+  /**
+   * Begin a new epoch after an update, discarding the IDFs of the last one.
+   */
+  protected void startEpoch() {
+    epoch++;
+    liveIdf.clear();
+  }
+
+  /**
+   * Return true if the document lengths reflect every update so far.
+   */
+  public boolean lengthsCurrent() {
+    lock.readLock().lock();
+    try {
+      return lengthEpoch == epoch;
+    }
+    finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Refresh the document lengths on the refresher thread unless a refresh
+   * is already waiting to run.
+   */
+  protected void scheduleRefresh() {
+    if (!refreshPending.compareAndSet(false, true))
+      return;
+    synchronized (this) {
+      if (refresher == null) {
+        refresher = Executors.newSingleThreadExecutor(new ThreadFactory() {
+          public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "InvertedIndex refresher");
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+      }
+    }
+    refresher.execute(new Runnable() {
+      public void run() {
+        refreshPending.set(false);
+        refreshDocumentLengths();
+      }
+    });
+  }
+
+  /**
+   * Recompute the length of every document from the current IDFs.  The
+   * lengths are computed while retrievals continue and then published
+   * together.  Documents added in the meantime keep the length computed
+   * when they were added until the next refresh.
+   */
+  public void refreshDocumentLengths() {
+    int refreshEpoch;
+    double[] lengths;
+    lock.readLock().lock();
+    try {
+      refreshEpoch = epoch;
+      lengths = new double[docRefs.size()];
+      for (int id = 0; id < terms.size(); id++) {
+        String token = terms.term(id);
+        TokenInfo added = (tokenHash == null) ? null : tokenHash.get(token);
+        addSquaredWeights(terms.postings(id), idf(token, id, added), lengths);
+        if (added != null)
+          addSquaredWeights(added.postings, idf(token, id, added), lengths);
+      }
+      if (tokenHash != null) {
+        // Add the tokens that only occur in added documents
+        for (Map.Entry<String, TokenInfo> entry : tokenHash.entrySet()) {
+          if (terms.termId(entry.getKey()) < 0)
+            addSquaredWeights(entry.getValue().postings, idf(entry.getKey(), -1, entry.getValue()), lengths);
+        }
+      }
+    }
+    finally {
+      lock.readLock().unlock();
+    }
+    lock.writeLock().lock();
+    try {
+      for (int id = 0; id < lengths.length; id++)
+        docRefs.get(id).length = Math.sqrt(lengths[id]);
+      lengthEpoch = refreshEpoch;
+    }
+    finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Add the square of the weight (IDF * occurrence count) of each posting
+   * to the running length of its document.
+   */
+  protected static void addSquaredWeights(PostingsList postings, double idf, double[] lengths) {
+    if (idf == 0.0)
+      return;
+    PostingsList.Cursor cursor = postings.cursor();
+    while (cursor.next())
+      lengths[cursor.doc] = lengths[cursor.doc] + Math.pow(idf * cursor.count, 2);
+  }
+
   /**
    * Enter an interactive user-query loop, accepting queries and showing the retrieved
    * documents in ranked order.
@@ -427,6 +960,8 @@ public class InvertedIndex {
       // If query is empty then exit the interactive loop
       if (query.equals(""))
         break;
+      // Let subclasses take options off the front of the query
+      query = parseQueryOptions(query);
       // Get the ranked retrievals for this query string and present them
       //stem : false
       HashMapVector queryVector = (new TextStringDocument(query, stem, phrase)).hashMapVector();
@@ -435,12 +970,34 @@ public class InvertedIndex {
         System.out.println(entry.getKey() + ": " + entry.getValue().getValue());
       }
 
-      Retrieval[] retrievals = retrieve(queryVector);
+      Retrieval[] retrievals = retrieveQuery(query, queryVector);
       presentRetrievals(queryVector, retrievals);
     }
     while (true);
   }
 
+  /**
+   * Called on each interactive query before it is turned into a vector so
+   * subclasses can strip and apply options given with it.
+   *
+   * @param query The query as entered.
+   * @return The query text to retrieve with.
+   */
+  protected String parseQueryOptions(String query) {
+    return query;
+  }
+
+  /**
+   * Called on each interactive query to retrieve it, so subclasses can
+   * use what the query text says besides its tokens.
+   *
+   * @param query       The query text, after parseQueryOptions.
+   * @param queryVector The vector of the query.
+   */
+  protected Retrieval[] retrieveQuery(String query, HashMapVector queryVector) {
+    return retrieve(queryVector);
+  }
+
   /**
    * Print out a ranked set of retrievals. Show the file name and score for
    * the top retrieved documents in order. Then allow user to see more or display
@@ -563,6 +1120,10 @@ public class InvertedIndex {
    * "-html" to specify HTML files whose HTML tags should be removed.
    * "-stem" to specify tokens should be stemmed with Porter stemmer.
    * "-feedback" to allow relevance feedback from the user.
+   * "-threads N" to parse documents in N threads.
+   * "-readahead N" to read N files ahead of the document being indexed.
+   * "-build" to index the documents again and save the index for later runs.
+   * "-budget MB" to build and save the index in runs of MB megabytes of postings.
    */
   public static void main(String[] args) {
     // Parse the arguments into a directory name and optional flag
@@ -575,6 +1136,10 @@ public class InvertedIndex {
     int top_k = 0;
     float alpha = 0, beta = 0;
     float gamma = 0;
+    int numThreads = 1;
+    int readAhead = 0;
+    boolean build = false;
+    double budget = 0;
 
     for (int i = 0; i < args.length - 1; i++) {
       String flag = args[i];
@@ -601,6 +1166,26 @@ public class InvertedIndex {
         i += 3;
       }
 
+      else if (flag.equals("-threads")) {
+        // Parse documents in several threads
+        numThreads = Integer.parseInt(args[++i]);
+      }
+
+      else if (flag.equals("-readahead")) {
+        // Read files ahead of the documents being indexed
+        readAhead = Integer.parseInt(args[++i]);
+      }
+
+      else if (flag.equals("-budget")) {
+        // Build the index file in bounded memory
+        budget = Double.parseDouble(args[++i]);
+      }
+
+      else if (flag.equals("-build")) {
+        // Re-index and save the index
+        build = true;
+      }
+
       else {
         throw new IllegalArgumentException("Unknown flag: "+ flag);
       }
@@ -608,12 +1193,34 @@ public class InvertedIndex {
 
     // Create an inverted index for the files in the given directory.
     InvertedIndex index;
+    if (build)
+      deleteIndex(new File(dirName));
+    if (budget > 0) {
+      // Build the index file the index then loads
+      SpimiIndexBuilder builder = new SpimiIndexBuilder(new File(dirName), docType, stem, (long) (budget * (1 << 20)));
+      builder.readAhead = readAhead;
+      try {
+        builder.build();
+      }
+      catch (IOException e) {
+        System.out.println("Could not build index: " + e.getMessage());
+      }
+      build = false;
+    }
 
     if(pseudofeedback){
       index = new InvertedIndex(new File(dirName), docType, stem, feedback, pseudofeedback, top_k, alpha, beta, gamma);
     }
     else{
-      index = new InvertedIndex(new File(dirName), docType, stem, feedback);
+      index = new InvertedIndex(new File(dirName), docType, stem, feedback, numThreads, readAhead);
+    }
+    if (build) {
+      try {
+        index.saveIndex();
+      }
+      catch (IOException e) {
+        System.out.println("Could not save index: " + e.getMessage());
+      }
     }
     // index.print();
     // Interactively process queries to this index.
@@ -8,31 +8,115 @@ import java.lang.*;
 
 import ir.utilities.*;
 import ir.classifiers.*;
+import ir.webutils.PageRankFile;
+import ir.webutils.TopicRanks;
 
 public class PageRankInvertedIndex extends InvertedIndex {
 
     public double weight = 0.0;
-    //HashMap to save the filename and its pagerank value
-    public HashMap<String, Double> pageRankMap;
+    //Pagerank value of each document indexed by DocumentReference.id
+    public double[] pageRanks;
+    //Topic-sensitive PageRank vectors from topic_ranks.bin, null if there are none
+    public TopicRanks topicRanks = null;
+    //Mix of the topic vectors indexed by DocumentReference.id, used instead of
+    //pageRanks, null to use the global PageRank
+    public double[] topicPageRanks = null;
+
+    //Files written by the spider next to the pages that are not documents
+    protected static final FilenameFilter PAGE_FILTER = new FilenameFilter() {
+        public boolean accept(File dir, String name) {
+            return !name.equals("page_ranks.txt") && !name.equals("page_ranks.bin") &&
+                !name.equals("topic_ranks.bin") && !name.equals("graph.bin");
+        }
+    };
 
     public PageRankInvertedIndex(File dirFile, short docType, boolean stem, boolean feedback, Double weight){
-        super(dirFile, docType, stem, feedback);
+        this(dirFile, docType, stem, feedback, weight, 1);
+    }
+
+    public PageRankInvertedIndex(File dirFile, short docType, boolean stem, boolean feedback, Double weight, int numThreads){
+        super(dirFile, docType, stem, feedback, numThreads);
         this.weight = weight;
-        pageRankMap = new HashMap<String, Double>();
-        loadPageRank("./indexed/page_ranks.txt");
+        loadPageRanks();
+        loadTopicRanks(new File(dirFile, "topic_ranks.bin"));
     }
 
-// load the pagerank values from the file and
-// add the filename-pagerank entry to pageRankMap
-  protected void loadPageRank(String filePath){
-      try (BufferedReader br = new BufferedReader(new FileReader(filePath))) {
-          String line;
-          while ((line = br.readLine()) != null) {
-              String[] parts = line.split(" ");
-              if (parts.length == 2) {
-                  String fileName = parts[0];
-                  double pageRank = Double.parseDouble(parts[1]);
-                  pageRankMap.put(fileName, pageRank);
+// load the topic-sensitive pagerank vectors if the spider was given topics
+  protected void loadTopicRanks(File file){
+      if (!file.exists())
+          return;
+      try {
+          topicRanks = TopicRanks.load(file);
+          System.out.print("Topics:");
+          for (int t = 0; t < topicRanks.numTopics(); t++)
+              System.out.print(" " + topicRanks.getTopic(t));
+          System.out.println();
+      } catch (IOException e) {
+          e.printStackTrace();
+      }
+  }
+
+  /**
+   * Selects the mix of topic vectors added to scores, given as
+   * "topic:weight,topic:weight,...", or the global PageRank for null or "".
+   */
+  public void setTopicMix(String spec){
+      if (spec == null || spec.isEmpty()) {
+          topicPageRanks = null;
+          return;
+      }
+      if (topicRanks == null)
+          throw new IllegalArgumentException("No topic_ranks.bin in " + dirFile);
+      topicPageRanks = topicRanks.mix(TopicRanks.parseMix(spec), docNames());
+  }
+
+  /**
+   * A query starting with "@topic:weight,... " is answered with that mix of
+   * topic vectors, and a query starting with "@ " with the global PageRank.
+   * The choice holds for the following queries.
+   */
+  protected String parseQueryOptions(String query){
+      if (!query.startsWith("@"))
+          return query;
+      int space = query.indexOf(' ');
+      String spec = (space < 0) ? query.substring(1) : query.substring(1, space);
+      try {
+          setTopicMix(spec);
+          System.out.println((topicPageRanks == null) ? "Using global PageRank" : "Using topic mix " + spec);
+      } catch (IllegalArgumentException e) {
+          System.out.println(e.getMessage());
+      }
+      return (space < 0) ? "" : query.substring(space + 1);
+  }
+
+// file names of the indexed documents by document id
+  protected List<String> docNames(){
+      List<String> names = new ArrayList<String>(docRefs.size());
+      for (DocumentReference docRef : docRefs)
+          names.add(docRef.toString());
+      return names;
+  }
+
+// load the pagerank values of the documents in dirFile, aligned with their ids,
+// from page_ranks.bin or else from the page_ranks.txt of older crawls
+  protected void loadPageRanks(){
+      pageRanks = new double[docRefs.size()];
+      File binary = new File(dirFile, "page_ranks.bin");
+      try {
+          if (binary.exists()) {
+              pageRanks = PageRankFile.open(binary).align(docNames());
+              return;
+          }
+          Map<String, Integer> ids = new HashMap<String, Integer>();
+          for (DocumentReference docRef : docRefs)
+              ids.put(docRef.toString(), docRef.id);
+          try (BufferedReader br = new BufferedReader(new FileReader(new File(dirFile, "page_ranks.txt")))) {
+              String line;
+              while ((line = br.readLine()) != null) {
+                  String[] parts = line.split(" ");
+                  Integer id = (parts.length == 2) ? ids.get(parts[0]) : null;
+                  if (id != null)
+                      pageRanks[id] = Double.parseDouble(parts[1]);
               }
           }
       } catch (IOException e) {
@@ -40,38 +124,19 @@ public class PageRankInvertedIndex extends InvertedIndex {
       }
   }
 
-// Add the functionality to skip the page_ranks.txt file for indexing
-protected void indexDocuments() {
-  if (!tokenHash.isEmpty() || !docRefs.isEmpty()) {
-    // Currently can only index one set of documents when an index is created
-    throw new IllegalStateException("Cannot indexDocuments more than once in the same InvertedIndex");
-  }
-  // Get an iterator for the documents
-  DocumentIterator docIter = new DocumentIterator(dirFile, docType, stem);
-  System.out.println("Indexing documents in " + dirFile);
-
-  while (docIter.hasMoreDocuments()) {
-    FileDocument doc = docIter.nextDocument();
-    //Skip indexing for page_ranks.txt file
-    if(doc.file.getName().equals("page_ranks.txt")) continue;
-
-    // Create a document vector for this document
-    System.out.print(doc.file.getName() + ",");
-    HashMapVector vector = doc.hashMapVector();
-    indexDocument(doc, vector);
+// Add the functionality to skip the files written by the spider for indexing
+  protected DocumentIterator getDocumentIterator(){
+      return new DocumentIterator(dirFile, docType, stem, PAGE_FILTER);
   }
-  // Now that all documents have been processed, we can calculate the IDF weights for
-  // all tokens and the resulting lengths of all weighted document vectors.
-  computeIDFandDocumentLengths();
-  System.out.println("\nIndexed " + docRefs.size() + " documents with " + size() + " unique terms.");
-}
 
   protected Retrieval getRetrieval(double queryLength, DocumentReference docRef, double score) {
     // Normalize score for the lengths of the two document vectors
     score = score / (queryLength * docRef.length);
-    String doc_name = docRef.toString();
-    // Add the pagerank of document scaled by weight to the score
-    score += pageRankMap.get(doc_name) * weight;
+    // Add the pagerank of document, or its rank in the selected topic mix, scaled by weight to the score
+    double[] ranks = (topicPageRanks != null) ? topicPageRanks : pageRanks;
+    // Documents added after the ranks were computed have no rank
+    if (docRef.id < ranks.length)
+      score += ranks[docRef.id] * weight;
 
     // Add a Retrieval for this document to the result array
     return new Retrieval(docRef, score);
@@ -84,6 +149,9 @@ public static void main(String[] args) {
     short docType = DocumentIterator.TYPE_TEXT;
     boolean stem = false, feedback = false;
     double weight = 0.0;
+    String topicMix = null;
+    int numThreads = 1;
+    boolean build = false;
 
     for (int i = 0; i < args.length - 1; i++) {
       String flag = args[i];
@@ -101,16 +169,41 @@ public static void main(String[] args) {
         weight = Double.parseDouble(args[++i]);
       }
 
+      else if (flag.equals("-topic")) {
+        // Mix of topic-sensitive pagerank vectors, e.g. "sports:0.7,news:0.3"
+        topicMix = args[++i];
+      }
+
+      else if (flag.equals("-threads")) {
+        // Parse documents in several threads
+        numThreads = Integer.parseInt(args[++i]);
+      }
+
+      else if (flag.equals("-build")) {
+        // Re-index and save the index
+        build = true;
+      }
+
       else {
         throw new IllegalArgumentException("Unknown flag: "+ flag);
       }
     }
 
     // Create an inverted index for the files in the given directory.
-    PageRankInvertedIndex index = new PageRankInvertedIndex(new File(dirName), docType, stem, feedback, weight);
+    if (build)
+      deleteIndex(new File(dirName));
+    PageRankInvertedIndex index = new PageRankInvertedIndex(new File(dirName), docType, stem, feedback, weight, numThreads);
+    if (build) {
+      try {
+        index.saveIndex();
+      } catch (IOException e) {
+        System.out.println("Could not save index: " + e.getMessage());
+      }
+    }
+    index.setTopicMix(topicMix);
     // index.print();
     // Interactively process queries to this index.
-    index.processQueries();
+    index.processQueries(false);
   }
 
 }
\ No newline at end of file
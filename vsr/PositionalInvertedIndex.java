@@ -0,0 +1,393 @@
+package ir.vsr;
+
+import java.io.*;
+import java.util.*;
+import java.util.regex.*;
+
+/**
+ * An inverted index that also stores the positions of each token in the
+ * documents it occurs in, so queries can require phrases of any length.
+ * A phrase is given in quotes in a query, and "w1 w2 w3"~k requires the
+ * tokens in order with at most k other tokens between them.  Positions
+ * count the tokens left after stop-word removal, so a phrase also
+ * matches across the stop words between its tokens.
+ * <p/>
+ * Documents are ranked by the usual cosine similarity to all the tokens
+ * of the query and only the ones containing every phrase are retrieved.
+ * The documents with a phrase are found by intersecting the postings of
+ * its tokens, skipping blocks with PostingsList.Cursor.advance, and then
+ * intersecting their position lists in each common document.  Documents
+ * added after the index is built keep their positions apart, alongside
+ * the postings of added documents, and are matched separately.
+ *
+ * @see PositionsList
+ */
+public class PositionalInvertedIndex extends InvertedIndex {
+
+  /**
+   * A phrase of a query and how far apart its tokens may be.
+   */
+  public static class Phrase {
+    /**
+     * The tokens of the phrase, stop words removed.
+     */
+    public final String[] tokens;
+
+    /**
+     * The number of other tokens allowed between the tokens, 0 for an
+     * exact phrase.
+     */
+    public final int slop;
+
+    public Phrase(String[] tokens, int slop) {
+      this.tokens = tokens;
+      this.slop = slop;
+    }
+
+    public String toString() {
+      StringBuilder string = new StringBuilder("\"");
+      for (String token : tokens)
+        string.append((string.length() == 1) ? "" : " ").append(token);
+      return string.append('"').append((slop > 0) ? "~" + slop : "").toString();
+    }
+  }
+
+  /**
+   * A quoted phrase with an optional ~slop.
+   */
+  protected static final Pattern PHRASE_PATTERN = Pattern.compile("\"([^\"]*)\"(?:~(\\d+))?");
+
+  /**
+   * The positions of each token by term id.  Set while indexing, which
+   * runs in the InvertedIndex constructor, so it has no initializer.
+   */
+  protected PositionsList[] positions;
+
+  /**
+   * The positions of each token in added documents, in the same order as
+   * the postings of the token in tokenHash.
+   */
+  protected Map<String, PositionsList> addedPositions = new HashMap<String, PositionsList>();
+
+  /**
+   * Create a positional index of the documents in a directory.
+   *
+   * @param dirFile  The directory of files to index.
+   * @param docType  The type of documents to index (See docType in DocumentIterator)
+   * @param stem     Whether tokens should be stemmed with Porter stemmer.
+   * @param feedback Whether relevance feedback should be used.
+   */
+  public PositionalInvertedIndex(File dirFile, short docType, boolean stem, boolean feedback) {
+    super(dirFile, docType, stem, feedback);
+  }
+
+  /**
+   * Index the documents in dirFile with the positions of their tokens.
+   * Saved index files hold no positions, so the documents are always read.
+   */
+  protected void indexDocuments() {
+    if (terms != null || !tokenHash.isEmpty() || !docRefs.isEmpty()) {
+      throw new IllegalStateException("Cannot indexDocuments more than once in the same InvertedIndex");
+    }
+    DocumentIterator docIter = getDocumentIterator();
+    System.out.println("Indexing documents with positions in " + dirFile);
+    Map<String, PositionsList> tokenPositions = new HashMap<String, PositionsList>();
+    // The positions of each token in the current document
+    Map<String, int[]> docPositions = new LinkedHashMap<String, int[]>();
+    while (docIter.hasMoreDocuments()) {
+      FileDocument doc = docIter.nextDocument();
+      System.out.print(doc.file.getName() + ",");
+      docPositions.clear();
+      indexDocument(doc, tokenize(doc, docPositions));
+      addPositions(docPositions, tokenPositions);
+    }
+    computeIDFandDocumentLengths();
+    // Align the positions with the term ids of the dictionary
+    positions = new PositionsList[terms.size()];
+    for (Map.Entry<String, PositionsList> entry : tokenPositions.entrySet()) {
+      entry.getValue().trim();
+      positions[terms.termId(entry.getKey())] = entry.getValue();
+    }
+    System.out.println("\nIndexed " + docRefs.size() + " documents with " + size() + " unique terms.");
+  }
+
+  /**
+   * Return the vector of the tokens of a document, putting the positions
+   * of each token in docPositions.  The first element of each array of
+   * positions counts the positions after it.
+   */
+  protected static HashMapVector tokenize(Document doc, Map<String, int[]> docPositions) {
+    HashMapVector vector = new HashMapVector();
+    for (int position = 0; doc.hasMoreTokens(); position++) {
+      String token = doc.nextToken();
+      int[] list = docPositions.get(token);
+      if (list == null)
+        list = new int[4];
+      else if (list[0] + 1 == list.length)
+        list = Arrays.copyOf(list, list.length * 2);
+      list[++list[0]] = position;
+      docPositions.put(token, list);
+      vector.increment(token);
+    }
+    return vector;
+  }
+
+  /**
+   * Append the positions of the tokens of the last document to their
+   * PositionsLists.
+   */
+  protected static void addPositions(Map<String, int[]> docPositions, Map<String, PositionsList> tokenPositions) {
+    for (Map.Entry<String, int[]> entry : docPositions.entrySet()) {
+      PositionsList list = tokenPositions.get(entry.getKey());
+      if (list == null) {
+        list = new PositionsList();
+        tokenPositions.put(entry.getKey(), list);
+      }
+      int[] docList = entry.getValue();
+      list.add(Arrays.copyOfRange(docList, 1, docList[0] + 1), docList[0]);
+    }
+  }
+
+  /**
+   * Add a document to the index without rebuilding it, with the positions
+   * of its tokens.
+   */
+  public DocumentReference addDocument(FileDocument doc) {
+    Map<String, int[]> docPositions = new LinkedHashMap<String, int[]>();
+    HashMapVector vector = tokenize(doc, docPositions);
+    // Hold the lock until the positions line up with the new postings
+    lock.writeLock().lock();
+    try {
+      DocumentReference docRef = addDocument(doc, vector);
+      addPositions(docPositions, addedPositions);
+      return docRef;
+    }
+    finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Clear all documents and their positions from the index.
+   */
+  public void clear() {
+    super.clear();
+    positions = null;
+    addedPositions = new HashMap<String, PositionsList>();
+  }
+
+  /**
+   * Return the ids of the documents that contain a phrase and are not
+   * deleted.
+   */
+  public BitSet matchingDocuments(Phrase phrase) {
+    BitSet matches = new BitSet();
+    int n = phrase.tokens.length;
+    lock.readLock().lock();
+    try {
+      PostingsList[] postings = new PostingsList[n];
+      PositionsList[] lists = new PositionsList[n];
+      boolean built = true, added = true;
+      for (int i = 0; i < n; i++) {
+        String token = phrase.tokens[i];
+        int id = terms.termId(token);
+        if (id >= 0) {
+          postings[i] = terms.postings(id);
+          lists[i] = positions[id];
+        } else
+          built = false;
+      }
+      if (built)
+        addMatches(phrase, postings, lists, matches);
+      for (int i = 0; i < n; i++) {
+        TokenInfo tokenInfo = (tokenHash == null) ? null : tokenHash.get(phrase.tokens[i]);
+        if (tokenInfo != null) {
+          postings[i] = tokenInfo.postings;
+          lists[i] = addedPositions.get(phrase.tokens[i]);
+        } else
+          added = false;
+      }
+      if (added)
+        addMatches(phrase, postings, lists, matches);
+      matches.andNot(deleted);
+    }
+    finally {
+      lock.readLock().unlock();
+    }
+    return matches;
+  }
+
+  /**
+   * Set the ids of the documents in the postings of every token of a
+   * phrase that hold the phrase in their positions.
+   */
+  protected void addMatches(Phrase phrase, PostingsList[] postings, PositionsList[] lists, BitSet matches) {
+    int n = phrase.tokens.length;
+    PostingsList.Cursor[] cursors = new PostingsList.Cursor[n];
+    PositionsList.Reader[] readers = new PositionsList.Reader[n];
+    Integer[] order = new Integer[n];
+    final int[] df = new int[n];
+    for (int i = 0; i < n; i++) {
+      cursors[i] = postings[i].cursor();
+      readers[i] = lists[i].reader();
+      df[i] = postings[i].size();
+      order[i] = i;
+    }
+    // Intersect the postings starting with the rarest token
+    Arrays.sort(order, new Comparator<Integer>() {
+      public int compare(Integer a, Integer b) {
+        return df[a] - df[b];
+      }
+    });
+    int doc = 0;
+    while (true) {
+      boolean found = true;
+      for (int i : order) {
+        if (!cursors[i].advance(doc))
+          return;
+        if (cursors[i].doc > doc) {
+          doc = cursors[i].doc;
+          found = false;
+          break;
+        }
+      }
+      if (found) {
+        for (int i = 0; i < n; i++)
+          readers[i].read(cursors[i].index - 1);
+        if (matchesPositions(readers, phrase.slop))
+          matches.set(doc);
+        doc++;
+      }
+    }
+  }
+
+  /**
+   * Return true if the positions read for the tokens of a phrase hold
+   * them in order with at most slop other tokens between them.  For each
+   * position of the first token, the earliest following position of each
+   * next token gives the shortest match starting there.
+   */
+  protected static boolean matchesPositions(PositionsList.Reader[] readers, int slop) {
+    int n = readers.length;
+    int[] next = new int[n];
+    PositionsList.Reader first = readers[0];
+    for (int s = 0; s < first.count; s++) {
+      int start = first.positions[s];
+      int previous = start;
+      for (int i = 1; i < n; i++) {
+        PositionsList.Reader reader = readers[i];
+        while (next[i] < reader.count && reader.positions[next[i]] <= previous)
+          next[i]++;
+        // Later starts cannot match if this token has no later position
+        if (next[i] == reader.count)
+          return false;
+        previous = reader.positions[next[i]];
+      }
+      if (previous - start - (n - 1) <= slop)
+        return true;
+    }
+    return false;
+  }
+
+  /**
+   * Return the quoted phrases of a query.  Quotes, tildes and digits
+   * delimit tokens, so the tokens of the phrases still rank documents
+   * when the whole query is turned into a vector.
+   */
+  protected List<Phrase> parsePhrases(String query) {
+    List<Phrase> phrases = new ArrayList<Phrase>();
+    Matcher matcher = PHRASE_PATTERN.matcher(query);
+    while (matcher.find()) {
+      Document doc = new TextStringDocument(matcher.group(1), stem, false);
+      List<String> tokens = new ArrayList<String>();
+      while (doc.hasMoreTokens())
+        tokens.add(doc.nextToken());
+      if (!tokens.isEmpty()) {
+        int slop = (matcher.group(2) == null) ? 0 : Integer.parseInt(matcher.group(2));
+        phrases.add(new Phrase(tokens.toArray(new String[tokens.size()]), slop));
+      }
+    }
+    return phrases;
+  }
+
+  /**
+   * Perform ranked retrieval on this input query, which may quote phrases.
+   */
+  public Retrieval[] retrieve(String input) {
+    return retrieve(new TextStringDocument(input, stem, false).hashMapVector(), parsePhrases(input));
+  }
+
+  /**
+   * Retrieve an interactive query, keeping only the documents that
+   * contain its phrases.
+   */
+  protected Retrieval[] retrieveQuery(String query, HashMapVector queryVector) {
+    List<Phrase> phrases = parsePhrases(query);
+    if (!phrases.isEmpty())
+      System.out.println("Phrases: " + phrases);
+    return retrieve(queryVector, phrases);
+  }
+
+  /**
+   * Perform ranked retrieval on this input query Document vector, keeping
+   * only the documents that contain all the given phrases.
+   */
+  protected Retrieval[] retrieve(HashMapVector vector, List<Phrase> phrases) {
+    // Rank and match against the same documents
+    lock.readLock().lock();
+    try {
+      Retrieval[] retrievals = retrieve(vector);
+      if (phrases.isEmpty())
+        return retrievals;
+      BitSet matches = null;
+      for (Phrase phrase : phrases) {
+        BitSet phraseMatches = matchingDocuments(phrase);
+        if (matches == null)
+          matches = phraseMatches;
+        else
+          matches.and(phraseMatches);
+      }
+      List<Retrieval> kept = new ArrayList<Retrieval>();
+      for (Retrieval retrieval : retrievals) {
+        if (matches.get(retrieval.docRef.id))
+          kept.add(retrieval);
+      }
+      return kept.toArray(new Retrieval[kept.size()]);
+    }
+    finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Index a directory of files with positions and then interactively
+   * accept retrieval queries, which may quote phrases.
+   * Command format: "PositionalInvertedIndex [OPTION]* [DIR]" where DIR is the name of
+   * the directory whose files should be indexed, and OPTIONs can be
+   * "-html" to specify HTML files whose HTML tags should be removed.
+   * "-stem" to specify tokens should be stemmed with Porter stemmer.
+   * "-feedback" to allow relevance feedback from the user.
+   */
+  public static void main(String[] args) {
+    String dirName = args[args.length - 1];
+    short docType = DocumentIterator.TYPE_TEXT;
+    boolean stem = false, feedback = false;
+    for (int i = 0; i < args.length - 1; i++) {
+      String flag = args[i];
+      if (flag.equals("-html"))
+        // Create HTMLFileDocuments to filter HTML tags
+        docType = DocumentIterator.TYPE_HTML;
+      else if (flag.equals("-stem"))
+        // Stem tokens with Porter stemmer
+        stem = true;
+      else if (flag.equals("-feedback"))
+        // Use relevance feedback
+        feedback = true;
+      else
+        throw new IllegalArgumentException("Unknown flag: " + flag);
+    }
+    PositionalInvertedIndex index = new PositionalInvertedIndex(new File(dirName), docType, stem, feedback);
+    System.out.println("Quote phrases in queries, and add ~K to a phrase to allow K tokens between its tokens.");
+    index.processQueries(false);
+  }
+}
@@ -0,0 +1,164 @@
+package ir.vsr;
+
+import java.util.*;
+
+/**
+ * The positions of a token in each document it occurs in, kept in the
+ * same order as its PostingsList.  The positions of a posting are stored
+ * as a varint count followed by the varint gaps between increasing
+ * positions, and the offset of every BLOCK_SIZE postings is kept so a
+ * Reader can jump to the block of a posting and skip to it from there.
+ *
+ * @see PositionalInvertedIndex
+ */
+public class PositionsList {
+
+  /**
+   * Number of postings between offsets kept, the block size of PostingsList.
+   */
+  public static final int BLOCK_SIZE = PostingsList.BLOCK_SIZE;
+
+  /**
+   * Encoded positions.
+   */
+  protected byte[] data = new byte[8];
+
+  /**
+   * Offset in data after the last posting.
+   */
+  protected int length = 0;
+
+  /**
+   * Number of postings.
+   */
+  protected int size = 0;
+
+  /**
+   * Offset in data of each block.
+   */
+  protected int[] blockOffset = new int[1];
+
+  /**
+   * Returns the number of postings.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Adds the positions of the next posting.
+   *
+   * @param positions The positions of the token in the document, in increasing order.
+   * @param count     The number of positions.
+   */
+  public void add(int[] positions, int count) {
+    int block = size / BLOCK_SIZE;
+    if (size % BLOCK_SIZE == 0) {
+      if (block == blockOffset.length)
+        blockOffset = Arrays.copyOf(blockOffset, block * 2);
+      blockOffset[block] = length;
+    }
+    if (length + 5 * (count + 1) > data.length)
+      data = Arrays.copyOf(data, Math.max(data.length * 2, length + 5 * (count + 1)));
+    writeVarInt(count);
+    int previous = -1;
+    for (int i = 0; i < count; i++) {
+      writeVarInt(positions[i] - previous);
+      previous = positions[i];
+    }
+    size++;
+  }
+
+  /**
+   * Frees the space reserved for positions not yet added.
+   */
+  public void trim() {
+    data = Arrays.copyOf(data, length);
+    blockOffset = Arrays.copyOf(blockOffset, Math.max(1, (size + BLOCK_SIZE - 1) / BLOCK_SIZE));
+  }
+
+  /**
+   * Returns the number of bytes used by the encoded positions.
+   */
+  public int dataBytes() {
+    return length;
+  }
+
+  protected void writeVarInt(int value) {
+    while ((value & ~0x7F) != 0) {
+      data[length++] = (byte) ((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    data[length++] = (byte) value;
+  }
+
+  /**
+   * Returns a reader positioned at the first posting.
+   */
+  public Reader reader() {
+    return new Reader();
+  }
+
+  /**
+   * Decodes the positions of postings, fastest when they are read in
+   * increasing order as by a PostingsList.Cursor.
+   */
+  public class Reader {
+    /**
+     * The positions of the posting last read.
+     */
+    public int[] positions = new int[16];
+
+    /**
+     * The number of positions of the posting last read.
+     */
+    public int count = 0;
+
+    // The next posting and its offset in data
+    int posting = 0;
+    int offset = 0;
+
+    /**
+     * Reads the positions of a posting by its index in the postings.
+     */
+    public void read(int target) {
+      if (target < posting || target / BLOCK_SIZE > posting / BLOCK_SIZE) {
+        // Jump to the start of the block of the target
+        posting = target - target % BLOCK_SIZE;
+        offset = blockOffset[target / BLOCK_SIZE];
+      }
+      // Skip the postings before the target
+      for (; posting < target; posting++) {
+        int skip = readVarInt();
+        while (skip > 0) {
+          if (data[offset++] >= 0)
+            skip--;
+        }
+      }
+      count = readVarInt();
+      if (count > positions.length)
+        positions = new int[Math.max(count, positions.length * 2)];
+      int position = -1;
+      for (int i = 0; i < count; i++) {
+        position += readVarInt();
+        positions[i] = position;
+      }
+      posting = target + 1;
+    }
+
+    private int readVarInt() {
+      byte[] bytes = data;
+      int value = bytes[offset++];
+      if (value < 0) {
+        value &= 0x7F;
+        for (int shift = 7; ; shift += 7) {
+          byte b = bytes[offset++];
+          value |= (b & 0x7F) << shift;
+          if (b >= 0)
+            break;
+        }
+      }
+      return value;
+    }
+  }
+}
@@ -0,0 +1,265 @@
+package ir.vsr;
+
+import java.util.*;
+
+/**
+ * The postings of a token: the ids of the documents it occurs in, in
+ * increasing order, each with its occurrence count.  Postings are
+ * compressed in blocks of BLOCK_SIZE, each posting a varint gap from the
+ * previous document id followed by a varint count, so most postings take
+ * two or three bytes.  For every block the last document id and the
+ * offset of the block are kept, which lets a Cursor skip whole blocks
+ * when advancing to a document.
+ *
+ * @see TokenInfo
+ */
+public class PostingsList {
+
+  /**
+   * Number of postings in a block.
+   */
+  public static final int BLOCK_SIZE = 128;
+
+  /**
+   * Encoded postings.
+   */
+  protected byte[] data = new byte[8];
+
+  /**
+   * Offset in data of the first posting, 0 unless the postings are a
+   * view of a larger array.
+   */
+  protected int start = 0;
+
+  /**
+   * Offset in data after the last posting.
+   */
+  protected int length = 0;
+
+  /**
+   * Number of postings.
+   */
+  protected int size = 0;
+
+  /**
+   * Id of the last document added, -1 if there is none.
+   */
+  protected int lastDoc = -1;
+
+  /**
+   * Last document id of each full or partial block.
+   */
+  protected int[] blockLastDoc = new int[1];
+
+  /**
+   * Offset in data of each block.
+   */
+  protected int[] blockOffset = new int[1];
+
+  /**
+   * Whether the list is a read-only view of postings in a larger array.
+   */
+  protected final boolean view;
+
+  /**
+   * Creates an empty list to add postings to.
+   */
+  public PostingsList() {
+    this.view = false;
+  }
+
+  /**
+   * Creates a read-only view of postings encoded in part of a larger
+   * array, as kept by TermDictionary.
+   */
+  protected PostingsList(byte[] data, int start, int end, int size, int[] blockLastDoc, int[] blockOffset) {
+    this.data = data;
+    this.start = start;
+    this.length = end;
+    this.size = size;
+    this.blockLastDoc = blockLastDoc;
+    this.blockOffset = blockOffset;
+    this.view = true;
+  }
+
+  /**
+   * Returns the number of postings, which is the number of documents the
+   * token occurs in.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Returns the number of bytes used by the encoded postings.
+   */
+  public int dataBytes() {
+    return length - start;
+  }
+
+  /**
+   * Returns the number of blocks.
+   */
+  public int numBlocks() {
+    return (size + BLOCK_SIZE - 1) / BLOCK_SIZE;
+  }
+
+  /**
+   * Adds a posting for a document with a larger id than all the ones
+   * already added.
+   */
+  public void add(int doc, int count) {
+    if (view)
+      throw new UnsupportedOperationException("Cannot add to a view of postings");
+    if (doc <= lastDoc)
+      throw new IllegalArgumentException("Document " + doc + " added after " + lastDoc);
+    int block = size / BLOCK_SIZE;
+    if (size % BLOCK_SIZE == 0) {
+      // Start a new block
+      if (block == blockOffset.length) {
+        blockOffset = Arrays.copyOf(blockOffset, block * 2);
+        blockLastDoc = Arrays.copyOf(blockLastDoc, block * 2);
+      }
+      blockOffset[block] = length;
+    }
+    if (length + 10 > data.length)
+      data = Arrays.copyOf(data, Math.max(data.length * 2, length + 10));
+    writeVarInt(doc - lastDoc);
+    writeVarInt(count);
+    blockLastDoc[block] = doc;
+    lastDoc = doc;
+    size++;
+  }
+
+  /**
+   * Appends all the postings of another list with their document ids
+   * increased by offset.
+   */
+  public void addAll(PostingsList other, int offset) {
+    Cursor cursor = other.cursor();
+    while (cursor.next())
+      add(cursor.doc + offset, cursor.count);
+  }
+
+  /**
+   * Frees the space reserved for postings not yet added.
+   */
+  public void trim() {
+    if (view)
+      return;
+    data = Arrays.copyOf(data, length);
+    int numBlocks = numBlocks();
+    blockOffset = Arrays.copyOf(blockOffset, Math.max(1, numBlocks));
+    blockLastDoc = Arrays.copyOf(blockLastDoc, Math.max(1, numBlocks));
+  }
+
+  protected void writeVarInt(int value) {
+    while ((value & ~0x7F) != 0) {
+      data[length++] = (byte) ((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    data[length++] = (byte) value;
+  }
+
+  /**
+   * Returns a cursor positioned before the first posting.
+   */
+  public Cursor cursor() {
+    return new Cursor();
+  }
+
+  /**
+   * Iterates over the postings in document order.  After next or advance
+   * returns true, doc and count hold the current posting.
+   */
+  public class Cursor {
+    /**
+     * Document id of the current posting.
+     */
+    public int doc = -1;
+
+    /**
+     * Occurrence count of the current posting.
+     */
+    public int count = 0;
+
+    // Offset in data of the next posting and its index
+    int position = start;
+    int index = 0;
+
+    /**
+     * Moves to the next posting.
+     *
+     * @return false if there are no more postings.
+     */
+    public boolean next() {
+      if (index == size)
+        return false;
+      byte[] bytes = data;
+      int p = position;
+      int value = bytes[p++];
+      if (value < 0) {
+        value &= 0x7F;
+        for (int shift = 7; ; shift += 7) {
+          byte b = bytes[p++];
+          value |= (b & 0x7F) << shift;
+          if (b >= 0)
+            break;
+        }
+      }
+      doc += value;
+      value = bytes[p++];
+      if (value < 0) {
+        value &= 0x7F;
+        for (int shift = 7; ; shift += 7) {
+          byte b = bytes[p++];
+          value |= (b & 0x7F) << shift;
+          if (b >= 0)
+            break;
+        }
+      }
+      count = value;
+      position = p;
+      index++;
+      return true;
+    }
+
+    /**
+     * Moves to the first posting with a document id of at least target,
+     * skipping the blocks that end before it.
+     *
+     * @return false if there is no such posting.
+     */
+    public boolean advance(int target) {
+      if (index > 0 && doc >= target)
+        return true;
+      int block = index / BLOCK_SIZE;
+      int numBlocks = numBlocks();
+      if (block < numBlocks && blockLastDoc[block] < target) {
+        // Find the first later block that may hold target
+        while (block < numBlocks && blockLastDoc[block] < target)
+          block++;
+        if (block == numBlocks) {
+          index = size;
+          return false;
+        }
+        position = blockOffset[block];
+        index = block * BLOCK_SIZE;
+        doc = blockLastDoc[block - 1];
+      }
+      while (next()) {
+        if (doc >= target)
+          return true;
+      }
+      return false;
+    }
+  }
+
+  public String toString() {
+    StringBuilder string = new StringBuilder("[");
+    Cursor cursor = cursor();
+    while (cursor.next())
+      string.append((string.length() == 1) ? "" : ", ").append(cursor.doc).append(':').append(cursor.count);
+    return string.append(']').toString();
+  }
+}
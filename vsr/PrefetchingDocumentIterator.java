@@ -0,0 +1,301 @@
+package ir.vsr;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * A DocumentIterator that reads the files of upcoming documents on a
+ * background thread, so creating documents in order with nextDocument
+ * does not wait on opening and reading files.  At most window files
+ * are read ahead of the current document, each into the reusable byte
+ * buffer of its slot in a ring of window slots.  Each window of files
+ * is read in the order of their inode numbers where the file system
+ * reports them, which is usually close to their order on disk; the
+ * documents are still returned in directory order.
+ * <p/>
+ * getDocument reads its file on the calling thread as before, and a
+ * file that cannot be read ahead is read by nextDocument as before.
+ *
+ * @see DocumentIterator
+ */
+
+public class PrefetchingDocumentIterator extends DocumentIterator {
+
+  /**
+   * The default number of files read ahead
+   */
+  public static final int DEFAULT_WINDOW = 32;
+
+  /**
+   * A slot buffer that grew past this many bytes for a large file is
+   * replaced by a small one for the next file that fits in it.
+   */
+  protected static final int MAX_POOLED_BYTES = 1 << 22;
+
+  /**
+   * A ring slot holding the bytes of one file read ahead
+   */
+  protected static class Slot {
+    // The position of the file in the slot, -1 if none
+    int loaded = -1;
+    // Whether the file could not be read
+    boolean failed = false;
+    byte[] bytes = new byte[8192];
+    int length = 0;
+  }
+
+  /**
+   * The slots, the file at a position is read into slot position % window
+   */
+  protected final Slot[] slots;
+
+  /**
+   * The thread reading files ahead, started by the first nextDocument
+   */
+  protected Thread fetcher = null;
+
+  /**
+   * Whether the fetcher has stopped, having read all files or been closed
+   */
+  protected boolean stopped = false;
+
+  /**
+   * Create an iterator reading up to window files ahead.
+   *
+   * @param dirFile The directory to use as a source of documents.
+   * @param docType The type of Document to create. e.g. TYPE_TEXT or TYPE_HTML
+   * @param stem    Whether tokens should be stemmed with Porter stemmer.
+   * @param filter  A filter to select a subset of the docs in the directory
+   * @param window  The number of files to read ahead.
+   */
+  public PrefetchingDocumentIterator(File dirFile, short docType, boolean stem, FilenameFilter filter, int window) {
+    super(dirFile, docType, stem, filter);
+    if (window < 1)
+      throw new IllegalArgumentException("Read-ahead window must be positive: " + window);
+    slots = new Slot[window];
+    for (int i = 0; i < window; i++)
+      slots[i] = new Slot();
+  }
+
+  /**
+   * Create an iterator reading up to window files ahead.
+   */
+  public PrefetchingDocumentIterator(File dirFile, short docType, boolean stem, int window) {
+    this(dirFile, docType, stem, null, window);
+  }
+
+  /**
+   * Get the next document, from the bytes of its file read ahead.
+   */
+  public FileDocument nextDocument() {
+    if (files == null || position >= files.length)
+      return null;
+    Slot slot = slots[position % slots.length];
+    boolean loaded;
+    synchronized (this) {
+      if (fetcher == null && !stopped)
+        startFetcher();
+      try {
+        while (slot.loaded != position && !stopped)
+          wait();
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      loaded = slot.loaded == position && !slot.failed;
+    }
+    FileDocument doc;
+    if (loaded) {
+      // Decode with the default charset as FileReader does
+      Reader reader = new InputStreamReader(new ByteArrayInputStream(slot.bytes, 0, slot.length));
+      doc = createDocument(files[position], reader);
+    } else
+      doc = getDocument(position);
+    synchronized (this) {
+      // The slot of this document may now be reused
+      position++;
+      notifyAll();
+    }
+    return doc;
+  }
+
+  /**
+   * Stop reading files ahead.  Later documents are read on the calling
+   * thread.
+   */
+  public synchronized void close() {
+    stopped = true;
+    if (fetcher != null)
+      fetcher.interrupt();
+    notifyAll();
+  }
+
+  protected void startFetcher() {
+    fetcher = new Thread(new Runnable() {
+      public void run() {
+        try {
+          fetch();
+        }
+        catch (InterruptedException e) {
+          // Closed
+        }
+        finally {
+          synchronized (PrefetchingDocumentIterator.this) {
+            stopped = true;
+            PrefetchingDocumentIterator.this.notifyAll();
+          }
+        }
+      }
+    }, "DocumentIterator prefetch");
+    fetcher.setDaemon(true);
+    fetcher.start();
+  }
+
+  /**
+   * Read the files from the current position on into their slots, a
+   * window at a time, each window in inode order.
+   */
+  protected void fetch() throws InterruptedException {
+    int window = slots.length;
+    int first;
+    synchronized (this) {
+      first = position;
+    }
+    for (int start = first; start < files.length; start += window) {
+      for (int p : readOrder(start, Math.min(start + window, files.length))) {
+        synchronized (this) {
+          // Wait until the document last in this slot has been created
+          while (position <= p - window && !stopped)
+            wait();
+          if (stopped)
+            return;
+        }
+        Slot slot = slots[p % window];
+        boolean failed = false;
+        try {
+          read(files[p], slot);
+        }
+        catch (IOException e) {
+          failed = true;
+        }
+        synchronized (this) {
+          slot.failed = failed;
+          slot.loaded = p;
+          notifyAll();
+        }
+      }
+    }
+  }
+
+  /**
+   * The positions from start to end in the order to read their files, by
+   * inode number if every file has one and by position otherwise.
+   */
+  protected Integer[] readOrder(int start, int end) {
+    Integer[] order = new Integer[end - start];
+    final long[] inodes = new long[end - start];
+    boolean sort = true;
+    for (int i = start; i < end; i++) {
+      order[i - start] = i;
+      inodes[i - start] = inode(files[i]);
+      if (inodes[i - start] < 0)
+        sort = false;
+    }
+    if (sort) {
+      final int offset = start;
+      Arrays.sort(order, new Comparator<Integer>() {
+        public int compare(Integer a, Integer b) {
+          long x = inodes[a - offset], y = inodes[b - offset];
+          return (x < y) ? -1 : (x > y) ? 1 : a.compareTo(b);
+        }
+      });
+    }
+    return order;
+  }
+
+  /**
+   * The inode number of a file, or -1 if the file system does not report one.
+   */
+  protected static long inode(File file) {
+    try {
+      Object ino = Files.getAttribute(file.toPath(), "unix:ino");
+      return ((Number) ino).longValue();
+    }
+    catch (Exception e) {
+      // Not a Unix file system, or the file is gone
+      return -1;
+    }
+  }
+
+  /**
+   * Read all the bytes of a file into the buffer of a slot, growing it
+   * as needed.
+   */
+  protected static void read(File file, Slot slot) throws IOException {
+    long size = file.length();
+    if (size + 1 > Integer.MAX_VALUE - 8)
+      throw new IOException("File too large to read ahead: " + file);
+    if (slot.bytes.length > MAX_POOLED_BYTES && size < MAX_POOLED_BYTES)
+      slot.bytes = new byte[8192];
+    if (size + 1 > slot.bytes.length)
+      slot.bytes = new byte[(int) size + 1];
+    InputStream in = new FileInputStream(file);
+    try {
+      int length = 0;
+      int read;
+      // Read past the size in case the file grew since it was listed
+      while ((read = in.read(slot.bytes, length, slot.bytes.length - length)) > 0) {
+        length += read;
+        if (length == slot.bytes.length)
+          slot.bytes = Arrays.copyOf(slot.bytes, (int) Math.min(2L * length, Integer.MAX_VALUE - 8));
+      }
+      slot.length = length;
+    }
+    finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Compare the time to create the vectors of all documents in a
+   * directory with and without reading ahead.
+   * Command format: "PrefetchingDocumentIterator [OPTION]* [DIR]" where
+   * OPTIONs can be "-html", "-stem" and "-window N".
+   */
+  public static void main(String[] args) {
+    String dirName = args[args.length - 1];
+    short docType = TYPE_TEXT;
+    boolean stem = false;
+    int window = DEFAULT_WINDOW;
+    for (int i = 0; i < args.length - 1; i++) {
+      String flag = args[i];
+      if (flag.equals("-html"))
+        docType = TYPE_HTML;
+      else if (flag.equals("-stem"))
+        stem = true;
+      else if (flag.equals("-window"))
+        window = Integer.parseInt(args[++i]);
+      else
+        throw new IllegalArgumentException("Unknown flag: " + flag);
+    }
+    File dirFile = new File(dirName);
+    Document.loadStopWords();
+    long[] best = {Long.MAX_VALUE, Long.MAX_VALUE};
+    long terms = 0;
+    // The first round warms up the JIT and the rounds alternate so both
+    // read the files from the same cache
+    for (int run = 0; run < 8; run++) {
+      DocumentIterator docIter = (run % 2 == 0) ? new DocumentIterator(dirFile, docType, stem) :
+          new PrefetchingDocumentIterator(dirFile, docType, stem, window);
+      long start = System.nanoTime();
+      terms = 0;
+      while (docIter.hasMoreDocuments())
+        terms += docIter.nextDocument().hashMapVector().size();
+      if (run > 1)
+        best[run % 2] = Math.min(best[run % 2], System.nanoTime() - start);
+    }
+    System.out.println(terms + " terms, on demand: " + best[0] / 1000000 + " ms, read-ahead: " +
+        best[1] / 1000000 + " ms.");
+  }
+}
@@ -0,0 +1,615 @@
+package ir.vsr;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import ir.utilities.*;
+
+/**
+ * An inverted index kept as a list of immutable segments, for indexes
+ * that keep growing while they are searched, such as the pages of a
+ * running crawl.  Added documents are buffered in a small in-memory
+ * segment until bufferSize of them are collected, and are then flushed
+ * into a compact segment with its own TermDictionary.  Segments are never
+ * changed once written: a deleted document is marked in a copy of its
+ * segment's tombstones, and a background thread merges MERGE_FACTOR
+ * segments of the same size tier into one, dropping deleted documents,
+ * so each document is merged a logarithmic number of times.
+ * <p/>
+ * The segments are published together in a Snapshot.  A retrieval reads
+ * the current snapshot once without locking and scores the documents of
+ * every segment with IDFs computed from the document frequencies of all
+ * of them.  The vector lengths of documents are computed from the IDFs
+ * of when their segment is written, and are brought up to date by merges
+ * or by forceMerge.  A document whose tokens all had an IDF of 0 then
+ * gets its length from the IDFs of the snapshot it is retrieved from.
+ *
+ * @see InvertedIndex
+ */
+public class SegmentedIndex {
+
+  /**
+   * The default number of documents buffered before they are flushed.
+   */
+  public static final int DEFAULT_BUFFER_SIZE = 256;
+
+  /**
+   * The number of segments of a tier merged together.
+   */
+  public static final int MERGE_FACTOR = 4;
+
+  /**
+   * The type of Documents (text, HTML). See docType in DocumentIterator.
+   */
+  public short docType = DocumentIterator.TYPE_TEXT;
+
+  /**
+   * Whether tokens should be stemmed with Porter stemmer
+   */
+  public boolean stem = false;
+
+  /**
+   * The number of documents buffered before they are flushed to a segment.
+   */
+  public int bufferSize = DEFAULT_BUFFER_SIZE;
+
+  /**
+   * An immutable part of the index.  Document ids are positions in the
+   * docRefs of the segment.
+   */
+  protected static class Segment {
+    // Identifies the segment across the copies made by deletes
+    final int name;
+    final DocumentReference[] docRefs;
+    final TermDictionary terms;
+    final BitSet deleted;
+    final int numDeleted;
+
+    Segment(int name, DocumentReference[] docRefs, TermDictionary terms, BitSet deleted, int numDeleted) {
+      this.name = name;
+      this.docRefs = docRefs;
+      this.terms = terms;
+      this.deleted = deleted;
+      this.numDeleted = numDeleted;
+    }
+
+    /**
+     * Returns a copy of this segment with one more document deleted.
+     */
+    Segment delete(int id) {
+      BitSet newDeleted = (BitSet) deleted.clone();
+      newDeleted.set(id);
+      return new Segment(name, docRefs, terms, newDeleted, numDeleted + 1);
+    }
+
+    int numLive() {
+      return docRefs.length - numDeleted;
+    }
+
+    /**
+     * Returns the number of documents that are not deleted with a term.
+     */
+    int liveDf(int termId) {
+      if (numDeleted == 0)
+        return terms.df(termId);
+      int df = 0;
+      PostingsList.Cursor cursor = terms.postings(termId).cursor();
+      while (cursor.next()) {
+        if (!deleted.get(cursor.doc))
+          df++;
+      }
+      return df;
+    }
+  }
+
+  /**
+   * The segments of the index at one time, with the IDFs of tokens
+   * computed over all of them as they are needed.
+   */
+  protected static class Snapshot {
+    final List<Segment> segments;
+    final int numDocuments;
+    final Map<String, Double> idfs = new ConcurrentHashMap<String, Double>();
+    final Map<DocumentReference, Double> lengths = new ConcurrentHashMap<DocumentReference, Double>();
+
+    Snapshot(List<Segment> segments) {
+      this.segments = Collections.unmodifiableList(segments);
+      int numDocuments = 0;
+      for (Segment segment : segments)
+        numDocuments += segment.numLive();
+      this.numDocuments = numDocuments;
+    }
+
+    /**
+     * Returns the number of documents that are not deleted with a token.
+     */
+    int df(String token) {
+      int df = 0;
+      for (Segment segment : segments) {
+        int id = segment.terms.termId(token);
+        if (id >= 0)
+          df += segment.liveDf(id);
+      }
+      return df;
+    }
+
+    double idf(String token) {
+      Double idf = idfs.get(token);
+      if (idf == null) {
+        int df = df(token);
+        idf = (df == 0) ? 0.0 : Math.log((double) numDocuments / df);
+        idfs.put(token, idf);
+      }
+      return idf;
+    }
+
+    /**
+     * Returns the length of a document of a segment from the IDFs of this
+     * snapshot, by finding its tokens in the postings of the segment.
+     */
+    double length(Segment segment, int doc) {
+      DocumentReference docRef = segment.docRefs[doc];
+      Double length = lengths.get(docRef);
+      if (length == null) {
+        double sum = 0.0;
+        for (int id = 0; id < segment.terms.size(); id++) {
+          PostingsList.Cursor cursor = segment.terms.postings(id).cursor();
+          if (cursor.advance(doc) && cursor.doc == doc)
+            sum = sum + Math.pow(idf(segment.terms.term(id)) * cursor.count, 2);
+        }
+        length = Math.sqrt(sum);
+        lengths.put(docRef, length);
+      }
+      return length;
+    }
+  }
+
+  /**
+   * The segments searched by retrievals, replaced as a whole.
+   */
+  protected volatile Snapshot snapshot = new Snapshot(new ArrayList<Segment>());
+
+  /**
+   * Postings of the buffered documents by token.
+   */
+  protected Map<String, TokenInfo> bufferTokens = new HashMap<String, TokenInfo>();
+
+  /**
+   * The buffered documents, not yet searched.
+   */
+  protected List<DocumentReference> bufferDocRefs = new ArrayList<DocumentReference>();
+
+  /**
+   * Held while the buffer or the segment list is changed.
+   */
+  protected final Object writeLock = new Object();
+
+  /**
+   * The name of the next segment written.
+   */
+  protected int nextSegmentName = 0;
+
+  /**
+   * The names of the segments being merged.
+   */
+  protected final Set<Integer> merging = new HashSet<Integer>();
+
+  /**
+   * The thread segments are merged on, started by the first merge.
+   */
+  protected ExecutorService merger = null;
+
+  /**
+   * Create an empty index of the given type of documents.
+   *
+   * @param docType    The type of documents to index (See docType in DocumentIterator)
+   * @param stem       Whether tokens should be stemmed with Porter stemmer.
+   * @param bufferSize The number of documents buffered before they are flushed.
+   */
+  public SegmentedIndex(short docType, boolean stem, int bufferSize) {
+    this.docType = docType;
+    this.stem = stem;
+    this.bufferSize = bufferSize;
+  }
+
+  /**
+   * Add a document to the index.  It is searched once it is flushed,
+   * when the buffer is full or by flush.
+   */
+  public void addDocument(FileDocument doc) {
+    // Tokenize outside the lock so other writers are not held up
+    HashMapVector vector = doc.hashMapVector();
+    synchronized (writeLock) {
+      DocumentReference docRef = new DocumentReference(doc);
+      docRef.id = bufferDocRefs.size();
+      bufferDocRefs.add(docRef);
+      for (Map.Entry<String, Weight> entry : vector.entrySet()) {
+        TokenInfo tokenInfo = bufferTokens.get(entry.getKey());
+        if (tokenInfo == null) {
+          tokenInfo = new TokenInfo();
+          bufferTokens.put(entry.getKey(), tokenInfo);
+        }
+        tokenInfo.postings.add(docRef.id, (int) entry.getValue().getValue());
+      }
+      if (bufferDocRefs.size() >= bufferSize)
+        flush();
+    }
+  }
+
+  /**
+   * Add the document in a file to the index.
+   */
+  public void addDocument(File file) {
+    addDocument((FileDocument) new DocumentReference(file, 0.0).getDocument(docType, stem));
+  }
+
+  /**
+   * Write the buffered documents to a new segment so they are searched.
+   */
+  public void flush() {
+    synchronized (writeLock) {
+      if (bufferDocRefs.isEmpty())
+        return;
+      Snapshot current = snapshot;
+      // The IDFs of the buffered tokens over the index with the new segment
+      double numDocuments = current.numDocuments + bufferDocRefs.size();
+      for (Map.Entry<String, TokenInfo> entry : bufferTokens.entrySet()) {
+        TokenInfo tokenInfo = entry.getValue();
+        tokenInfo.idf = Math.log(numDocuments / (current.df(entry.getKey()) + tokenInfo.postings.size()));
+        tokenInfo.postings.trim();
+      }
+      DocumentReference[] docRefs = bufferDocRefs.toArray(new DocumentReference[bufferDocRefs.size()]);
+      computeLengths(docRefs, bufferTokens.values());
+      Segment segment = new Segment(nextSegmentName++, docRefs, TermDictionary.build(bufferTokens), new BitSet(), 0);
+      bufferTokens = new HashMap<String, TokenInfo>();
+      bufferDocRefs = new ArrayList<DocumentReference>();
+      List<Segment> segments = new ArrayList<Segment>(current.segments);
+      segments.add(segment);
+      snapshot = new Snapshot(segments);
+      scheduleMerges();
+    }
+  }
+
+  /**
+   * Set the length of each document to the length of its vector weighted
+   * by the idf in its tokens' info.
+   */
+  protected static void computeLengths(DocumentReference[] docRefs, Collection<TokenInfo> tokenInfos) {
+    double[] lengths = new double[docRefs.length];
+    for (TokenInfo tokenInfo : tokenInfos) {
+      if (tokenInfo.idf == 0.0)
+        continue;
+      PostingsList.Cursor cursor = tokenInfo.postings.cursor();
+      while (cursor.next())
+        lengths[cursor.doc] = lengths[cursor.doc] + Math.pow(tokenInfo.idf * cursor.count, 2);
+    }
+    for (int id = 0; id < docRefs.length; id++)
+      docRefs[id].length = Math.sqrt(lengths[id]);
+  }
+
+  /**
+   * Delete the document with the given file name.  The buffer is flushed
+   * first so the document is found if it was just added.
+   *
+   * @return false if there is no such document that is not deleted.
+   */
+  public boolean deleteDocument(String fileName) {
+    synchronized (writeLock) {
+      flush();
+      List<Segment> segments = new ArrayList<Segment>(snapshot.segments);
+      for (int i = 0; i < segments.size(); i++) {
+        Segment segment = segments.get(i);
+        for (int id = 0; id < segment.docRefs.length; id++) {
+          if (segment.docRefs[id].file.getName().equals(fileName) && !segment.deleted.get(id)) {
+            segments.set(i, segment.delete(id));
+            snapshot = new Snapshot(segments);
+            return true;
+          }
+        }
+      }
+      return false;
+    }
+  }
+
+  /**
+   * Returns the size tier of a segment: segments of a tier hold up to
+   * MERGE_FACTOR times as many documents as those of the tier below.
+   */
+  protected int tier(Segment segment) {
+    int tier = 0;
+    for (long size = bufferSize; segment.numLive() > size; size *= MERGE_FACTOR)
+      tier++;
+    return tier;
+  }
+
+  /**
+   * Start merging every group of MERGE_FACTOR segments of a tier that are
+   * not already being merged.
+   */
+  protected void scheduleMerges() {
+    Map<Integer, List<Segment>> tiers = new TreeMap<Integer, List<Segment>>();
+    for (Segment segment : snapshot.segments) {
+      if (merging.contains(segment.name))
+        continue;
+      int tier = tier(segment);
+      List<Segment> group = tiers.get(tier);
+      if (group == null) {
+        group = new ArrayList<Segment>();
+        tiers.put(tier, group);
+      }
+      group.add(segment);
+      if (group.size() == MERGE_FACTOR) {
+        final List<Segment> sources = new ArrayList<Segment>(group);
+        group.clear();
+        for (Segment source : sources)
+          merging.add(source.name);
+        if (merger == null) {
+          merger = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+              Thread thread = new Thread(r, "SegmentedIndex merger");
+              thread.setDaemon(true);
+              return thread;
+            }
+          });
+        }
+        merger.execute(new Runnable() {
+          public void run() {
+            merge(sources);
+          }
+        });
+      }
+    }
+  }
+
+  /**
+   * Merge segments into one without their deleted documents and replace
+   * them with it.  The merged segment is built without holding the lock,
+   * and documents of the sources deleted meanwhile are deleted from it
+   * when it is published.
+   */
+  protected void merge(List<Segment> sources) {
+    Snapshot current = snapshot;
+    // New id of each document of each source, -1 if it is deleted
+    int[][] docMaps = new int[sources.size()][];
+    List<DocumentReference> docRefs = new ArrayList<DocumentReference>();
+    for (int s = 0; s < sources.size(); s++) {
+      Segment source = sources.get(s);
+      docMaps[s] = new int[source.docRefs.length];
+      for (int id = 0; id < source.docRefs.length; id++) {
+        if (source.deleted.get(id))
+          docMaps[s][id] = -1;
+        else {
+          DocumentReference docRef = new DocumentReference(source.docRefs[id].file, 0.0);
+          docRef.id = docRefs.size();
+          docRefs.add(docRef);
+          docMaps[s][id] = docRef.id;
+        }
+      }
+    }
+    Map<String, TokenInfo> tokenInfos = new HashMap<String, TokenInfo>();
+    for (int s = 0; s < sources.size(); s++) {
+      TermDictionary terms = sources.get(s).terms;
+      for (int termId = 0; termId < terms.size(); termId++) {
+        String token = terms.term(termId);
+        TokenInfo tokenInfo = tokenInfos.get(token);
+        PostingsList.Cursor cursor = terms.postings(termId).cursor();
+        while (cursor.next()) {
+          int doc = docMaps[s][cursor.doc];
+          if (doc < 0)
+            continue;
+          if (tokenInfo == null) {
+            tokenInfo = new TokenInfo();
+            tokenInfo.idf = current.idf(token);
+            tokenInfos.put(token, tokenInfo);
+          }
+          tokenInfo.postings.add(doc, cursor.count);
+        }
+      }
+    }
+    for (TokenInfo tokenInfo : tokenInfos.values())
+      tokenInfo.postings.trim();
+    DocumentReference[] merged = docRefs.toArray(new DocumentReference[docRefs.size()]);
+    computeLengths(merged, tokenInfos.values());
+    TermDictionary terms = TermDictionary.build(tokenInfos);
+
+    synchronized (writeLock) {
+      BitSet deleted = new BitSet();
+      List<Segment> segments = new ArrayList<Segment>();
+      int position = -1;
+      for (Segment segment : snapshot.segments) {
+        int s = indexOfName(sources, segment.name);
+        if (s < 0) {
+          segments.add(segment);
+          continue;
+        }
+        // Carry over the deletes made during the merge
+        if (position < 0)
+          position = segments.size();
+        for (int id = segment.deleted.nextSetBit(0); id >= 0; id = segment.deleted.nextSetBit(id + 1)) {
+          if (docMaps[s][id] >= 0)
+            deleted.set(docMaps[s][id]);
+        }
+        merging.remove(segment.name);
+      }
+      // The sources may all be gone, then the merged segment goes last
+      if (position < 0)
+        position = segments.size();
+      segments.add(position, new Segment(nextSegmentName++, merged, terms, deleted, deleted.cardinality()));
+      snapshot = new Snapshot(segments);
+      scheduleMerges();
+      writeLock.notifyAll();
+    }
+  }
+
+  protected static int indexOfName(List<Segment> segments, int name) {
+    for (int i = 0; i < segments.size(); i++) {
+      if (segments.get(i).name == name)
+        return i;
+    }
+    return -1;
+  }
+
+  /**
+   * Wait until no merges are running.
+   */
+  public void waitForMerges() throws InterruptedException {
+    synchronized (writeLock) {
+      while (!merging.isEmpty())
+        writeLock.wait();
+    }
+  }
+
+  /**
+   * Flush the buffer and merge all segments into one, which gives every
+   * document its length under the current IDFs.
+   */
+  public void forceMerge() throws InterruptedException {
+    flush();
+    synchronized (writeLock) {
+      while (!merging.isEmpty())
+        writeLock.wait();
+      List<Segment> segments = snapshot.segments;
+      if (segments.isEmpty() || (segments.size() == 1 && segments.get(0).numDeleted == 0))
+        return;
+      for (Segment segment : segments)
+        merging.add(segment.name);
+      // Merged on this thread while holding the lock keeps writers out
+      merge(segments);
+    }
+  }
+
+  /**
+   * Perform ranked retrieval on this input query.
+   */
+  public Retrieval[] retrieve(String input) {
+    return retrieve(new TextStringDocument(input, stem, false).hashMapVector());
+  }
+
+  /**
+   * Perform ranked retrieval on this input query Document vector over the
+   * segments of the current snapshot.
+   */
+  public Retrieval[] retrieve(HashMapVector vector) {
+    Snapshot current = snapshot;
+    // Weight the query tokens by their IDFs over all segments
+    List<String> tokens = new ArrayList<String>();
+    List<Double> factors = new ArrayList<Double>();
+    double queryLength = 0.0;
+    for (Map.Entry<String, Weight> entry : vector.entrySet()) {
+      double idf = current.idf(entry.getKey());
+      if (idf == 0.0)
+        continue;
+      double weight = idf * entry.getValue().getValue();
+      tokens.add(entry.getKey());
+      factors.add(weight * idf);
+      queryLength = queryLength + weight * weight;
+    }
+    queryLength = Math.sqrt(queryLength);
+
+    List<Retrieval> retrievals = new ArrayList<Retrieval>();
+    for (Segment segment : current.segments) {
+      double[] scores = new double[segment.docRefs.length];
+      boolean[] retrieved = new boolean[segment.docRefs.length];
+      for (int i = 0; i < tokens.size(); i++) {
+        int id = segment.terms.termId(tokens.get(i));
+        if (id >= 0)
+          InvertedIndex.incorporatePostings(segment.terms.postings(id), factors.get(i), scores, retrieved);
+      }
+      for (int id = 0; id < retrieved.length; id++) {
+        if (!retrieved[id] || segment.deleted.get(id))
+          continue;
+        DocumentReference docRef = segment.docRefs[id];
+        // A document whose tokens all had an IDF of 0 when its segment was
+        // written is normalized with the current IDFs until a merge
+        double length = (docRef.length > 0.0) ? docRef.length : current.length(segment, id);
+        if (length > 0.0)
+          retrievals.add(new Retrieval(docRef, scores[id] / (queryLength * length)));
+      }
+    }
+    Retrieval[] result = retrievals.toArray(new Retrieval[retrievals.size()]);
+    Arrays.sort(result);
+    return result;
+  }
+
+  /**
+   * Return the number of searched documents that are not deleted.
+   */
+  public int numDocuments() {
+    return snapshot.numDocuments;
+  }
+
+  /**
+   * Return the number of searched segments.
+   */
+  public int numSegments() {
+    return snapshot.segments.size();
+  }
+
+  /**
+   * List the number of live documents in each segment.
+   */
+  public String toString() {
+    StringBuilder string = new StringBuilder();
+    for (Segment segment : snapshot.segments)
+      string.append((string.length() == 0) ? "" : " ").append(segment.numLive());
+    return "[" + string + "]";
+  }
+
+  /**
+   * Index a directory of files through the segment buffer and then
+   * interactively accept retrieval queries.
+   * Command format: "SegmentedIndex [OPTION]* [DIR]" where DIR is the name of
+   * the directory whose files should be indexed, and OPTIONs can be
+   * "-html" to specify HTML files whose HTML tags should be removed.
+   * "-stem" to specify tokens should be stemmed with Porter stemmer.
+   * "-buffer N" to flush a segment every N documents.
+   * "-readahead N" to read N files ahead of the document being added.
+   */
+  public static void main(String[] args) throws InterruptedException {
+    String dirName = args[args.length - 1];
+    short docType = DocumentIterator.TYPE_TEXT;
+    boolean stem = false;
+    int bufferSize = DEFAULT_BUFFER_SIZE;
+    int readAhead = 0;
+    for (int i = 0; i < args.length - 1; i++) {
+      String flag = args[i];
+      if (flag.equals("-html"))
+        docType = DocumentIterator.TYPE_HTML;
+      else if (flag.equals("-stem"))
+        stem = true;
+      else if (flag.equals("-buffer"))
+        bufferSize = Integer.parseInt(args[++i]);
+      else if (flag.equals("-readahead"))
+        readAhead = Integer.parseInt(args[++i]);
+      else
+        throw new IllegalArgumentException("Unknown flag: " + flag);
+    }
+    SegmentedIndex index = new SegmentedIndex(docType, stem, bufferSize);
+    DocumentIterator docIter = (readAhead > 0) ?
+        new PrefetchingDocumentIterator(new File(dirName), docType, stem, readAhead) :
+        new DocumentIterator(new File(dirName), docType, stem);
+    long start = System.nanoTime();
+    while (docIter.hasMoreDocuments())
+      index.addDocument(docIter.nextDocument());
+    index.flush();
+    index.waitForMerges();
+    System.out.println("Indexed " + index.numDocuments() + " documents in segments " + index + " in " +
+        (System.nanoTime() - start) / 1000000 + " ms.");
+
+    do {
+      String query = UserInput.prompt("\nEnter query:  ");
+      if (query.equals(""))
+        break;
+      Retrieval[] retrievals = index.retrieve(query);
+      if (retrievals.length == 0)
+        System.out.println("\nNo matching documents found.");
+      for (int i = 0; i < Math.min(retrievals.length, InvertedIndex.MAX_RETRIEVALS); i++) {
+        System.out.println(MoreString.padTo((i + 1) + ". ", 4) +
+            MoreString.padTo(retrievals[i].docRef.file.getName(), 20) +
+            " Score: " + MoreMath.roundTo(retrievals[i].score, 5));
+      }
+    }
+    while (true);
+  }
+}
@@ -0,0 +1,336 @@
+package ir.vsr;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import ir.utilities.*;
+
+/**
+ * An inverted index split by document into shards that are searched in
+ * parallel.  Each shard holds a consecutive range of the documents of a
+ * built InvertedIndex with its own TermDictionary of their postings, but
+ * keeps the IDFs and document lengths of the whole index, so every
+ * document gets the same score as in the index it was split from.  A
+ * retrieval weights the query once, scores the shards on a pool of
+ * threads and merges the best k retrievals of each shard.
+ *
+ * @see InvertedIndex
+ */
+public class ShardedIndex {
+
+  /**
+   * Whether tokens should be stemmed with Porter stemmer
+   */
+  public final boolean stem;
+
+  /**
+   * A range of the documents of the index with the postings of their
+   * tokens by their position in the range.
+   */
+  protected static class Shard {
+    final DocumentReference[] docRefs;
+    final TermDictionary terms;
+
+    Shard(DocumentReference[] docRefs, TermDictionary terms) {
+      this.docRefs = docRefs;
+      this.terms = terms;
+    }
+  }
+
+  /**
+   * The shards in document order
+   */
+  protected final Shard[] shards;
+
+  /**
+   * The number of documents in all shards
+   */
+  protected final int numDocuments;
+
+  /**
+   * The threads shards are searched on, besides the calling thread
+   */
+  protected final ExecutorService searchers;
+
+  /**
+   * Orders retrievals from best to worst, ties by document id as a sort
+   * of retrievals in id order does.
+   */
+  protected static final Comparator<Retrieval> RANKING = new Comparator<Retrieval>() {
+    public int compare(Retrieval a, Retrieval b) {
+      int cmp = a.compareTo(b);
+      return (cmp != 0) ? cmp : a.docRef.id - b.docRef.id;
+    }
+  };
+
+  /**
+   * Split an index into shards of consecutive documents, searched on
+   * numThreads threads.
+   *
+   * @param index      A built or loaded index without added or deleted documents.
+   * @param numShards  The number of shards.
+   * @param numThreads The number of threads a query is searched on.
+   */
+  public ShardedIndex(InvertedIndex index, int numShards, int numThreads) {
+    if (index.terms == null || index.epoch > 0)
+      throw new IllegalStateException("Cannot shard an index before it is built or after documents were added or deleted");
+    if (numShards < 1 || numThreads < 1)
+      throw new IllegalArgumentException("Need at least one shard and thread: " + numShards + ", " + numThreads);
+    this.stem = index.stem;
+    numDocuments = index.docRefs.size();
+    numShards = Math.max(1, Math.min(numShards, numDocuments));
+    // Shard s holds the documents from start[s] to start[s + 1]
+    int[] start = new int[numShards + 1];
+    for (int s = 0; s <= numShards; s++)
+      start[s] = (int) ((long) s * numDocuments / numShards);
+    List<Map<String, TokenInfo>> tokenHashes = new ArrayList<Map<String, TokenInfo>>();
+    for (int s = 0; s < numShards; s++)
+      tokenHashes.add(new HashMap<String, TokenInfo>());
+    TermDictionary terms = index.terms;
+    for (int id = 0; id < terms.size(); id++) {
+      String token = terms.term(id);
+      PostingsList.Cursor cursor = terms.postings(id).cursor();
+      int s = 0;
+      TokenInfo tokenInfo = null;
+      while (cursor.next()) {
+        if (cursor.doc >= start[s + 1]) {
+          while (cursor.doc >= start[s + 1])
+            s++;
+          tokenInfo = null;
+        }
+        if (tokenInfo == null) {
+          tokenInfo = new TokenInfo();
+          // The IDF over all shards
+          tokenInfo.idf = terms.idf(id);
+          tokenHashes.get(s).put(token, tokenInfo);
+        }
+        tokenInfo.postings.add(cursor.doc - start[s], cursor.count);
+      }
+    }
+    shards = new Shard[numShards];
+    for (int s = 0; s < numShards; s++) {
+      Map<String, TokenInfo> tokenHash = tokenHashes.get(s);
+      for (TokenInfo tokenInfo : tokenHash.values())
+        tokenInfo.postings.trim();
+      // The documents keep their ids and lengths in the whole index
+      List<DocumentReference> docRefs = index.docRefs.subList(start[s], start[s + 1]);
+      shards[s] = new Shard(docRefs.toArray(new DocumentReference[docRefs.size()]), TermDictionary.build(tokenHash));
+      tokenHashes.set(s, null);
+    }
+    searchers = Executors.newFixedThreadPool(numThreads, new ThreadFactory() {
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, "ShardedIndex searcher");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+  }
+
+  /**
+   * Index the documents in a directory, or load its saved index, and split
+   * it into shards.
+   *
+   * @param dirFile    The directory of files to index.
+   * @param docType    The type of documents to index (See docType in DocumentIterator)
+   * @param stem       Whether tokens should be stemmed with Porter stemmer.
+   * @param numShards  The number of shards.
+   * @param numThreads The number of threads documents are parsed in and queries searched on.
+   */
+  public ShardedIndex(File dirFile, short docType, boolean stem, int numShards, int numThreads) {
+    this(new InvertedIndex(dirFile, docType, stem, false, numThreads), numShards, numThreads);
+  }
+
+  /**
+   * Perform ranked retrieval on this input query.
+   */
+  public Retrieval[] retrieve(String input) {
+    return retrieve(new TextStringDocument(input, stem, false).hashMapVector());
+  }
+
+  /**
+   * Perform ranked retrieval on this input query Document vector, returning
+   * all retrieved documents from best to worst.
+   */
+  public Retrieval[] retrieve(HashMapVector vector) {
+    return retrieve(vector, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Perform ranked retrieval on this input query Document vector, returning
+   * at most the k best retrievals from best to worst, in the same order
+   * as InvertedIndex.
+   */
+  public Retrieval[] retrieve(HashMapVector vector, final int k) {
+    // Weight the query tokens by their IDFs, which all shards share
+    List<String> tokens = new ArrayList<String>();
+    List<Double> factors = new ArrayList<Double>();
+    double queryLength = 0.0;
+    for (Map.Entry<String, Weight> entry : vector.entrySet()) {
+      double idf = idf(entry.getKey());
+      if (idf == 0.0)
+        continue;
+      double weight = idf * entry.getValue().getValue();
+      tokens.add(entry.getKey());
+      factors.add(weight * idf);
+      queryLength = queryLength + weight * weight;
+    }
+    final String[] queryTokens = tokens.toArray(new String[tokens.size()]);
+    final double[] queryFactors = new double[factors.size()];
+    for (int i = 0; i < queryFactors.length; i++)
+      queryFactors[i] = factors.get(i);
+    final double length = Math.sqrt(queryLength);
+
+    // Search the other shards on the pool and the first one on this thread
+    List<Future<Retrieval[]>> results = new ArrayList<Future<Retrieval[]>>();
+    for (int s = 1; s < shards.length; s++) {
+      final Shard shard = shards[s];
+      results.add(searchers.submit(new Callable<Retrieval[]>() {
+        public Retrieval[] call() {
+          return search(shard, queryTokens, queryFactors, length, k);
+        }
+      }));
+    }
+    List<Retrieval> retrievals = new ArrayList<Retrieval>(Arrays.asList(search(shards[0], queryTokens, queryFactors, length, k)));
+    try {
+      for (Future<Retrieval[]> result : results)
+        retrievals.addAll(Arrays.asList(result.get()));
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while searching shards");
+    }
+    catch (ExecutionException e) {
+      throw new IllegalStateException("Could not search a shard", e.getCause());
+    }
+    Retrieval[] merged = retrievals.toArray(new Retrieval[retrievals.size()]);
+    Arrays.sort(merged, RANKING);
+    return (merged.length > k) ? Arrays.copyOf(merged, k) : merged;
+  }
+
+  /**
+   * Return the IDF of a token, 0 if it is in no shard.
+   */
+  protected double idf(String token) {
+    for (Shard shard : shards) {
+      int id = shard.terms.termId(token);
+      if (id >= 0)
+        return shard.terms.idf(id);
+    }
+    return 0.0;
+  }
+
+  /**
+   * Score the documents of a shard for the weighted query tokens and
+   * return its k best retrievals.
+   */
+  protected static Retrieval[] search(Shard shard, String[] tokens, double[] factors, double queryLength, int k) {
+    double[] scores = new double[shard.docRefs.length];
+    boolean[] retrieved = new boolean[shard.docRefs.length];
+    for (int i = 0; i < tokens.length; i++) {
+      int id = shard.terms.termId(tokens[i]);
+      if (id >= 0)
+        InvertedIndex.incorporatePostings(shard.terms.postings(id), factors[i], scores, retrieved);
+    }
+    // Keep the k best in a heap with the worst on top
+    PriorityQueue<Retrieval> best = new PriorityQueue<Retrieval>(Math.max(1, Math.min(k, 1024)),
+        Collections.reverseOrder(RANKING));
+    for (int id = 0; id < retrieved.length; id++) {
+      if (!retrieved[id])
+        continue;
+      DocumentReference docRef = shard.docRefs[id];
+      Retrieval retrieval = new Retrieval(docRef, scores[id] / (queryLength * docRef.length));
+      if (best.size() < k)
+        best.add(retrieval);
+      else if (RANKING.compare(retrieval, best.peek()) < 0) {
+        best.poll();
+        best.add(retrieval);
+      }
+    }
+    return best.toArray(new Retrieval[best.size()]);
+  }
+
+  /**
+   * Return the number of documents in all shards.
+   */
+  public int numDocuments() {
+    return numDocuments;
+  }
+
+  /**
+   * Return the number of shards.
+   */
+  public int numShards() {
+    return shards.length;
+  }
+
+  /**
+   * Stop the threads shards are searched on.
+   */
+  public void close() {
+    searchers.shutdown();
+  }
+
+  /**
+   * List the number of documents and terms in each shard.
+   */
+  public String toString() {
+    StringBuilder string = new StringBuilder();
+    for (Shard shard : shards)
+      string.append((string.length() == 0) ? "" : " ").append(shard.docRefs.length).append('/').append(shard.terms.size());
+    return "[" + string + "]";
+  }
+
+  /**
+   * Index a directory of files, split the index into shards and then
+   * interactively accept retrieval queries.
+   * Command format: "ShardedIndex [OPTION]* [DIR]" where DIR is the name of
+   * the directory whose files should be indexed, and OPTIONs can be
+   * "-html" to specify HTML files whose HTML tags should be removed.
+   * "-stem" to specify tokens should be stemmed with Porter stemmer.
+   * "-shards N" to split the index into N shards (default the number of processors).
+   * "-threads N" to parse documents and search shards in N threads (default the number of processors).
+   */
+  public static void main(String[] args) {
+    String dirName = args[args.length - 1];
+    short docType = DocumentIterator.TYPE_TEXT;
+    boolean stem = false;
+    int numShards = Runtime.getRuntime().availableProcessors();
+    int numThreads = numShards;
+    for (int i = 0; i < args.length - 1; i++) {
+      String flag = args[i];
+      if (flag.equals("-html"))
+        docType = DocumentIterator.TYPE_HTML;
+      else if (flag.equals("-stem"))
+        stem = true;
+      else if (flag.equals("-shards"))
+        numShards = Integer.parseInt(args[++i]);
+      else if (flag.equals("-threads"))
+        numThreads = Integer.parseInt(args[++i]);
+      else
+        throw new IllegalArgumentException("Unknown flag: " + flag);
+    }
+    ShardedIndex index = new ShardedIndex(new File(dirName), docType, stem, numShards, numThreads);
+    System.out.println("Split " + index.numDocuments() + " documents into shards of documents/terms " + index);
+
+    do {
+      String query = UserInput.prompt("\nEnter query:  ");
+      if (query.equals(""))
+        break;
+      long start = System.nanoTime();
+      Retrieval[] retrievals = index.retrieve(new TextStringDocument(query, stem, false).hashMapVector(),
+          InvertedIndex.MAX_RETRIEVALS);
+      long time = System.nanoTime() - start;
+      if (retrievals.length == 0)
+        System.out.println("\nNo matching documents found.");
+      for (int i = 0; i < retrievals.length; i++) {
+        System.out.println(MoreString.padTo((i + 1) + ". ", 4) +
+            MoreString.padTo(retrievals[i].docRef.file.getName(), 20) +
+            " Score: " + MoreMath.roundTo(retrievals[i].score, 5));
+      }
+      System.out.println("Searched " + index.numShards() + " shards in " + time / 1000 + " us.");
+    }
+    while (true);
+    index.close();
+  }
+}
@@ -0,0 +1,427 @@
+package ir.vsr;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import ir.utilities.*;
+
+/**
+ * Builds the saved index of a directory in bounded memory by single-pass
+ * in-memory indexing (SPIMI).  Documents are inverted into a hashtable
+ * of postings until its estimated size reaches the memory budget, then
+ * its terms are sorted and written with their postings to a run file
+ * and the table is emptied.  Runs hold consecutive documents, so the
+ * postings of a term are merged by appending them from the runs in
+ * order, and a k-way merge of the sorted runs writes the dictionary of
+ * the index file one term at a time.  During the merge only the
+ * postings of the current term and the document table are in memory.
+ * <p/>
+ * The result is the index file InvertedIndex loads, so a directory too
+ * large to invert in the heap is indexed by SpimiIndexBuilder and then
+ * opened with InvertedIndex.
+ *
+ * @see IndexFile
+ * @see TermDictionary.Writer
+ */
+public class SpimiIndexBuilder {
+
+  /**
+   * The default memory budget for the postings of a run, in bytes
+   */
+  public static final long DEFAULT_MEMORY_BUDGET = 64L << 20;
+
+  /**
+   * The most runs merged at once.  More runs are first merged in groups
+   * of this many into longer runs.
+   */
+  public static final int MAX_MERGE_WIDTH = 64;
+
+  /**
+   * The estimated bytes taken by a term in the hashtable besides its
+   * chars and encoded postings: the String, the map entry and the
+   * PostingsList with its block arrays.
+   */
+  protected static final int TERM_OVERHEAD = 160;
+
+  /**
+   * The directory of documents to index
+   */
+  public final File dirFile;
+
+  /**
+   * The type of Documents (text, HTML). See docType in DocumentIterator.
+   */
+  public final short docType;
+
+  /**
+   * Whether tokens should be stemmed with Porter stemmer
+   */
+  public final boolean stem;
+
+  /**
+   * The estimated bytes of postings held in memory before a run is written
+   */
+  public final long memoryBudget;
+
+  /**
+   * The number of files read ahead of the document being inverted, 0 for none
+   */
+  public int readAhead = 0;
+
+  /**
+   * The postings of the current run by token
+   */
+  protected Map<String, PostingsList> postings = new HashMap<String, PostingsList>();
+
+  /**
+   * The estimated bytes used by the postings of the current run
+   */
+  protected long memoryUsed = 0;
+
+  /**
+   * The largest estimate of memoryUsed when a run was written
+   */
+  protected long peakMemoryUsed = 0;
+
+  /**
+   * The files of the documents indexed, by id
+   */
+  protected final List<File> docFiles = new ArrayList<File>();
+
+  /**
+   * The run files not yet merged, in document order
+   */
+  protected List<File> runs = new ArrayList<File>();
+
+  /**
+   * The number of run files written, to name them
+   */
+  protected int numRunFiles = 0;
+
+  /**
+   * Create a builder of the index of a directory.
+   *
+   * @param dirFile      The directory of files to index.
+   * @param docType      The type of documents to index (See docType in DocumentIterator)
+   * @param stem         Whether tokens should be stemmed with Porter stemmer.
+   * @param memoryBudget The estimated bytes of postings to hold before writing a run.
+   */
+  public SpimiIndexBuilder(File dirFile, short docType, boolean stem, long memoryBudget) {
+    if (memoryBudget <= 0)
+      throw new IllegalArgumentException("Memory budget must be positive: " + memoryBudget);
+    this.dirFile = dirFile;
+    this.docType = docType;
+    this.stem = stem;
+    this.memoryBudget = memoryBudget;
+  }
+
+  /**
+   * A sink for the terms of a merge, in sorted order with their postings.
+   */
+  protected interface TermSink {
+    void add(byte[] key, PostingsList list) throws IOException;
+  }
+
+  /**
+   * Reads the terms of a run file in order.
+   */
+  protected static class RunReader {
+    final int index;
+    final DataInputStream in;
+    int remaining;
+    // The current term, its number of postings and its encoded postings
+    byte[] key;
+    int df;
+    byte[] bytes = new byte[64];
+    int length;
+
+    RunReader(File file, int index) throws IOException {
+      this.index = index;
+      in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+      remaining = in.readInt();
+    }
+
+    /**
+     * Move to the next term, returning false at the end of the run.
+     */
+    boolean next() throws IOException {
+      if (remaining == 0)
+        return false;
+      remaining--;
+      key = new byte[in.readInt()];
+      in.readFully(key);
+      df = in.readInt();
+      length = in.readInt();
+      if (length > bytes.length)
+        bytes = new byte[Math.max(length, bytes.length * 2)];
+      in.readFully(bytes, 0, length);
+      return true;
+    }
+
+    /**
+     * The postings of the current term as a view of its bytes
+     */
+    PostingsList postings() {
+      return new PostingsList(bytes, 0, length, df, new int[]{Integer.MAX_VALUE}, new int[]{0});
+    }
+  }
+
+  /**
+   * Writes terms to a run file in the order they are added.
+   */
+  protected static class RunWriter implements TermSink {
+    final File file;
+    final DataOutputStream out;
+    int numTerms = 0;
+
+    RunWriter(File file) throws IOException {
+      this.file = file;
+      out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+      // The number of terms, filled in by close
+      out.writeInt(0);
+    }
+
+    public void add(byte[] key, PostingsList list) throws IOException {
+      out.writeInt(key.length);
+      out.write(key);
+      out.writeInt(list.size());
+      out.writeInt(list.dataBytes());
+      out.write(list.data, list.start, list.dataBytes());
+      numTerms++;
+    }
+
+    void close() throws IOException {
+      out.close();
+      RandomAccessFile raf = new RandomAccessFile(file, "rw");
+      try {
+        raf.writeInt(numTerms);
+      }
+      finally {
+        raf.close();
+      }
+    }
+  }
+
+  /**
+   * Index the documents of the directory and write its index file.
+   */
+  public void build() throws IOException {
+    File indexFile = IndexFile.forDirectory(dirFile);
+    DocumentIterator docIter = (readAhead > 0) ?
+        new PrefetchingDocumentIterator(dirFile, docType, stem, readAhead) :
+        new DocumentIterator(dirFile, docType, stem);
+    Document.loadStopWords();
+    System.out.println("Indexing documents in " + dirFile + " in runs of " + (memoryBudget >> 10) + " KB");
+    try {
+      while (docIter.hasMoreDocuments()) {
+        FileDocument doc = docIter.nextDocument();
+        invert(doc.hashMapVector(), docFiles.size());
+        docFiles.add(doc.file);
+        if (memoryUsed >= memoryBudget)
+          writeRun();
+      }
+      if (!postings.isEmpty() || runs.isEmpty())
+        writeRun();
+      // Merge in groups until one merge can read all the runs
+      while (runs.size() > MAX_MERGE_WIDTH) {
+        List<File> merged = new ArrayList<File>();
+        for (int from = 0; from < runs.size(); from += MAX_MERGE_WIDTH)
+          merged.add(mergeRuns(runs.subList(from, Math.min(from + MAX_MERGE_WIDTH, runs.size()))));
+        runs = merged;
+      }
+      writeIndex(indexFile);
+    }
+    finally {
+      for (File run : runs)
+        run.delete();
+    }
+  }
+
+  /**
+   * Add the postings of a document vector to the current run.
+   */
+  protected void invert(HashMapVector vector, int id) {
+    for (Map.Entry<String, Weight> entry : vector.entrySet()) {
+      String token = entry.getKey();
+      PostingsList list = postings.get(token);
+      if (list == null) {
+        list = new PostingsList();
+        postings.put(token, list);
+        memoryUsed += TERM_OVERHEAD + 2L * token.length();
+      }
+      long before = list.data.length + 8L * list.blockOffset.length;
+      list.add(id, (int) entry.getValue().getValue());
+      memoryUsed += list.data.length + 8L * list.blockOffset.length - before;
+    }
+  }
+
+  /**
+   * Write the terms of the current run in sorted order to a run file and
+   * start a new run.
+   */
+  protected void writeRun() throws IOException {
+    int numTerms = postings.size();
+    final byte[][] keys = new byte[numTerms][];
+    PostingsList[] lists = new PostingsList[numTerms];
+    Integer[] order = new Integer[numTerms];
+    int t = 0;
+    for (Map.Entry<String, PostingsList> entry : postings.entrySet()) {
+      keys[t] = entry.getKey().getBytes(StandardCharsets.UTF_8);
+      lists[t] = entry.getValue();
+      order[t] = t;
+      t++;
+    }
+    Arrays.sort(order, new Comparator<Integer>() {
+      public int compare(Integer a, Integer b) {
+        return TermDictionary.compareBytes(keys[a], keys[b], keys[b].length);
+      }
+    });
+    RunWriter writer = new RunWriter(newRunFile());
+    runs.add(writer.file);
+    try {
+      for (int i = 0; i < numTerms; i++)
+        writer.add(keys[order[i]], lists[order[i]]);
+    }
+    finally {
+      writer.close();
+    }
+    System.out.println("Wrote run " + runs.size() + " of " + numTerms + " terms through document " +
+        docFiles.size() + ", about " + (memoryUsed >> 10) + " KB");
+    peakMemoryUsed = Math.max(peakMemoryUsed, memoryUsed);
+    postings = new HashMap<String, PostingsList>();
+    memoryUsed = 0;
+  }
+
+  protected File newRunFile() {
+    File indexFile = IndexFile.forDirectory(dirFile);
+    return new File(indexFile.getParentFile(), indexFile.getName() + ".run" + (numRunFiles++));
+  }
+
+  /**
+   * Merge consecutive runs into one longer run, deleting them.
+   */
+  protected File mergeRuns(List<File> group) throws IOException {
+    if (group.size() == 1)
+      return group.get(0);
+    RunWriter writer = new RunWriter(newRunFile());
+    try {
+      merge(group, writer);
+    }
+    finally {
+      writer.close();
+    }
+    for (File run : group)
+      run.delete();
+    return writer.file;
+  }
+
+  /**
+   * Merge the runs and write the index file, computing the IDF of each
+   * term from its merged postings and the vector lengths of the
+   * documents from the weights of their terms.
+   */
+  protected void writeIndex(File indexFile) throws IOException {
+    final double N = docFiles.size();
+    final double[] lengths = new double[docFiles.size()];
+    final TermDictionary.Writer terms = new TermDictionary.Writer(indexFile.getParentFile(), indexFile.getName());
+    try {
+      merge(runs, new TermSink() {
+        public void add(byte[] key, PostingsList list) throws IOException {
+          double idf = Math.log(N / list.size());
+          // A token with an IDF of 0 adds nothing to the lengths but is
+          // kept, as InvertedIndex does
+          if (idf != 0.0) {
+            PostingsList.Cursor cursor = list.cursor();
+            while (cursor.next())
+              lengths[cursor.doc] += Math.pow(idf * cursor.count, 2);
+          }
+          terms.add(key, idf, list);
+        }
+      });
+      for (int id = 0; id < lengths.length; id++)
+        lengths[id] = Math.sqrt(lengths[id]);
+      System.out.println("Merged " + runs.size() + " runs into " + terms.size() + " terms");
+      IndexFile.write(indexFile, docType, stem, docFiles, lengths, terms);
+    }
+    finally {
+      terms.delete();
+    }
+  }
+
+  /**
+   * Merge the terms of runs of consecutive documents into a sink in
+   * sorted order, appending the postings of a term from the runs in order.
+   */
+  protected static void merge(List<File> group, TermSink sink) throws IOException {
+    PriorityQueue<RunReader> queue = new PriorityQueue<RunReader>(Math.max(1, group.size()),
+        new Comparator<RunReader>() {
+          public int compare(RunReader a, RunReader b) {
+            int cmp = TermDictionary.compareBytes(a.key, b.key, b.key.length);
+            return (cmp != 0) ? cmp : a.index - b.index;
+          }
+        });
+    List<RunReader> readers = new ArrayList<RunReader>();
+    try {
+      for (File run : group) {
+        RunReader reader = new RunReader(run, readers.size());
+        readers.add(reader);
+        if (reader.next())
+          queue.add(reader);
+      }
+      while (!queue.isEmpty()) {
+        // Runs with the same term come off the queue in document order
+        byte[] key = queue.peek().key;
+        PostingsList merged = new PostingsList();
+        while (!queue.isEmpty() && Arrays.equals(queue.peek().key, key)) {
+          RunReader reader = queue.poll();
+          merged.addAll(reader.postings(), 0);
+          if (reader.next())
+            queue.add(reader);
+        }
+        sink.add(key, merged);
+      }
+    }
+    finally {
+      for (RunReader reader : readers)
+        reader.in.close();
+    }
+  }
+
+  /**
+   * Build the index file of a directory in a memory budget.
+   * Command format: "SpimiIndexBuilder [OPTION]* [DIR]" where DIR is the name of
+   * the directory whose files should be indexed, and OPTIONs can be
+   * "-html" to specify HTML files whose HTML tags should be removed.
+   * "-stem" to specify tokens should be stemmed with Porter stemmer.
+   * "-budget MB" to write a run every MB megabytes of postings.
+   * "-readahead N" to read N files ahead of the document being inverted.
+   */
+  public static void main(String[] args) throws IOException {
+    String dirName = args[args.length - 1];
+    short docType = DocumentIterator.TYPE_TEXT;
+    boolean stem = false;
+    long budget = DEFAULT_MEMORY_BUDGET;
+    int readAhead = 0;
+    for (int i = 0; i < args.length - 1; i++) {
+      String flag = args[i];
+      if (flag.equals("-html"))
+        docType = DocumentIterator.TYPE_HTML;
+      else if (flag.equals("-stem"))
+        stem = true;
+      else if (flag.equals("-budget"))
+        budget = (long) (Double.parseDouble(args[++i]) * (1 << 20));
+      else if (flag.equals("-readahead"))
+        readAhead = Integer.parseInt(args[++i]);
+      else
+        throw new IllegalArgumentException("Unknown flag: " + flag);
+    }
+    SpimiIndexBuilder builder = new SpimiIndexBuilder(new File(dirName), docType, stem, budget);
+    builder.readAhead = readAhead;
+    long start = System.nanoTime();
+    builder.build();
+    System.out.println("Indexed " + builder.docFiles.size() + " documents into " +
+        IndexFile.forDirectory(builder.dirFile) + " in " + (System.nanoTime() - start) / 1000000 +
+        " ms, at most about " + (builder.peakMemoryUsed >> 10) + " KB of postings in memory.");
+  }
+}
@@ -0,0 +1,604 @@
+package ir.vsr;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * The tokens of an inverted index mapped to dense term ids in sorted
+ * order, with the document frequency, IDF and postings of each term in
+ * parallel arrays.  Terms are sorted by their UTF-8 bytes and front coded
+ * in blocks of TERM_BLOCK_SIZE: the first term of a block is stored
+ * whole and every other one as the length of the prefix it shares with
+ * the term before it and the rest of its bytes.  A lookup binary searches
+ * the first terms of the blocks and then scans one block.  The postings
+ * of all terms are kept in one array, each preceded by the skip entries
+ * of its blocks, and are read through PostingsList views.
+ * <p/>
+ * Since ids follow the order of the terms, the terms can be iterated in
+ * order and all terms with a prefix form a range of ids from ceiling.
+ *
+ * @see InvertedIndex
+ */
+public class TermDictionary {
+
+  /**
+   * Number of terms in a front-coded block.
+   */
+  public static final int TERM_BLOCK_SIZE = 16;
+
+  /**
+   * Number of terms.
+   */
+  protected final int numTerms;
+
+  /**
+   * Length in bytes of the longest term.
+   */
+  protected final int maxTermLength;
+
+  /**
+   * Front-coded terms.
+   */
+  protected final byte[] termBytes;
+
+  /**
+   * Offset in termBytes of each block of terms.
+   */
+  protected final int[] termBlockOffset;
+
+  /**
+   * First four bytes of the first term of each block packed in an int,
+   * which settles most comparisons of a binary search without touching
+   * termBytes.
+   */
+  protected final int[] blockPrefix;
+
+  /**
+   * Number of documents each term occurs in.
+   */
+  protected final int[] df;
+
+  /**
+   * IDF of each term.
+   */
+  protected final double[] idf;
+
+  /**
+   * Skip entries and postings of all the terms.
+   */
+  protected final byte[] postingsData;
+
+  /**
+   * Offset in postingsData of the postings of each term, with the end of
+   * the last one at numTerms.
+   */
+  protected final int[] postingsOffset;
+
+  protected TermDictionary(int numTerms, int maxTermLength, byte[] termBytes, int[] termBlockOffset,
+                           int[] df, double[] idf, byte[] postingsData, int[] postingsOffset) {
+    this.numTerms = numTerms;
+    this.maxTermLength = maxTermLength;
+    this.termBytes = termBytes;
+    this.termBlockOffset = termBlockOffset;
+    this.df = df;
+    this.idf = idf;
+    this.postingsData = postingsData;
+    this.postingsOffset = postingsOffset;
+    blockPrefix = new int[termBlockOffset.length];
+    for (int block = 0; block < termBlockOffset.length; block++) {
+      int p = termBlockOffset[block];
+      int length = 0;
+      for (int shift = 0; ; shift += 7) {
+        byte b = termBytes[p++];
+        length |= (b & 0x7F) << shift;
+        if (b >= 0)
+          break;
+      }
+      blockPrefix[block] = packPrefix(termBytes, p, length);
+    }
+  }
+
+  /**
+   * Packs up to the first four bytes of a term into an int that compares
+   * unsigned like the terms, padding short terms with zeros.
+   */
+  protected static int packPrefix(byte[] bytes, int offset, int length) {
+    int packed = 0;
+    for (int i = 0; i < 4; i++)
+      packed = (packed << 8) | ((i < length) ? bytes[offset + i] & 0xFF : 0);
+    return packed;
+  }
+
+  /**
+   * Builds a dictionary of the tokens of an index with their IDFs and
+   * postings.
+   */
+  public static TermDictionary build(Map<String, TokenInfo> tokenHash) {
+    int numTerms = tokenHash.size();
+    final byte[][] keys = new byte[numTerms][];
+    TokenInfo[] infos = new TokenInfo[numTerms];
+    Integer[] order = new Integer[numTerms];
+    int t = 0;
+    for (Map.Entry<String, TokenInfo> entry : tokenHash.entrySet()) {
+      keys[t] = entry.getKey().getBytes(StandardCharsets.UTF_8);
+      infos[t] = entry.getValue();
+      order[t] = t;
+      t++;
+    }
+    Arrays.sort(order, new Comparator<Integer>() {
+      public int compare(Integer a, Integer b) {
+        return compareBytes(keys[a], keys[b], keys[b].length);
+      }
+    });
+
+    ByteArrayOutputStream terms = new ByteArrayOutputStream();
+    ByteArrayOutputStream postings = new ByteArrayOutputStream();
+    int[] termBlockOffset = new int[(numTerms + TERM_BLOCK_SIZE - 1) / TERM_BLOCK_SIZE];
+    int[] df = new int[numTerms];
+    double[] idf = new double[numTerms];
+    int[] postingsOffset = new int[numTerms + 1];
+    int maxTermLength = 0;
+    byte[] previous = null;
+    for (int id = 0; id < numTerms; id++) {
+      byte[] key = keys[order[id]];
+      maxTermLength = Math.max(maxTermLength, key.length);
+      if (id % TERM_BLOCK_SIZE == 0)
+        termBlockOffset[id / TERM_BLOCK_SIZE] = terms.size();
+      writeTerm(terms, id, key, previous);
+      previous = key;
+
+      TokenInfo tokenInfo = infos[order[id]];
+      PostingsList list = tokenInfo.postings;
+      df[id] = list.size();
+      idf[id] = tokenInfo.idf;
+      postingsOffset[id] = postings.size();
+      writePostings(postings, list);
+    }
+    postingsOffset[numTerms] = postings.size();
+    return new TermDictionary(numTerms, maxTermLength, terms.toByteArray(), termBlockOffset,
+        df, idf, postings.toByteArray(), postingsOffset);
+  }
+
+  /**
+   * Front codes the term with an id after the previous term: whole at
+   * the start of a block, otherwise as the prefix it shares with the
+   * previous term and the rest of its bytes.
+   */
+  protected static void writeTerm(ByteArrayOutputStream terms, int id, byte[] key, byte[] previous) {
+    if (id % TERM_BLOCK_SIZE == 0) {
+      writeVarInt(terms, key.length);
+      terms.write(key, 0, key.length);
+    } else {
+      int prefix = 0;
+      while (prefix < key.length && prefix < previous.length && key[prefix] == previous[prefix])
+        prefix++;
+      writeVarInt(terms, prefix);
+      writeVarInt(terms, key.length - prefix);
+      terms.write(key, prefix, key.length - prefix);
+    }
+  }
+
+  /**
+   * Writes the skip entries of the blocks of a postings list followed by
+   * its encoded postings.
+   */
+  protected static void writePostings(ByteArrayOutputStream postings, PostingsList list) {
+    // Skip entries of all blocks but the last, which is scanned to its end
+    int numBlocks = list.numBlocks();
+    writeVarInt(postings, Math.max(0, numBlocks - 1));
+    int lastDoc = 0;
+    for (int block = 0; block < numBlocks - 1; block++) {
+      writeVarInt(postings, list.blockLastDoc[block] - lastDoc);
+      writeVarInt(postings, list.blockOffset[block + 1] - list.start);
+      lastDoc = list.blockLastDoc[block];
+    }
+    postings.write(list.data, list.start, list.length - list.start);
+  }
+
+  protected static void writeVarInt(ByteArrayOutputStream out, int value) {
+    while ((value & ~0x7F) != 0) {
+      out.write((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    out.write(value);
+  }
+
+  /**
+   * Compares two terms by their unsigned bytes, the second given as its
+   * first length bytes.
+   */
+  protected static int compareBytes(byte[] a, byte[] b, int length) {
+    int common = Math.min(a.length, length);
+    for (int i = 0; i < common; i++) {
+      int diff = (a[i] & 0xFF) - (b[i] & 0xFF);
+      if (diff != 0)
+        return diff;
+    }
+    return a.length - length;
+  }
+
+  /**
+   * Returns the number of terms.
+   */
+  public int size() {
+    return numTerms;
+  }
+
+  /**
+   * Returns the id of a term, or -1 if it is not in the dictionary.
+   */
+  public int termId(String term) {
+    int found = find(term.getBytes(StandardCharsets.UTF_8));
+    return (found >= 0) ? found : -1;
+  }
+
+  /**
+   * Returns the id of the first term that is not less than the given
+   * one, numTerms if there is none.  The terms starting with a prefix
+   * have ids from ceiling(prefix) up.
+   */
+  public int ceiling(String term) {
+    int found = find(term.getBytes(StandardCharsets.UTF_8));
+    return (found >= 0) ? found : -found - 1;
+  }
+
+  /**
+   * Finds a term like Arrays.binarySearch: its id if present, otherwise
+   * (-(insertion point) - 1).
+   */
+  protected int find(byte[] key) {
+    // Find the last block whose first term is at most key
+    int low = 0, high = termBlockOffset.length - 1, block = -1;
+    int keyPrefix = packPrefix(key, 0, key.length);
+    while (low <= high) {
+      int middle = (low + high) >>> 1;
+      int cmp = Integer.compareUnsigned(keyPrefix, blockPrefix[middle]);
+      if (cmp > 0) {
+        block = middle;
+        low = middle + 1;
+        continue;
+      }
+      if (cmp < 0) {
+        high = middle - 1;
+        continue;
+      }
+      int p = termBlockOffset[middle];
+      int length = 0;
+      for (int shift = 0; ; shift += 7) {
+        byte b = termBytes[p++];
+        length |= (b & 0x7F) << shift;
+        if (b >= 0)
+          break;
+      }
+      cmp = compareRange(key, termBytes, p, length);
+      if (cmp == 0)
+        return middle * TERM_BLOCK_SIZE;
+      if (cmp > 0) {
+        block = middle;
+        low = middle + 1;
+      } else
+        high = middle - 1;
+    }
+    if (block < 0)
+      return -1;
+    // Scan the block keeping the number of leading bytes the previous
+    // term shares with key, which is enough to place each term against key
+    int p = termBlockOffset[block];
+    int length = 0;
+    for (int shift = 0; ; shift += 7) {
+      byte b = termBytes[p++];
+      length |= (b & 0x7F) << shift;
+      if (b >= 0)
+        break;
+    }
+    int matched = 0;
+    while (matched < length && matched < key.length && termBytes[p + matched] == key[matched])
+      matched++;
+    p += length;
+    int end = Math.min(numTerms, (block + 1) * TERM_BLOCK_SIZE);
+    for (int id = block * TERM_BLOCK_SIZE + 1; id < end; id++) {
+      int prefix = 0;
+      for (int shift = 0; ; shift += 7) {
+        byte b = termBytes[p++];
+        prefix |= (b & 0x7F) << shift;
+        if (b >= 0)
+          break;
+      }
+      int suffix = 0;
+      for (int shift = 0; ; shift += 7) {
+        byte b = termBytes[p++];
+        suffix |= (b & 0x7F) << shift;
+        if (b >= 0)
+          break;
+      }
+      // Sharing less of the previous term than key does puts this term
+      // after key, sharing more puts it before key like the previous one
+      if (prefix < matched)
+        return -id - 1;
+      if (prefix == matched) {
+        int i = 0;
+        while (i < suffix && matched + i < key.length && termBytes[p + i] == key[matched + i])
+          i++;
+        if (i == suffix && matched + i == key.length)
+          return id;
+        if (i < suffix && (matched + i == key.length || (termBytes[p + i] & 0xFF) > (key[matched + i] & 0xFF)))
+          return -id - 1;
+        matched += i;
+      }
+      p += suffix;
+    }
+    return -end - 1;
+  }
+
+  /**
+   * Compares key with length bytes of data from offset.
+   */
+  protected static int compareRange(byte[] key, byte[] data, int offset, int length) {
+    int common = Math.min(key.length, length);
+    for (int i = 0; i < common; i++) {
+      int diff = (key[i] & 0xFF) - (data[offset + i] & 0xFF);
+      if (diff != 0)
+        return diff;
+    }
+    return key.length - length;
+  }
+
+  /**
+   * Returns the term with an id.
+   */
+  public String term(int id) {
+    byte[] current = new byte[maxTermLength];
+    int block = id / TERM_BLOCK_SIZE;
+    int p = termBlockOffset[block];
+    int length = 0;
+    for (int i = block * TERM_BLOCK_SIZE; i <= id; i++) {
+      int prefix = 0;
+      if (i % TERM_BLOCK_SIZE != 0) {
+        for (int shift = 0; ; shift += 7) {
+          byte b = termBytes[p++];
+          prefix |= (b & 0x7F) << shift;
+          if (b >= 0)
+            break;
+        }
+      }
+      int suffix = 0;
+      for (int shift = 0; ; shift += 7) {
+        byte b = termBytes[p++];
+        suffix |= (b & 0x7F) << shift;
+        if (b >= 0)
+          break;
+      }
+      System.arraycopy(termBytes, p, current, prefix, suffix);
+      p += suffix;
+      length = prefix + suffix;
+    }
+    return new String(current, 0, length, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Returns the number of documents a term occurs in.
+   */
+  public int df(int id) {
+    return df[id];
+  }
+
+  /**
+   * Returns the IDF of a term.
+   */
+  public double idf(int id) {
+    return idf[id];
+  }
+
+  /**
+   * Returns the postings of a term.
+   */
+  public PostingsList postings(int id) {
+    int p = postingsOffset[id];
+    int skips = 0;
+    for (int shift = 0; ; shift += 7) {
+      byte b = postingsData[p++];
+      skips |= (b & 0x7F) << shift;
+      if (b >= 0)
+        break;
+    }
+    int[] blockLastDoc = new int[skips + 1];
+    int[] blockOffset = new int[skips + 1];
+    int lastDoc = 0;
+    for (int block = 0; block < skips; block++) {
+      int gap = 0;
+      for (int shift = 0; ; shift += 7) {
+        byte b = postingsData[p++];
+        gap |= (b & 0x7F) << shift;
+        if (b >= 0)
+          break;
+      }
+      int offset = 0;
+      for (int shift = 0; ; shift += 7) {
+        byte b = postingsData[p++];
+        offset |= (b & 0x7F) << shift;
+        if (b >= 0)
+          break;
+      }
+      lastDoc += gap;
+      blockLastDoc[block] = lastDoc;
+      blockOffset[block + 1] = offset;
+    }
+    // Block offsets were stored relative to the start of the postings
+    for (int block = 1; block <= skips; block++)
+      blockOffset[block] += p;
+    blockOffset[0] = p;
+    blockLastDoc[skips] = Integer.MAX_VALUE;
+    return new PostingsList(postingsData, p, postingsOffset[id + 1], df[id], blockLastDoc, blockOffset);
+  }
+
+  /**
+   * Returns the number of bytes used by the arrays of the dictionary.
+   */
+  public long memoryBytes() {
+    return termBytes.length + 4L * termBlockOffset.length + 4L * df.length + 8L * idf.length +
+        postingsData.length + 4L * postingsOffset.length;
+  }
+
+  /**
+   * Writes the dictionary.
+   */
+  public void write(DataOutput out) throws IOException {
+    out.writeInt(numTerms);
+    out.writeInt(maxTermLength);
+    out.writeInt(termBytes.length);
+    out.write(termBytes);
+    for (int offset : termBlockOffset)
+      out.writeInt(offset);
+    for (int id = 0; id < numTerms; id++) {
+      out.writeInt(df[id]);
+      out.writeDouble(idf[id]);
+    }
+    out.writeInt(postingsData.length);
+    out.write(postingsData);
+    for (int offset : postingsOffset)
+      out.writeInt(offset);
+  }
+
+  /**
+   * Reads a dictionary written by write.
+   */
+  public static TermDictionary read(DataInput in) throws IOException {
+    int numTerms = in.readInt();
+    int maxTermLength = in.readInt();
+    byte[] termBytes = new byte[in.readInt()];
+    in.readFully(termBytes);
+    int[] termBlockOffset = new int[(numTerms + TERM_BLOCK_SIZE - 1) / TERM_BLOCK_SIZE];
+    for (int block = 0; block < termBlockOffset.length; block++)
+      termBlockOffset[block] = in.readInt();
+    int[] df = new int[numTerms];
+    double[] idf = new double[numTerms];
+    for (int id = 0; id < numTerms; id++) {
+      df[id] = in.readInt();
+      idf[id] = in.readDouble();
+    }
+    byte[] postingsData = new byte[in.readInt()];
+    in.readFully(postingsData);
+    int[] postingsOffset = new int[numTerms + 1];
+    for (int id = 0; id <= numTerms; id++)
+      postingsOffset[id] = in.readInt();
+    return new TermDictionary(numTerms, maxTermLength, termBytes, termBlockOffset, df, idf,
+        postingsData, postingsOffset);
+  }
+
+  /**
+   * Writes a dictionary term by term, in the order of their UTF-8 bytes,
+   * without holding it in memory, for indexes built in more memory than
+   * the heap has.  Each section of the dictionary is spooled to its own
+   * temporary file and finish copies them out in the layout of write.
+   */
+  public static class Writer {
+    // The temporary files of the sections
+    protected final File[] files = new File[5];
+    protected final DataOutputStream terms, termBlockOffsets, stats, postings, postingsOffsets;
+    // Buffer the current term or postings are encoded in
+    protected final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    protected int numTerms = 0;
+    protected int maxTermLength = 0;
+    protected byte[] previous = null;
+
+    /**
+     * Create a writer with its temporary files in dir, named after prefix.
+     */
+    public Writer(File dir, String prefix) throws IOException {
+      DataOutputStream[] out = new DataOutputStream[files.length];
+      for (int i = 0; i < files.length; i++) {
+        files[i] = new File(dir, prefix + ".dict" + i);
+        out[i] = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(files[i]), 1 << 16));
+      }
+      terms = out[0];
+      termBlockOffsets = out[1];
+      stats = out[2];
+      postings = out[3];
+      postingsOffsets = out[4];
+    }
+
+    /**
+     * Returns the number of terms added.
+     */
+    public int size() {
+      return numTerms;
+    }
+
+    /**
+     * Add the next term, which must follow the last one added.
+     */
+    public void add(byte[] key, double idf, PostingsList list) throws IOException {
+      if (previous != null && compareBytes(key, previous, previous.length) <= 0)
+        throw new IllegalArgumentException("Term added out of order: " + new String(key, StandardCharsets.UTF_8));
+      maxTermLength = Math.max(maxTermLength, key.length);
+      if (numTerms % TERM_BLOCK_SIZE == 0)
+        termBlockOffsets.writeInt(terms.size());
+      buffer.reset();
+      writeTerm(buffer, numTerms, key, previous);
+      buffer.writeTo(terms);
+      previous = key;
+      stats.writeInt(list.size());
+      stats.writeDouble(idf);
+      postingsOffsets.writeInt(postings.size());
+      buffer.reset();
+      writePostings(buffer, list);
+      buffer.writeTo(postings);
+      // DataOutputStream counts stop at Integer.MAX_VALUE
+      if (terms.size() == Integer.MAX_VALUE || postings.size() == Integer.MAX_VALUE)
+        throw new IOException("Dictionary too large for the index file format");
+      numTerms++;
+    }
+
+    /**
+     * Write the dictionary as write does and delete the temporary files.
+     */
+    public void finish(DataOutput out) throws IOException {
+      try {
+        postingsOffsets.writeInt(postings.size());
+        for (DataOutputStream section : new DataOutputStream[]{terms, termBlockOffsets, stats, postings, postingsOffsets})
+          section.close();
+        out.writeInt(numTerms);
+        out.writeInt(maxTermLength);
+        out.writeInt((int) files[0].length());
+        for (int i = 0; i < files.length; i++) {
+          if (i == 3)
+            out.writeInt((int) files[3].length());
+          copy(files[i], out);
+        }
+      }
+      finally {
+        delete();
+      }
+    }
+
+    /**
+     * Delete the temporary files.
+     */
+    public void delete() {
+      for (DataOutputStream section : new DataOutputStream[]{terms, termBlockOffsets, stats, postings, postingsOffsets}) {
+        try {
+          section.close();
+        }
+        catch (IOException e) {
+          // Deleted anyway
+        }
+      }
+      for (File file : files)
+        file.delete();
+    }
+
+    protected static void copy(File file, DataOutput out) throws IOException {
+      InputStream in = new FileInputStream(file);
+      try {
+        byte[] bytes = new byte[1 << 16];
+        int read;
+        while ((read = in.read(bytes)) > 0)
+          out.write(bytes, 0, read);
+      }
+      finally {
+        in.close();
+      }
+    }
+  }
+}
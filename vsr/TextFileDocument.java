@@ -4,7 +4,8 @@ import java.io.*;
 import java.util.*;
 
 /**
- * A normal ASCII text file Document
+ * A normal ASCII text file Document.  The file is read into a char
+ * array when the document is created and tokenized from there.
  *
  * @author Ray Mooney
  */
@@ -12,26 +13,36 @@ import java.util.*;
 public class TextFileDocument extends FileDocument {
 
   /**
-   * StringTokenizer delim for tokenizing only alphabetic strings.
+   * The delimiters of the Tokenizer, kept under their old name.
    */
-  public static final String tokenizerDelim = " \t\n\r\f\'\"\\1234567890!@#$%^&*()_+-={}|[]:;<,>.?/`~";
+  public static final String tokenizerDelim = Tokenizer.DELIMITERS;
 
   /**
-   * The tokenizer for lines read from this document.
+   * Create a new text document for the given file.
    */
-  protected StringTokenizer tokenizer = null;
+  public TextFileDocument(File file, boolean stem) {
+    this(file, null, stem);
+  }
 
   /**
-   * Create a new text document for the given file.
+   * Create a new text document for the given file whose contents are
+   * read from source, or from the file if source is null.
    */
-  public TextFileDocument(File file, boolean stem) {
-    super(file, stem);  // Create a FileDocument
+  public TextFileDocument(File file, Reader source, boolean stem) {
+    super(file, source, stem);  // Create a FileDocument
     try {
-      // create a StringTokenizer for the first line in the file
-      String line = reader.readLine();
-      if (line != null) {
-        this.tokenizer = new StringTokenizer(line, tokenizerDelim);
+      // Read the whole file, whose length in bytes is enough for its chars
+      // in the usual encodings
+      char[] text = new char[(int) Math.min(file.length() + 1, Integer.MAX_VALUE - 8)];
+      int length = 0;
+      int read;
+      while ((read = reader.read(text, length, text.length - length)) > 0) {
+        length += read;
+        if (length == text.length)
+          text = Arrays.copyOf(text, (int) Math.min(2L * length, Integer.MAX_VALUE - 8));
       }
+      reader.close();
+      this.tokenizer = new Tokenizer(text, 0, length);
       prepareNextToken();  // Prepare the first token
     }
     catch (IOException e) {
@@ -51,30 +62,7 @@ public class TextFileDocument extends FileDocument {
    * Return the next purely alpha-character token in the document, or null if none left.
    */
   protected String getNextCandidateToken() {
-    if (tokenizer == null)
-      return null;
-    String candidateToken = null;
-    try {
-      // Loop until you find a line in the file with a token
-      while (!tokenizer.hasMoreTokens()) {
-        // Read a line from the file
-        String line = reader.readLine();
-        if (line == null) {
-          // End of file, no more tokens, return null
-          reader.close();
-          return null;
-        } else
-          // Create a tokenizer for this file line
-          tokenizer = new StringTokenizer(line, tokenizerDelim);
-      }
-      // Get the next token in the current line
-      candidateToken = tokenizer.nextToken();
-    }
-    catch (IOException e) {
-      System.out.println("\nCould not read from TextFileDocument: " + file);
-      System.exit(1);
-    }
-    return candidateToken;
+    return tokenizer.next() ? tokenizer.toString() : null;
   }
 
   /**
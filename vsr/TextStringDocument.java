@@ -11,14 +11,10 @@ import java.util.*;
 public class TextStringDocument extends Document {
 
   /**
-   * StringTokenizer delim for tokenizing only alphabetic strings.
+   * The delimiters of the Tokenizer, kept under their old name.
    */
-  public static final String tokenizerDelim = " \t\n\r\f\'\"\\1234567890!@#$%^&*()_+-={}|[]:;<,>.?/`~";
+  public static final String tokenizerDelim = Tokenizer.DELIMITERS;
 
-  /**
-   * The tokenizer for this document.
-   */
-  protected StringTokenizer tokenizer = null;
   public static String query_string = null;
 
   /**
@@ -27,7 +23,7 @@ public class TextStringDocument extends Document {
   // I modified this part in order to make sure that the both query options (one-word / two-word) are available.
   public TextStringDocument(String string, boolean stem, boolean phrase) {
     super(stem);
-    this.tokenizer = new StringTokenizer(string, tokenizerDelim);
+    this.tokenizer = new Tokenizer(string.toCharArray());
 
     if(phrase){
       prepareNextToken();
@@ -46,9 +42,7 @@ public class TextStringDocument extends Document {
    * Get the next token from this string
    */
   protected String getNextCandidateToken() {
-    if (tokenizer == null || !tokenizer.hasMoreTokens())
-      return null;
-    return tokenizer.nextToken();
+    return tokenizer.next() ? tokenizer.toString() : null;
   }
 
   /**
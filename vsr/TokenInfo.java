@@ -19,16 +19,16 @@ public class TokenInfo {
   public double idf;
 
   /**
-   * A list of TokenOccurences giving documents where this
-   * token occurs
+   * The ids of the documents where this token occurs with its
+   * count in each
    */
-  public List<TokenOccurrence> occList;
+  public PostingsList postings;
 
   /**
    * Create an initially empty data structure
    */
   public TokenInfo() {
-    occList = new ArrayList<TokenOccurrence>();
+    postings = new PostingsList();
     idf = 0.0;
   }
 }
@@ -0,0 +1,135 @@
+package ir.vsr;
+
+/**
+ * Splits a char array of text into candidate tokens, the runs of
+ * characters between the characters of DELIMITERS, as StringTokenizer
+ * does for the documents.  Each candidate is copied lowercased into a
+ * reusable buffer, so it can be checked and rejected without making a
+ * String of it.
+ *
+ * @see Document
+ */
+public class Tokenizer {
+
+  /**
+   * The characters that separate tokens, leaving only alphabetic strings.
+   */
+  public static final String DELIMITERS = " \t\n\r\f\'\"\\1234567890!@#$%^&*()_+-={}|[]:;<,>.?/`~";
+
+  /**
+   * Whether each ASCII character is in DELIMITERS.
+   */
+  protected static final boolean[] isDelim = new boolean[128];
+
+  static {
+    for (int i = 0; i < DELIMITERS.length(); i++)
+      isDelim[DELIMITERS.charAt(i)] = true;
+  }
+
+  /**
+   * The text being tokenized.
+   */
+  protected final char[] text;
+
+  /**
+   * The position in text after the last candidate.
+   */
+  protected int position;
+
+  /**
+   * The end of the text to tokenize.
+   */
+  protected final int end;
+
+  /**
+   * The current candidate token, lowercased, in its first length chars.
+   */
+  public char[] token = new char[32];
+
+  /**
+   * The length of the current candidate token.
+   */
+  public int length = 0;
+
+  /**
+   * Whether the current candidate is all ASCII.
+   */
+  protected boolean ascii = true;
+
+  /**
+   * Create a tokenizer for the chars of text from start to end.
+   */
+  public Tokenizer(char[] text, int start, int end) {
+    this.text = text;
+    this.position = start;
+    this.end = end;
+  }
+
+  /**
+   * Create a tokenizer for all of text.
+   */
+  public Tokenizer(char[] text) {
+    this(text, 0, text.length);
+  }
+
+  /**
+   * Move to the next candidate token.
+   *
+   * @return false if there are no more tokens.
+   */
+  public boolean next() {
+    char[] chars = text;
+    int p = position;
+    while (p < end && chars[p] < 128 && isDelim[chars[p]])
+      p++;
+    if (p == end) {
+      position = p;
+      return false;
+    }
+    int start = p;
+    while (p < end && !(chars[p] < 128 && isDelim[chars[p]]))
+      p++;
+    position = p;
+    int n = p - start;
+    if (n > token.length)
+      token = new char[Math.max(n, token.length * 2)];
+    ascii = true;
+    for (int i = 0; i < n; i++) {
+      char c = chars[start + i];
+      if (c >= 'A' && c <= 'Z')
+        c += 'a' - 'A';
+      else if (c >= 128)
+        ascii = false;
+      token[i] = c;
+    }
+    length = n;
+    if (!ascii) {
+      // Lowercase other characters as String does, which may change the length
+      String lower = new String(chars, start, n).toLowerCase();
+      if (lower.length() > token.length)
+        token = new char[lower.length()];
+      lower.getChars(0, lower.length(), token, 0);
+      length = lower.length();
+    }
+    return true;
+  }
+
+  /**
+   * Return true if the current token consists of all Unicode letters.
+   */
+  public boolean allLetters() {
+    for (int i = 0; i < length; i++) {
+      char c = token[i];
+      if (ascii ? (c < 'a' || c > 'z') : !Character.isLetter(c))
+        return false;
+    }
+    return true;
+  }
+
+  /**
+   * Return the current token as a String.
+   */
+  public String toString() {
+    return new String(token, 0, length);
+  }
+}
@@ -0,0 +1,135 @@
+package ir.vsr;
+
+import java.io.*;
+import java.util.*;
+
+import ir.utilities.*;
+
+/**
+ * Compares the tokens per second of the char array Tokenizer pipeline
+ * of Document with the earlier pipeline, which split each line with a
+ * StringTokenizer and made lowercased Strings of every candidate before
+ * checking them.  The files are read into memory first so only
+ * tokenization is timed, and both pipelines must produce the same
+ * tokens.
+ * <p/>
+ * Command format: "TokenizerBenchmark [OPTION]* [DIR]" where DIR is a
+ * directory of text files and OPTIONs can be:
+ * <ul>
+ * <li>-stem : Stem tokens with the Porter stemmer.</li>
+ * <li>-runs &lt;runs&gt; : Timed runs per pipeline, the best is reported (default 5).</li>
+ * </ul>
+ *
+ * @see Tokenizer
+ */
+public class TokenizerBenchmark {
+
+  /**
+   * Tokenizes a text the way documents were tokenized before Tokenizer.
+   *
+   * @return The sum of the hash codes of the tokens, to compare pipelines.
+   */
+  public static long legacyTokens(String content, boolean stem, int[] count) throws IOException {
+    Porter stemmer = new Porter();
+    long checksum = 0;
+    BufferedReader reader = new BufferedReader(new StringReader(content));
+    String line;
+    while ((line = reader.readLine()) != null) {
+      StringTokenizer tokenizer = new StringTokenizer(line, Tokenizer.DELIMITERS);
+      while (tokenizer.hasMoreTokens()) {
+        String token = tokenizer.nextToken().toLowerCase();
+        if (Document.stopWords.contains(token) || !allLetters(token))
+          continue;
+        if (stem) {
+          token = stemmer.stripAffixes(token);
+          if (Document.stopWords.contains(token))
+            continue;
+        }
+        checksum += token.hashCode();
+        count[0]++;
+      }
+    }
+    return checksum;
+  }
+
+  protected static boolean allLetters(String token) {
+    for (int i = 0; i < token.length(); i++) {
+      if (!Character.isLetter(token.charAt(i)))
+        return false;
+    }
+    return true;
+  }
+
+  /**
+   * Tokenizes a text with the current Document pipeline.
+   *
+   * @return The sum of the hash codes of the tokens, to compare pipelines.
+   */
+  public static long documentTokens(String content, boolean stem, int[] count) {
+    long checksum = 0;
+    Document doc = new TextStringDocument(content, stem, false);
+    while (doc.hasMoreTokens()) {
+      checksum += doc.nextToken().hashCode();
+      count[0]++;
+    }
+    return checksum;
+  }
+
+  public static void main(String[] args) throws IOException {
+    boolean stem = false;
+    int runs = 5;
+    File dir = null;
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals("-stem"))
+        stem = true;
+      else if (args[i].equals("-runs"))
+        runs = Integer.parseInt(args[++i]);
+      else if (args[i].startsWith("-"))
+        throw new IllegalArgumentException("Unknown flag: " + args[i]);
+      else
+        dir = new File(args[i]);
+    }
+    if (dir == null || !dir.isDirectory())
+      throw new IllegalArgumentException("No directory of text files given");
+    List<String> contents = new ArrayList<String>();
+    long chars = 0;
+    for (File file : dir.listFiles()) {
+      if (!file.isFile())
+        continue;
+      BufferedReader reader = new BufferedReader(new FileReader(file));
+      StringBuilder content = new StringBuilder();
+      char[] buffer = new char[8192];
+      int read;
+      while ((read = reader.read(buffer)) > 0)
+        content.append(buffer, 0, read);
+      reader.close();
+      contents.add(content.toString());
+      chars += content.length();
+    }
+    Document.loadStopWords();
+    System.out.println(contents.size() + " files, " + chars + " chars" + (stem ? ", stemmed" : ""));
+
+    long[] checksums = new long[2];
+    int[] tokens = new int[2];
+    for (int pipeline = 0; pipeline < 2; pipeline++) {
+      long best = Long.MAX_VALUE;
+      // The first run warms up the JIT
+      for (int run = 0; run <= runs; run++) {
+        int[] count = new int[1];
+        long checksum = 0;
+        long start = System.nanoTime();
+        for (String content : contents)
+          checksum += (pipeline == 0) ? legacyTokens(content, stem, count) : documentTokens(content, stem, count);
+        long time = System.nanoTime() - start;
+        if (run > 0)
+          best = Math.min(best, time);
+        checksums[pipeline] = checksum;
+        tokens[pipeline] = count[0];
+      }
+      System.out.println(((pipeline == 0) ? "StringTokenizer: " : "Tokenizer:       ") + tokens[pipeline] +
+          " tokens in " + best / 1000000 + " ms, " + Math.round(tokens[pipeline] / (best / 1e9)) + " tokens/sec");
+    }
+    if (checksums[0] != checksums[1] || tokens[0] != tokens[1])
+      System.out.println("Pipelines produced different tokens!");
+  }
+}
@@ -0,0 +1,300 @@
+package ir.webutils;
+
+import java.util.*;
+import java.nio.*;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * An immutable graph in compressed sparse row form.  Nodes are dense
+ * int ids and the out-edges of node v are
+ * <code>outTarget(outStart(v)) ... outTarget(outEnd(v) - 1)</code>,
+ * with in-edges stored the same way for the transposed graph.  A name
+ * dictionary maps ids back to the node names of the Graph it was built
+ * from.  The arrays are held in IntBuffers, which either wrap arrays on
+ * the heap or map a file written by GraphFile, so a graph larger than
+ * the heap can be used in place.  Since nothing is modified after
+ * construction, any number of threads may read a CSRGraph concurrently.
+ *
+ * @see Graph
+ * @see GraphFile
+ */
+public class CSRGraph {
+
+  /**
+   * Node names indexed by id, or null when the names are only kept
+   * encoded in nameBytes.
+   */
+  protected final String[] names;
+
+  /**
+   * Start of each node's UTF-8 name in nameBytes, numNodes + 1 entries,
+   * or null when names is used.
+   */
+  protected final IntBuffer nameOffsets;
+
+  /**
+   * UTF-8 bytes of all node names, or null when names is used.
+   */
+  protected final ByteBuffer nameBytes;
+
+  /**
+   * Maps a node name to its id, built on first use.
+   */
+  protected volatile Map<String, Integer> ids = null;
+
+  /**
+   * Start of each node's out-edges in outTargets, numNodes + 1 entries.
+   */
+  protected final IntBuffer outOffsets;
+
+  /**
+   * Targets of all out-edges, sorted within each node.
+   */
+  protected final IntBuffer outTargets;
+
+  /**
+   * Start of each node's in-edges in inSources, numNodes + 1 entries.
+   */
+  protected final IntBuffer inOffsets;
+
+  /**
+   * Sources of all in-edges, sorted within each node.
+   */
+  protected final IntBuffer inSources;
+
+  /**
+   * Creates a graph from its out-edges in compressed sparse row form
+   * and computes the in-edges.  The arrays are owned by the graph
+   * afterwards and must not be changed by the caller.
+   *
+   * @param names      Node names indexed by id.
+   * @param outOffsets Start of each node's out-edges, numNodes + 1 entries.
+   * @param outTargets Targets of all out-edges.
+   */
+  public CSRGraph(String[] names, int[] outOffsets, int[] outTargets) {
+    int numNodes = names.length;
+    this.names = names;
+    this.nameOffsets = null;
+    this.nameBytes = null;
+    for (int v = 0; v < numNodes; v++)
+      Arrays.sort(outTargets, outOffsets[v], outOffsets[v + 1]);
+    // Transpose with a counting sort on the targets.  Visiting sources in
+    // increasing order leaves each node's in-edges sorted.
+    int[] inOffsets = new int[numNodes + 1];
+    for (int target : outTargets)
+      inOffsets[target + 1]++;
+    for (int v = 0; v < numNodes; v++)
+      inOffsets[v + 1] += inOffsets[v];
+    int[] inSources = new int[outTargets.length];
+    int[] next = Arrays.copyOf(inOffsets, numNodes);
+    for (int v = 0; v < numNodes; v++) {
+      for (int i = outOffsets[v]; i < outOffsets[v + 1]; i++)
+        inSources[next[outTargets[i]]++] = v;
+    }
+    this.outOffsets = IntBuffer.wrap(outOffsets);
+    this.outTargets = IntBuffer.wrap(outTargets);
+    this.inOffsets = IntBuffer.wrap(inOffsets);
+    this.inSources = IntBuffer.wrap(inSources);
+  }
+
+  /**
+   * Creates a graph over buffers that already hold both directions and
+   * the encoded names, such as the sections of a mapped GraphFile.
+   * Nothing is copied or checked.
+   */
+  protected CSRGraph(IntBuffer nameOffsets, ByteBuffer nameBytes, IntBuffer outOffsets,
+                     IntBuffer outTargets, IntBuffer inOffsets, IntBuffer inSources) {
+    this.names = null;
+    this.nameOffsets = nameOffsets;
+    this.nameBytes = nameBytes;
+    this.outOffsets = outOffsets;
+    this.outTargets = outTargets;
+    this.inOffsets = inOffsets;
+    this.inSources = inSources;
+  }
+
+  /**
+   * Builds a CSRGraph from a Graph.  Edges to nodes that are not in the
+   * graph are dropped.
+   */
+  public static CSRGraph fromGraph(Graph graph) {
+    Collection<Node> nodes = graph.getNodes();
+    String[] names = new String[nodes.size()];
+    Map<Node, Integer> nodeIds = new IdentityHashMap<Node, Integer>(names.length);
+    int v = 0;
+    for (Node node : nodes) {
+      names[v] = node.toString();
+      nodeIds.put(node, v++);
+    }
+    int[] outOffsets = new int[names.length + 1];
+    int[] outTargets = new int[16];
+    int numEdges = 0;
+    v = 0;
+    for (Node node : nodes) {
+      for (Node out : node.getEdgesOut()) {
+        Integer target = nodeIds.get(out);
+        if (target == null) {
+          // The edge may point at a stand-in node carrying the same name
+          Node existing = graph.getExistingNode(out.toString());
+          if (existing == null)
+            continue;
+          target = nodeIds.get(existing);
+        }
+        if (numEdges == outTargets.length)
+          outTargets = Arrays.copyOf(outTargets, numEdges * 2);
+        outTargets[numEdges++] = target;
+      }
+      outOffsets[++v] = numEdges;
+    }
+    return new CSRGraph(names, outOffsets, Arrays.copyOf(outTargets, numEdges));
+  }
+
+  /**
+   * Returns the number of nodes.
+   */
+  public int numNodes() {
+    return outOffsets.limit() - 1;
+  }
+
+  /**
+   * Returns the number of edges.
+   */
+  public int numEdges() {
+    return outTargets.limit();
+  }
+
+  /**
+   * Returns the name of the node with that id.
+   */
+  public String getName(int id) {
+    if (names != null)
+      return names[id];
+    int start = nameOffsets.get(id);
+    byte[] bytes = new byte[nameOffsets.get(id + 1) - start];
+    for (int i = 0; i < bytes.length; i++)
+      bytes[i] = nameBytes.get(start + i);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Returns the id of the node with that name or -1 if not present.
+   * The first call builds a map of all the names.
+   */
+  public int getId(String name) {
+    Map<String, Integer> map = ids;
+    if (map == null) {
+      int numNodes = numNodes();
+      map = new HashMap<String, Integer>(numNodes * 4 / 3 + 1);
+      for (int v = 0; v < numNodes; v++)
+        map.put(getName(v), v);
+      ids = map;
+    }
+    Integer id = map.get(name);
+    return (id == null) ? -1 : id;
+  }
+
+  /**
+   * Returns the number of out-edges of a node.
+   */
+  public int outDegree(int id) {
+    return outOffsets.get(id + 1) - outOffsets.get(id);
+  }
+
+  /**
+   * Returns the number of in-edges of a node.
+   */
+  public int inDegree(int id) {
+    return inOffsets.get(id + 1) - inOffsets.get(id);
+  }
+
+  /**
+   * Returns the position of the first out-edge of a node.
+   */
+  public int outStart(int id) {
+    return outOffsets.get(id);
+  }
+
+  /**
+   * Returns the position after the last out-edge of a node.
+   */
+  public int outEnd(int id) {
+    return outOffsets.get(id + 1);
+  }
+
+  /**
+   * Returns the target of the out-edge at a position.
+   */
+  public int outTarget(int position) {
+    return outTargets.get(position);
+  }
+
+  /**
+   * Returns the position of the first in-edge of a node.
+   */
+  public int inStart(int id) {
+    return inOffsets.get(id);
+  }
+
+  /**
+   * Returns the position after the last in-edge of a node.
+   */
+  public int inEnd(int id) {
+    return inOffsets.get(id + 1);
+  }
+
+  /**
+   * Returns the source of the in-edge at a position.
+   */
+  public int inSource(int position) {
+    return inSources.get(position);
+  }
+
+  /**
+   * Returns a copy of the out-edges of a node.
+   */
+  public int[] getEdgesOut(int id) {
+    return copy(outTargets, outStart(id), outEnd(id));
+  }
+
+  /**
+   * Returns a copy of the in-edges of a node.
+   */
+  public int[] getEdgesIn(int id) {
+    return copy(inSources, inStart(id), inEnd(id));
+  }
+
+  /**
+   * Copies a range of a buffer without moving its position.
+   */
+  protected static int[] copy(IntBuffer buffer, int from, int to) {
+    int[] result = new int[to - from];
+    for (int i = from; i < to; i++)
+      result[i - from] = buffer.get(i);
+    return result;
+  }
+
+  /**
+   * Prints the entire graph on stdout.
+   */
+  public void print() {
+    for (int v = 0; v < numNodes(); v++) {
+      StringBuilder line = new StringBuilder(getName(v)).append("->[");
+      for (int i = outStart(v); i < outEnd(v); i++) {
+        if (i > outStart(v))
+          line.append(", ");
+        line.append(getName(outTarget(i)));
+      }
+      System.out.println(line.append("]"));
+    }
+  }
+
+  /**
+   * Reads a graph in the format of Graph.readFromFile or GraphFile and
+   * prints it.
+   */
+  public static void main(String[] args) throws java.io.IOException {
+    CSRGraph csr = GraphFile.load(args[0]);
+    csr.print();
+    System.out.println("\n" + csr.numNodes() + " nodes, " + csr.numEdges() + " edges");
+  }
+}
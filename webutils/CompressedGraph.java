@@ -0,0 +1,601 @@
+package ir.webutils;
+
+import java.util.*;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * An immutable link graph compressed in memory in the manner of the
+ * WebGraph framework (Boldi and Vigna, 2004).  Nodes are numbered in
+ * lexicographic order of their URLs, so pages of a site get nearby ids
+ * and their links become small gaps.  The successor list of each node
+ * is stored as bytes:
+ * <ul>
+ * <li>the out-degree as a varint;</li>
+ * <li>the distance back to a reference node among the previous
+ * WINDOW_SIZE nodes whose list is similar, or 0 for none;</li>
+ * <li>with a reference, a bit mask saying which of the reference's
+ * successors are copied;</li>
+ * <li>the remaining successors, the first as the zig-zag encoded
+ * difference from the node itself and the rest as gaps from the
+ * previous one, all as varints.</li>
+ * </ul>
+ * References are only followed MAX_REF_DEPTH deep so decoding a list
+ * stays cheap.  The predecessor lists are compressed the same way.
+ * Node names are front coded in blocks of NAME_BLOCK_SIZE since sorted
+ * URLs share long prefixes.  Any number of threads may read a
+ * CompressedGraph concurrently.
+ * <p/>
+ * Command format: "CompressedGraph FILE" where FILE is in the format of
+ * Graph.readFromFile or GraphFile.  Prints the size of the compressed
+ * graph and checks it against the uncompressed one.
+ *
+ * @see CSRGraph
+ */
+public class CompressedGraph {
+
+  /**
+   * Number of previous nodes considered as a reference.
+   */
+  public static final int WINDOW_SIZE = 7;
+
+  /**
+   * Longest chain of references followed to decode a list.
+   */
+  public static final int MAX_REF_DEPTH = 3;
+
+  /**
+   * Number of names in a front-coded block.
+   */
+  public static final int NAME_BLOCK_SIZE = 16;
+
+  /**
+   * Number of nodes.
+   */
+  protected final int numNodes;
+
+  /**
+   * Number of edges.
+   */
+  protected final long numEdges;
+
+  /**
+   * Encoded successor lists.
+   */
+  protected final byte[] outData;
+
+  /**
+   * Start of each node's successor list in outData, numNodes + 1 entries.
+   */
+  protected final int[] outOffsets;
+
+  /**
+   * Encoded predecessor lists.
+   */
+  protected final byte[] inData;
+
+  /**
+   * Start of each node's predecessor list in inData, numNodes + 1 entries.
+   */
+  protected final int[] inOffsets;
+
+  /**
+   * Front-coded node names.
+   */
+  protected final byte[] nameData;
+
+  /**
+   * Start of each block of names in nameData.
+   */
+  protected final int[] nameBlocks;
+
+  /**
+   * Compresses a graph.  Its nodes are renumbered in lexicographic order
+   * of their names.
+   */
+  public CompressedGraph(CSRGraph graph) {
+    numNodes = graph.numNodes();
+    numEdges = graph.numEdges();
+    // Renumber in name order
+    String[] names = new String[numNodes];
+    Integer[] order = new Integer[numNodes];
+    for (int v = 0; v < numNodes; v++) {
+      names[v] = graph.getName(v);
+      order[v] = v;
+    }
+    Arrays.sort(order, (a, b) -> names[a].compareTo(names[b]));
+    int[] newId = new int[numNodes];
+    String[] sorted = new String[numNodes];
+    for (int v = 0; v < numNodes; v++) {
+      newId[order[v]] = v;
+      sorted[v] = names[order[v]];
+    }
+    // Successor lists in the new numbering, sorted within each node
+    int[] offsets = new int[numNodes + 1];
+    for (int v = 0; v < numNodes; v++)
+      offsets[v + 1] = offsets[v] + graph.outDegree(order[v]);
+    int[] targets = new int[graph.numEdges()];
+    for (int v = 0; v < numNodes; v++) {
+      int old = order[v];
+      int position = offsets[v];
+      for (int i = graph.outStart(old); i < graph.outEnd(old); i++)
+        targets[position++] = newId[graph.outTarget(i)];
+      Arrays.sort(targets, offsets[v], offsets[v + 1]);
+    }
+    ByteSink out = new ByteSink();
+    outOffsets = encodeLists(offsets, targets, out);
+    outData = out.toArray();
+    // Transpose with a counting sort, which leaves predecessors sorted
+    int[] reverseOffsets = new int[numNodes + 1];
+    for (int target : targets)
+      reverseOffsets[target + 1]++;
+    for (int v = 0; v < numNodes; v++)
+      reverseOffsets[v + 1] += reverseOffsets[v];
+    int[] sources = new int[targets.length];
+    int[] next = Arrays.copyOf(reverseOffsets, numNodes);
+    for (int v = 0; v < numNodes; v++) {
+      for (int i = offsets[v]; i < offsets[v + 1]; i++)
+        sources[next[targets[i]]++] = v;
+    }
+    targets = null;
+    ByteSink in = new ByteSink();
+    inOffsets = encodeLists(reverseOffsets, sources, in);
+    inData = in.toArray();
+    ByteSink nameSink = new ByteSink();
+    nameBlocks = encodeNames(sorted, nameSink);
+    nameData = nameSink.toArray();
+  }
+
+  /**
+   * Encodes every list and returns the start of each in the sink.
+   */
+  protected int[] encodeLists(int[] offsets, int[] lists, ByteSink sink) {
+    int[] starts = new int[numNodes + 1];
+    int[] depth = new int[numNodes];
+    for (int v = 0; v < numNodes; v++) {
+      starts[v] = sink.size();
+      int from = offsets[v], to = offsets[v + 1];
+      int degree = to - from;
+      sink.writeVarInt(degree);
+      if (degree == 0)
+        continue;
+      // Pick the previous list that saves the most bytes when copied from
+      int bestRef = 0, bestGain = 0;
+      for (int r = 1; r <= WINDOW_SIZE && r <= v; r++) {
+        int u = v - r;
+        int refDegree = offsets[u + 1] - offsets[u];
+        if (refDegree == 0 || depth[u] >= MAX_REF_DEPTH)
+          continue;
+        int common = countCommon(lists, offsets[u], offsets[u + 1], from, to);
+        // A copied successor saves about a byte, the mask costs a bit per successor
+        int gain = common - (refDegree + 7) / 8;
+        if (gain > bestGain) {
+          bestGain = gain;
+          bestRef = r;
+        }
+      }
+      sink.writeVarInt(bestRef);
+      int previous = v;
+      boolean first = true;
+      if (bestRef > 0) {
+        int u = v - bestRef;
+        depth[v] = depth[u] + 1;
+        int refFrom = offsets[u], refTo = offsets[u + 1];
+        byte[] mask = new byte[(refTo - refFrom + 7) / 8];
+        int i = refFrom, j = from;
+        // Residuals are the successors not matched in the reference
+        int[] residuals = new int[degree];
+        int numResiduals = 0;
+        while (j < to) {
+          if (i < refTo && lists[i] == lists[j]) {
+            mask[(i - refFrom) >> 3] |= 1 << ((i - refFrom) & 7);
+            i++;
+            j++;
+          } else if (i < refTo && lists[i] < lists[j])
+            i++;
+          else
+            residuals[numResiduals++] = lists[j++];
+        }
+        sink.write(mask);
+        for (int k = 0; k < numResiduals; k++) {
+          writeSuccessor(sink, residuals[k], previous, first);
+          previous = residuals[k];
+          first = false;
+        }
+      } else {
+        for (int k = from; k < to; k++) {
+          writeSuccessor(sink, lists[k], previous, first);
+          previous = lists[k];
+          first = false;
+        }
+      }
+    }
+    starts[numNodes] = sink.size();
+    return starts;
+  }
+
+  /**
+   * Writes a successor as a zig-zag difference from the node if it is
+   * the first, otherwise as a gap from the previous one.
+   */
+  protected static void writeSuccessor(ByteSink sink, int successor, int previous, boolean first) {
+    if (first) {
+      int difference = successor - previous;
+      sink.writeVarInt((difference << 1) ^ (difference >> 31));
+    } else
+      sink.writeVarInt(successor - previous);
+  }
+
+  /**
+   * Counts the successors two sorted lists have in common, counting
+   * repeated successors as many times as both lists have them.
+   */
+  protected static int countCommon(int[] lists, int i, int iEnd, int j, int jEnd) {
+    int common = 0;
+    while (i < iEnd && j < jEnd) {
+      if (lists[i] == lists[j]) {
+        common++;
+        i++;
+        j++;
+      } else if (lists[i] < lists[j])
+        i++;
+      else
+        j++;
+    }
+    return common;
+  }
+
+  /**
+   * Front codes sorted names in blocks.  The first name of a block is
+   * written whole, each other as the length of the prefix it shares
+   * with the name before it and the rest of its bytes.
+   */
+  protected static int[] encodeNames(String[] names, ByteSink sink) {
+    int[] blocks = new int[(names.length + NAME_BLOCK_SIZE - 1) / NAME_BLOCK_SIZE];
+    byte[] previous = new byte[0];
+    for (int v = 0; v < names.length; v++) {
+      byte[] name = names[v].getBytes(StandardCharsets.UTF_8);
+      int shared = 0;
+      if (v % NAME_BLOCK_SIZE == 0)
+        blocks[v / NAME_BLOCK_SIZE] = sink.size();
+      else {
+        int limit = Math.min(name.length, previous.length);
+        while (shared < limit && name[shared] == previous[shared])
+          shared++;
+        sink.writeVarInt(shared);
+      }
+      sink.writeVarInt(name.length - shared);
+      sink.write(name, shared, name.length - shared);
+      previous = name;
+    }
+    return blocks;
+  }
+
+  /**
+   * Builds a compressed graph from a CSRGraph.
+   */
+  public static CompressedGraph fromCSR(CSRGraph graph) {
+    return new CompressedGraph(graph);
+  }
+
+  /**
+   * Returns the number of nodes.
+   */
+  public int numNodes() {
+    return numNodes;
+  }
+
+  /**
+   * Returns the number of edges.
+   */
+  public long numEdges() {
+    return numEdges;
+  }
+
+  /**
+   * Returns the bytes used by the successor and predecessor lists and
+   * the names, leaving out the offsets.
+   */
+  public long dataBytes() {
+    return (long) outData.length + inData.length + nameData.length;
+  }
+
+  /**
+   * Returns the number of out-edges of a node.
+   */
+  public int outDegree(int id) {
+    return readVarInt(outData, outOffsets[id]);
+  }
+
+  /**
+   * Returns the number of in-edges of a node.
+   */
+  public int inDegree(int id) {
+    return readVarInt(inData, inOffsets[id]);
+  }
+
+  /**
+   * Returns an iterator over the successors of a node in increasing order.
+   */
+  public SuccessorIterator successors(int id) {
+    return new SuccessorIterator(outData, outOffsets, id);
+  }
+
+  /**
+   * Returns an iterator over the predecessors of a node in increasing order.
+   */
+  public SuccessorIterator predecessors(int id) {
+    return new SuccessorIterator(inData, inOffsets, id);
+  }
+
+  /**
+   * Returns the successors of a node.
+   */
+  public int[] getEdgesOut(int id) {
+    return successors(id).toArray();
+  }
+
+  /**
+   * Returns the predecessors of a node.
+   */
+  public int[] getEdgesIn(int id) {
+    return predecessors(id).toArray();
+  }
+
+  /**
+   * Returns the name of the node with that id.
+   */
+  public String getName(int id) {
+    int block = id / NAME_BLOCK_SIZE;
+    int[] position = {nameBlocks[block]};
+    byte[] name = new byte[0];
+    for (int v = block * NAME_BLOCK_SIZE; v <= id; v++)
+      name = readName(name, position, v % NAME_BLOCK_SIZE == 0);
+    return new String(name, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Returns the id of the node with that name or -1 if not present,
+   * by binary search over the first names of the blocks.
+   */
+  public int getId(String name) {
+    int low = 0, high = nameBlocks.length - 1;
+    while (low <= high) {
+      int middle = (low + high) >>> 1;
+      int comparison = getName(middle * NAME_BLOCK_SIZE).compareTo(name);
+      if (comparison == 0)
+        return middle * NAME_BLOCK_SIZE;
+      if (comparison < 0)
+        low = middle + 1;
+      else
+        high = middle - 1;
+    }
+    if (high < 0)
+      return -1;
+    int[] position = {nameBlocks[high]};
+    byte[] current = new byte[0];
+    int end = Math.min(numNodes, (high + 1) * NAME_BLOCK_SIZE);
+    for (int v = high * NAME_BLOCK_SIZE; v < end; v++) {
+      current = readName(current, position, v % NAME_BLOCK_SIZE == 0);
+      if (new String(current, StandardCharsets.UTF_8).equals(name))
+        return v;
+    }
+    return -1;
+  }
+
+  /**
+   * Decodes the next front-coded name after previous.
+   */
+  protected byte[] readName(byte[] previous, int[] position, boolean whole) {
+    int shared = 0;
+    if (!whole) {
+      shared = readVarInt(nameData, position[0]);
+      position[0] += varIntLength(shared);
+    }
+    int rest = readVarInt(nameData, position[0]);
+    position[0] += varIntLength(rest);
+    byte[] name = Arrays.copyOf(previous, shared + rest);
+    System.arraycopy(nameData, position[0], name, shared, rest);
+    position[0] += rest;
+    return name;
+  }
+
+  /**
+   * Reads a varint starting at a position.
+   */
+  protected static int readVarInt(byte[] data, int position) {
+    int value = 0;
+    for (int shift = 0; ; shift += 7) {
+      byte b = data[position++];
+      value |= (b & 0x7F) << shift;
+      if (b >= 0)
+        return value;
+    }
+  }
+
+  /**
+   * Returns the number of bytes of a varint.
+   */
+  protected static int varIntLength(int value) {
+    int length = 1;
+    while ((value & ~0x7F) != 0) {
+      value >>>= 7;
+      length++;
+    }
+    return length;
+  }
+
+  /**
+   * Iterates over one decoded list.  Successors copied from a reference
+   * are merged with the residuals, which are decoded lazily from the gaps.
+   */
+  public static class SuccessorIterator {
+    final byte[] data;
+    int position;
+    final int node;
+    int remaining;
+    int residuals;
+    int previous;
+    boolean first = true;
+    // Successors copied from the reference, in order
+    int[] copied;
+    int copiedNext = 0;
+    int nextResidual;
+    boolean hasResidual = false;
+
+    SuccessorIterator(byte[] data, int[] offsets, int node) {
+      this.data = data;
+      this.node = node;
+      this.previous = node;
+      position = offsets[node];
+      remaining = readVar();
+      residuals = remaining;
+      if (remaining == 0)
+        return;
+      int ref = readVar();
+      if (ref > 0) {
+        int[] refList = new SuccessorIterator(data, offsets, node - ref).toArray();
+        copied = new int[refList.length];
+        int numCopied = 0;
+        for (int i = 0; i < refList.length; i++) {
+          if ((data[position + (i >> 3)] & (1 << (i & 7))) != 0)
+            copied[numCopied++] = refList[i];
+        }
+        position += (refList.length + 7) / 8;
+        copied = Arrays.copyOf(copied, numCopied);
+        residuals -= numCopied;
+      }
+      advanceResidual();
+    }
+
+    int readVar() {
+      int value = 0;
+      for (int shift = 0; ; shift += 7) {
+        byte b = data[position++];
+        value |= (b & 0x7F) << shift;
+        if (b >= 0)
+          return value;
+      }
+    }
+
+    void advanceResidual() {
+      if (residuals == 0) {
+        hasResidual = false;
+        return;
+      }
+      residuals--;
+      int code = readVar();
+      if (first) {
+        nextResidual = previous + ((code >>> 1) ^ -(code & 1));
+        first = false;
+      } else
+        nextResidual = previous + code;
+      previous = nextResidual;
+      hasResidual = true;
+    }
+
+    /**
+     * Returns the number of successors not yet returned.
+     */
+    public int remaining() {
+      return remaining;
+    }
+
+    /**
+     * Returns the next successor, or -1 when there are no more.
+     */
+    public int nextInt() {
+      if (remaining == 0)
+        return -1;
+      remaining--;
+      if (copied != null && copiedNext < copied.length &&
+          (!hasResidual || copied[copiedNext] <= nextResidual))
+        return copied[copiedNext++];
+      int result = nextResidual;
+      advanceResidual();
+      return result;
+    }
+
+    /**
+     * Returns the remaining successors as an array.
+     */
+    public int[] toArray() {
+      int[] result = new int[remaining];
+      for (int i = 0; i < result.length; i++)
+        result[i] = nextInt();
+      return result;
+    }
+  }
+
+  /**
+   * A growable byte array for encoding.
+   */
+  protected static class ByteSink {
+    byte[] bytes = new byte[1024];
+    int size = 0;
+
+    int size() {
+      return size;
+    }
+
+    void ensure(int extra) {
+      if (size + extra > bytes.length) {
+        long capacity = Math.max((long) size + extra, (long) bytes.length * 2);
+        if (capacity > Integer.MAX_VALUE - 8)
+          throw new IllegalStateException("Compressed lists exceed 2GB");
+        bytes = Arrays.copyOf(bytes, (int) capacity);
+      }
+    }
+
+    void writeVarInt(int value) {
+      ensure(5);
+      while ((value & ~0x7F) != 0) {
+        bytes[size++] = (byte) ((value & 0x7F) | 0x80);
+        value >>>= 7;
+      }
+      bytes[size++] = (byte) value;
+    }
+
+    void write(byte[] data) {
+      write(data, 0, data.length);
+    }
+
+    void write(byte[] data, int from, int length) {
+      ensure(length);
+      System.arraycopy(data, from, bytes, size, length);
+      size += length;
+    }
+
+    byte[] toArray() {
+      return Arrays.copyOf(bytes, size);
+    }
+  }
+
+  public static void main(String[] args) throws IOException {
+    CSRGraph graph = GraphFile.load(args[0]);
+    long start = System.nanoTime();
+    CompressedGraph compressed = new CompressedGraph(graph);
+    System.out.println("Compressed " + compressed.numNodes() + " nodes, " + compressed.numEdges() +
+        " edges in " + (System.nanoTime() - start) / 1000000 + " ms");
+    System.out.println(String.format("Successors: %.2f bits/edge, predecessors: %.2f bits/edge, names: %.1f bytes/node",
+        8.0 * compressed.outData.length / Math.max(1, compressed.numEdges()),
+        8.0 * compressed.inData.length / Math.max(1, compressed.numEdges()),
+        (double) compressed.nameData.length / Math.max(1, compressed.numNodes())));
+    // Check every list against the uncompressed graph
+    for (int v = 0; v < graph.numNodes(); v++) {
+      int id = compressed.getId(graph.getName(v));
+      int[] expected = graph.getEdgesOut(v);
+      String[] expectedNames = new String[expected.length];
+      for (int i = 0; i < expected.length; i++)
+        expectedNames[i] = graph.getName(expected[i]);
+      Arrays.sort(expectedNames);
+      int[] actual = compressed.getEdgesOut(id);
+      String[] actualNames = new String[actual.length];
+      for (int i = 0; i < actual.length; i++)
+        actualNames[i] = compressed.getName(actual[i]);
+      if (!Arrays.equals(expectedNames, actualNames) || compressed.inDegree(id) != graph.inDegree(v))
+        throw new IllegalStateException("Lists of " + graph.getName(v) + " differ");
+    }
+    System.out.println("All lists match");
+  }
+}
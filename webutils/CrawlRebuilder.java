@@ -0,0 +1,253 @@
+package ir.webutils;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.io.*;
+import java.net.*;
+import java.nio.file.Files;
+
+import ir.utilities.*;
+
+/**
+ * Rebuilds the link graph and PageRank of a crawl from the pages saved
+ * by PageRankSpider, without any network access.  Every saved page
+ * starts with the BASE element written by HTMLPage.write, which gives
+ * its URL.  Links are re-extracted from all pages in parallel and
+ * normalized the way the spider cleans them, except that redirects are
+ * not followed since that needs the network.  Links are then matched to
+ * saved pages, and graph.bin, page_ranks.txt and page_ranks.bin are
+ * written into the crawl directory as the spider would.
+ * <p/>
+ * Command format: "CrawlRebuilder [OPTION]* DIR" where OPTIONs can be:
+ * <ul>
+ * <li>-solver &lt;solver&gt; : PageRank solver (default power).</li>
+ * <li>-alpha &lt;alpha&gt; : Random jump probability (default 0.15).</li>
+ * <li>-scope &lt;prefix&gt; : Only keep pages whose URL starts with the
+ * prefix, may be repeated.</li>
+ * <li>-threads &lt;n&gt; : Number of parsing threads (default all cores).</li>
+ * </ul>
+ *
+ * @see PageRankSpider
+ */
+public class CrawlRebuilder {
+
+  /**
+   * Directory of the saved crawl.
+   */
+  protected final File crawlDir;
+
+  /**
+   * URL prefixes of the pages kept, empty to keep every page.
+   */
+  protected List<String> scope = new ArrayList<String>();
+
+  /**
+   * Pool the pages are parsed in.
+   */
+  protected ForkJoinPool pool = ForkJoinPool.commonPool();
+
+  /**
+   * Engine used to compute PageRank.
+   */
+  protected PageRank pageRank = new PageRank();
+
+  /**
+   * Creates a rebuilder for a saved crawl.
+   */
+  public CrawlRebuilder(File crawlDir) {
+    this.crawlDir = crawlDir;
+  }
+
+  /**
+   * Adds a URL prefix of pages to keep.
+   */
+  public void addScope(String prefix) {
+    scope.add(prefix);
+  }
+
+  /**
+   * Sets the pool the pages are parsed in.
+   */
+  public void setPool(ForkJoinPool pool) {
+    this.pool = pool;
+  }
+
+  /**
+   * Returns the engine used to compute PageRank, to set its parameters.
+   */
+  public PageRank getPageRank() {
+    return pageRank;
+  }
+
+  /**
+   * A saved page with its URL and the URLs it links to, all normalized.
+   */
+  protected static class SavedPage {
+    final String fileName;
+    final String url;
+    final List<String> links;
+
+    SavedPage(String fileName, String url, List<String> links) {
+      this.fileName = fileName;
+      this.url = url;
+      this.links = links;
+    }
+  }
+
+  /**
+   * Normalizes a URL like Link.cleanURL without following redirects.
+   * A trailing "/" is dropped since HTMLPage.write adds one to
+   * directory URLs, so both forms name the same page.
+   */
+  public static String normalize(URL url) {
+    String name = Link.protocolCheck(Link.removeUsersMark(Link.removeRef(url))).toString();
+    return name.endsWith("/") ? name.substring(0, name.length() - 1) : name;
+  }
+
+  /**
+   * Returns true if the URL path looks like an HTML page or a directory,
+   * the same test as Spider.linkToHTMLPage.
+   */
+  protected static boolean isHTML(URL url) {
+    String extension = MoreString.fileExtension(url.getPath());
+    return extension.equals("") || extension.equalsIgnoreCase("html") ||
+        extension.equalsIgnoreCase("htm") || extension.equalsIgnoreCase("shtml");
+  }
+
+  /**
+   * Reads a saved page and extracts its links, or returns null if it
+   * has no BASE element.
+   */
+  protected SavedPage parse(File file) throws IOException {
+    String text = new String(Files.readAllBytes(file.toPath()));
+    String base = HTMLPage.readBaseURL(file);
+    if (base == null)
+      return null;
+    URL url = new URL(base);
+    // Parse the page as it was fetched, without the BASE line, which
+    // otherwise makes the Swing parser drop the first link
+    int newline = text.indexOf('\n');
+    HTMLPage page = new HTMLPage(new Link(url), (newline < 0) ? "" : text.substring(newline + 1));
+    List<String> links = new ArrayList<String>();
+    for (Link link : new LinkExtractor(page).extractLinks()) {
+      if (isHTML(link.getURL()))
+        links.add(normalize(link.getURL()));
+    }
+    return new SavedPage(file.getName(), normalize(url), links);
+  }
+
+  /**
+   * Returns true if the page is within the scope.
+   */
+  protected boolean inScope(String url) {
+    if (scope.isEmpty())
+      return true;
+    for (String prefix : scope) {
+      if (url.startsWith(prefix))
+        return true;
+    }
+    return false;
+  }
+
+  /**
+   * Parses every saved page in parallel and builds the graph over the
+   * pages in scope.
+   *
+   * @param fileNames Set to the saved file name of each node.
+   */
+  public CSRGraph buildGraph(final Map<String, String> fileNames) throws IOException {
+    File[] files = crawlDir.listFiles(new FilenameFilter() {
+      public boolean accept(File dir, String name) {
+        String lower = name.toLowerCase();
+        return lower.endsWith(".html") || lower.endsWith(".htm");
+      }
+    });
+    if (files == null)
+      throw new IOException("Cannot list " + crawlDir);
+    // Parse in parallel but keep the pages in file name order
+    Arrays.sort(files);
+    final SavedPage[] pages = new SavedPage[files.length];
+    final File[] toParse = files;
+    try {
+      pool.submit(() -> java.util.stream.IntStream.range(0, toParse.length).parallel().forEach(i -> {
+        try {
+          pages[i] = parse(toParse[i]);
+        } catch (IOException e) {
+          System.err.println("Could not read " + toParse[i] + ": " + e);
+        }
+      })).get();
+    } catch (InterruptedException | ExecutionException e) {
+      throw new IOException("Parsing pages failed: " + e);
+    }
+
+    GraphBuilder builder = new GraphBuilder();
+    for (SavedPage page : pages) {
+      if (page == null || !inScope(page.url))
+        continue;
+      int id = builder.intern(page.url);
+      if (builder.isIndexed(id)) {
+        System.err.println("Skipping " + page.fileName + ", " + page.url + " is also saved as " +
+            fileNames.get(page.url));
+        continue;
+      }
+      builder.setIndexed(id);
+      fileNames.put(page.url, page.fileName);
+    }
+    for (SavedPage page : pages) {
+      if (page == null || !page.fileName.equals(fileNames.get(page.url)))
+        continue;
+      int x = builder.getId(page.url);
+      for (String link : page.links) {
+        // Drop self-loops like the spider, edges to unsaved pages are dropped by toCSRGraph
+        if (!link.equals(page.url))
+          builder.addEdge(x, builder.intern(link));
+      }
+    }
+    return builder.toCSRGraph();
+  }
+
+  /**
+   * Rebuilds the graph and PageRank and writes graph.bin, page_ranks.txt
+   * and page_ranks.bin into the crawl directory.
+   */
+  public void rebuild() throws IOException {
+    long start = System.nanoTime();
+    Map<String, String> fileNames = new HashMap<String, String>();
+    CSRGraph graph = buildGraph(fileNames);
+    System.out.println("Built graph of " + graph.numNodes() + " pages and " + graph.numEdges() +
+        " links in " + (System.nanoTime() - start) / 1000000 + " ms");
+    start = System.nanoTime();
+    double[] ranks = pageRank.compute(graph);
+    System.out.println("Computed PageRank in " + (System.nanoTime() - start) / 1000000 + " ms");
+
+    String[] docNames = new String[graph.numNodes()];
+    for (int v = 0; v < graph.numNodes(); v++)
+      docNames[v] = fileNames.get(graph.getName(v));
+    GraphFile.write(graph, new File(crawlDir, "graph.bin"));
+    PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(new File(crawlDir, "page_ranks.txt"))));
+    for (int v = 0; v < graph.numNodes(); v++)
+      writer.print(docNames[v] + " " + ranks[v] + "\n");
+    writer.close();
+    PageRankFile.write(new File(crawlDir, "page_ranks.bin"), docNames, ranks);
+  }
+
+  public static void main(String[] args) throws IOException {
+    CrawlRebuilder rebuilder = new CrawlRebuilder(new File(args[args.length - 1]));
+    rebuilder.getPageRank().setVerbose(false);
+    for (int i = 0; i < args.length - 1; i++) {
+      if (args[i].equals("-solver"))
+        rebuilder.getPageRank().setSolver(PageRank.parseSolver(args[++i]));
+      else if (args[i].equals("-alpha"))
+        rebuilder.getPageRank().setAlpha(Double.parseDouble(args[++i]));
+      else if (args[i].equals("-scope"))
+        rebuilder.addScope(args[++i]);
+      else if (args[i].equals("-threads")) {
+        ForkJoinPool pool = new ForkJoinPool(Integer.parseInt(args[++i]));
+        rebuilder.setPool(pool);
+        rebuilder.getPageRank().setPool(pool);
+      } else
+        throw new IllegalArgumentException("Unknown flag: " + args[i]);
+    }
+    rebuilder.rebuild();
+  }
+}
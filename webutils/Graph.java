@@ -77,6 +77,22 @@ public class Graph {
     return nodeMap.get(name);
   }
 
+  /**
+   * Returns a read-only view of the nodes of the graph.  Unlike
+   * resetIterator and nextNode, any number of callers may iterate
+   * over it at the same time.
+   */
+  public Collection<Node> getNodes() {
+    return Collections.unmodifiableCollection(nodeMap.values());
+  }
+
+  /**
+   * Returns the number of nodes in the graph.
+   */
+  public int size() {
+    return nodeMap.size();
+  }
+
   /**
    * Resets the iterator.
    */
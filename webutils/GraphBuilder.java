@@ -0,0 +1,182 @@
+package ir.webutils;
+
+import java.util.*;
+
+import ir.utilities.*;
+
+/**
+ * Collects a link graph while spidering.  URLs are interned to dense int
+ * ids, the out-edges of each node are kept in a primitive hash set so
+ * duplicate links cost a single probe, and each node records whether
+ * its page was actually indexed.  Once the crawl is done the graph
+ * restricted to indexed pages is produced in a single pass.
+ */
+public class GraphBuilder {
+
+  /**
+   * Maps a node name to its id.
+   */
+  protected Map<String, Integer> ids = new HashMap<String, Integer>();
+
+  /**
+   * Node names indexed by id.
+   */
+  protected List<String> names = new ArrayList<String>();
+
+  /**
+   * Out-edges of each node by id, null for nodes with no out-edges.
+   */
+  protected IntHashSet[] edgesOut = new IntHashSet[16];
+
+  /**
+   * Whether the page for each node has been indexed.
+   */
+  protected BitSet indexed = new BitSet();
+
+  /**
+   * The number of distinct edges added.
+   */
+  protected int numEdges = 0;
+
+  /**
+   * Returns the id for the node with that name, creates one if not
+   * already present.
+   */
+  public int intern(String name) {
+    Integer id = ids.get(name);
+    if (id == null) {
+      id = names.size();
+      ids.put(name, id);
+      names.add(name);
+      if (id == edgesOut.length)
+        edgesOut = Arrays.copyOf(edgesOut, id * 2);
+    }
+    return id;
+  }
+
+  /**
+   * Returns the id of the node with that name or -1 if not present.
+   */
+  public int getId(String name) {
+    Integer id = ids.get(name);
+    return (id == null) ? -1 : id;
+  }
+
+  /**
+   * Returns the name of the node with that id.
+   */
+  public String getName(int id) {
+    return names.get(id);
+  }
+
+  /**
+   * Adds an edge from node x to node y unless it is already present.
+   *
+   * @return true if the edge is new
+   */
+  public boolean addEdge(int x, int y) {
+    IntHashSet out = edgesOut[x];
+    if (out == null) {
+      out = new IntHashSet();
+      edgesOut[x] = out;
+    }
+    if (!out.add(y))
+      return false;
+    numEdges++;
+    return true;
+  }
+
+  /**
+   * Adds an edge from xName to yName unless it is already present.
+   */
+  public boolean addEdge(String xName, String yName) {
+    return addEdge(intern(xName), intern(yName));
+  }
+
+  /**
+   * Records that the page for this node was indexed.
+   */
+  public void setIndexed(int id) {
+    indexed.set(id);
+  }
+
+  /**
+   * Returns true if the page for this node was indexed.
+   */
+  public boolean isIndexed(int id) {
+    return indexed.get(id);
+  }
+
+  /**
+   * Returns the number of nodes, indexed or not.
+   */
+  public int numNodes() {
+    return names.size();
+  }
+
+  /**
+   * Returns the number of distinct edges, including those to unindexed nodes.
+   */
+  public int numEdges() {
+    return numEdges;
+  }
+
+  /**
+   * Returns the out-edges of a node as an array of ids.
+   */
+  public int[] getEdgesOut(int id) {
+    IntHashSet out = edgesOut[id];
+    return (out == null) ? new int[0] : out.toArray();
+  }
+
+  /**
+   * Builds a Graph over the indexed nodes only.  Edges to unindexed nodes
+   * are dropped in the same linear pass over the nodes.
+   */
+  public Graph toGraph() {
+    Graph graph = new Graph();
+    Node[] nodes = new Node[names.size()];
+    for (int id = indexed.nextSetBit(0); id >= 0; id = indexed.nextSetBit(id + 1)) {
+      nodes[id] = graph.getNode(names.get(id));
+    }
+    for (int id = indexed.nextSetBit(0); id >= 0; id = indexed.nextSetBit(id + 1)) {
+      IntHashSet out = edgesOut[id];
+      if (out == null)
+        continue;
+      for (int target : out.toArray()) {
+        if (nodes[target] != null)
+          nodes[id].addEdge(nodes[target]);
+      }
+    }
+    return graph;
+  }
+
+  /**
+   * Builds a CSRGraph over the indexed nodes only, numbered in the order
+   * they were first seen.  Edges to unindexed nodes are dropped.
+   */
+  public CSRGraph toCSRGraph() {
+    int[] newIds = new int[names.size()];
+    Arrays.fill(newIds, -1);
+    String[] csrNames = new String[indexed.cardinality()];
+    int numNodes = 0;
+    for (int id = indexed.nextSetBit(0); id >= 0; id = indexed.nextSetBit(id + 1)) {
+      csrNames[numNodes] = names.get(id);
+      newIds[id] = numNodes++;
+    }
+    int[] outOffsets = new int[numNodes + 1];
+    int[] outTargets = new int[numEdges];
+    int edges = 0;
+    for (int id = indexed.nextSetBit(0); id >= 0; id = indexed.nextSetBit(id + 1)) {
+      IntHashSet out = edgesOut[id];
+      if (out != null) {
+        for (int target : out.toArray()) {
+          if (newIds[target] >= 0)
+            outTargets[edges++] = newIds[target];
+        }
+      }
+      outOffsets[newIds[id] + 1] = edges;
+    }
+    return new CSRGraph(csrNames, outOffsets, Arrays.copyOf(outTargets, edges));
+  }
+}
@@ -0,0 +1,400 @@
+package ir.webutils;
+
+import java.util.*;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Binary on-disk form of a CSRGraph that is opened by memory-mapping
+ * it, so loading takes no parsing and the graph need not fit in the
+ * heap.  The file starts with a header of five ints: a magic number,
+ * the version, the number of nodes, the number of edges and the number
+ * of bytes of names.  Then come the sections, each an array of ints:
+ * out-edge offsets, out-edge targets, in-edge offsets, in-edge sources
+ * and name offsets, and finally the UTF-8 bytes of the node names.
+ * Ints are little-endian, the native order of common hardware, so the
+ * mapped sections are read without swapping bytes.  Each section is
+ * mapped on its own, which limits it to 2GB.
+ * <p/>
+ * Command format: "GraphFile [-convert TEXT] FILE".  With -convert the
+ * text graph, in the format of Graph.readFromFile, is streamed into the
+ * binary FILE, otherwise FILE is opened and summarized.
+ *
+ * @see CSRGraph
+ */
+public class GraphFile {
+
+  /**
+   * Marks the start of a graph file.
+   */
+  public static final int MAGIC = 0x47524631;
+
+  /**
+   * Version of the file format.
+   */
+  public static final int VERSION = 1;
+
+  /**
+   * Bytes in the header.
+   */
+  public static final int HEADER_SIZE = 5 * 4;
+
+  /**
+   * Byte order of the ints in the file.
+   */
+  public static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+
+  /**
+   * Writes a graph to a binary file.
+   */
+  public static void write(CSRGraph graph, File file) throws IOException {
+    int numNodes = graph.numNodes();
+    int numEdges = graph.numEdges();
+    byte[][] names = new byte[numNodes][];
+    int nameBytes = 0;
+    for (int v = 0; v < numNodes; v++) {
+      names[v] = graph.getName(v).getBytes(StandardCharsets.UTF_8);
+      nameBytes += names[v].length;
+    }
+    FileChannel channel = new FileOutputStream(file).getChannel();
+    try {
+      ByteBuffer buffer = ByteBuffer.allocate(1 << 16).order(ORDER);
+      buffer.putInt(MAGIC).putInt(VERSION).putInt(numNodes).putInt(numEdges).putInt(nameBytes);
+      for (int v = 0; v <= numNodes; v++)
+        putInt(channel, buffer, (v < numNodes) ? graph.outStart(v) : numEdges);
+      for (int i = 0; i < numEdges; i++)
+        putInt(channel, buffer, graph.outTarget(i));
+      for (int v = 0; v <= numNodes; v++)
+        putInt(channel, buffer, (v < numNodes) ? graph.inStart(v) : numEdges);
+      for (int i = 0; i < numEdges; i++)
+        putInt(channel, buffer, graph.inSource(i));
+      int offset = 0;
+      for (int v = 0; v < numNodes; v++) {
+        putInt(channel, buffer, offset);
+        offset += names[v].length;
+      }
+      putInt(channel, buffer, offset);
+      flush(channel, buffer);
+      for (byte[] name : names)
+        channel.write(ByteBuffer.wrap(name));
+    }
+    finally {
+      channel.close();
+    }
+  }
+
+  /**
+   * Adds an int to a write buffer, writing the buffer out when full.
+   */
+  protected static void putInt(FileChannel channel, ByteBuffer buffer, int value) throws IOException {
+    if (buffer.remaining() < 4)
+      flush(channel, buffer);
+    buffer.putInt(value);
+  }
+
+  /**
+   * Writes out and clears a write buffer.
+   */
+  protected static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+    buffer.flip();
+    while (buffer.hasRemaining())
+      channel.write(buffer);
+    buffer.clear();
+  }
+
+  /**
+   * Writes a Graph, such as one collected by a spider, to a binary file.
+   */
+  public static void write(Graph graph, File file) throws IOException {
+    write(CSRGraph.fromGraph(graph), file);
+  }
+
+  /**
+   * Opens a binary graph file by mapping it read-only.  The mapping
+   * stays valid after the file is closed.
+   */
+  public static CSRGraph open(File file) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      FileChannel channel = raf.getChannel();
+      ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE).order(ORDER);
+      if (header.getInt() != MAGIC)
+        throw new IOException(file + " is not a graph file");
+      int version = header.getInt();
+      if (version != VERSION)
+        throw new IOException("Unsupported graph file version " + version + " in " + file);
+      int numNodes = header.getInt();
+      int numEdges = header.getInt();
+      int nameBytes = header.getInt();
+      long position = HEADER_SIZE;
+      IntBuffer outOffsets = mapInts(channel, position, numNodes + 1);
+      position += 4L * (numNodes + 1);
+      IntBuffer outTargets = mapInts(channel, position, numEdges);
+      position += 4L * numEdges;
+      IntBuffer inOffsets = mapInts(channel, position, numNodes + 1);
+      position += 4L * (numNodes + 1);
+      IntBuffer inSources = mapInts(channel, position, numEdges);
+      position += 4L * numEdges;
+      IntBuffer nameOffsets = mapInts(channel, position, numNodes + 1);
+      position += 4L * (numNodes + 1);
+      if (position + nameBytes != channel.size())
+        throw new IOException(file + " is truncated or corrupt");
+      ByteBuffer names = channel.map(FileChannel.MapMode.READ_ONLY, position, nameBytes);
+      return new CSRGraph(nameOffsets, names, outOffsets, outTargets, inOffsets, inSources);
+    }
+    finally {
+      raf.close();
+    }
+  }
+
+  /**
+   * Maps a section of ints.
+   */
+  protected static IntBuffer mapInts(FileChannel channel, long position, int count) throws IOException {
+    return channel.map(FileChannel.MapMode.READ_ONLY, position, 4L * count).order(ORDER).asIntBuffer();
+  }
+
+  /**
+   * Returns true if the file starts like a binary graph file.
+   */
+  public static boolean isGraphFile(File file) throws IOException {
+    if (file.length() < HEADER_SIZE)
+      return false;
+    DataInputStream in = new DataInputStream(new FileInputStream(file));
+    try {
+      byte[] magic = new byte[4];
+      in.readFully(magic);
+      return ByteBuffer.wrap(magic).order(ORDER).getInt() == MAGIC;
+    }
+    finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Loads a graph from either a binary graph file or a text file in the
+   * format of Graph.readFromFile.  Text is parsed straight into arrays
+   * without building a Graph of Node objects first.
+   */
+  public static CSRGraph load(String fileName) throws IOException {
+    File file = new File(fileName);
+    if (isGraphFile(file))
+      return open(file);
+    final GraphBuilder names = new GraphBuilder();
+    final int[][] edges = {new int[16], new int[16]};
+    final int[] numEdges = {0};
+    readText(file, names, new EdgeSink() {
+      public void edge(int source, int target) {
+        if (numEdges[0] == edges[0].length) {
+          edges[0] = Arrays.copyOf(edges[0], numEdges[0] * 2);
+          edges[1] = Arrays.copyOf(edges[1], numEdges[0] * 2);
+        }
+        edges[0][numEdges[0]] = source;
+        edges[1][numEdges[0]++] = target;
+      }
+    });
+    int numNodes = names.numNodes();
+    String[] nodeNames = new String[numNodes];
+    for (int v = 0; v < numNodes; v++)
+      nodeNames[v] = names.getName(v);
+    // Bucket the edges by source, keeping duplicates as Graph does
+    int[] outOffsets = new int[numNodes + 1];
+    for (int i = 0; i < numEdges[0]; i++)
+      outOffsets[edges[0][i] + 1]++;
+    for (int v = 0; v < numNodes; v++)
+      outOffsets[v + 1] += outOffsets[v];
+    int[] outTargets = new int[numEdges[0]];
+    int[] next = Arrays.copyOf(outOffsets, numNodes);
+    for (int i = 0; i < numEdges[0]; i++)
+      outTargets[next[edges[0][i]]++] = edges[1][i];
+    return new CSRGraph(nodeNames, outOffsets, outTargets);
+  }
+
+  /**
+   * Receives the edges of a text graph as they are read.
+   */
+  protected interface EdgeSink {
+    void edge(int source, int target) throws IOException;
+  }
+
+  /**
+   * Reads a text graph where each line consists of a node name followed
+   * by the names of the nodes it points to, interning names in order of
+   * first appearance and passing each edge to the sink.
+   */
+  protected static void readText(File file, GraphBuilder names, EdgeSink sink) throws IOException {
+    BufferedReader in = new BufferedReader(new FileReader(file), 1 << 16);
+    try {
+      String line;
+      while ((line = in.readLine()) != null) {
+        StringTokenizer tokenizer = new StringTokenizer(line);
+        if (!tokenizer.hasMoreTokens())
+          continue;
+        int source = names.intern(tokenizer.nextToken());
+        while (tokenizer.hasMoreTokens())
+          sink.edge(source, names.intern(tokenizer.nextToken()));
+      }
+    }
+    finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Converts a text graph to a binary graph file while holding only the
+   * node names and per-node counts in memory.  The edges are spooled to
+   * a temporary file, then placed into the mapped output by source and
+   * transposed by reading the out-edges back in order.
+   */
+  public static void convert(File text, File binary) throws IOException {
+    GraphBuilder names = new GraphBuilder();
+    File spool = File.createTempFile("edges", ".tmp", binary.getAbsoluteFile().getParentFile());
+    spool.deleteOnExit();
+    final DataOutputStream edgesOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(spool), 1 << 16));
+    final int[][] degrees = {new int[1024], new int[1024]};
+    final long[] numEdges = {0};
+    try {
+      readText(text, names, new EdgeSink() {
+        public void edge(int source, int target) throws IOException {
+          int needed = Math.max(source, target) + 1;
+          if (needed > degrees[0].length) {
+            int size = Math.max(needed, degrees[0].length * 2);
+            degrees[0] = Arrays.copyOf(degrees[0], size);
+            degrees[1] = Arrays.copyOf(degrees[1], size);
+          }
+          degrees[0][source]++;
+          degrees[1][target]++;
+          edgesOut.writeInt(source);
+          edgesOut.writeInt(target);
+          numEdges[0]++;
+        }
+      });
+    }
+    finally {
+      edgesOut.close();
+    }
+    if (numEdges[0] > Integer.MAX_VALUE / 4)
+      throw new IOException("Too many edges for one section: " + numEdges[0]);
+    int numNodes = names.numNodes();
+    int edges = (int) numEdges[0];
+    // Nodes that only start a line have no edges and may be past the counts
+    int[] outDegree = Arrays.copyOf(degrees[0], Math.max(numNodes, degrees[0].length));
+    int[] inDegree = Arrays.copyOf(degrees[1], Math.max(numNodes, degrees[1].length));
+
+    byte[][] nodeNames = new byte[numNodes][];
+    long nameBytes = 0;
+    for (int v = 0; v < numNodes; v++) {
+      nodeNames[v] = names.getName(v).getBytes(StandardCharsets.UTF_8);
+      nameBytes += nodeNames[v].length;
+    }
+    if (nameBytes > Integer.MAX_VALUE)
+      throw new IOException("Node names too long for one section: " + nameBytes);
+
+    long outTargetsAt = HEADER_SIZE + 4L * (numNodes + 1);
+    long inOffsetsAt = outTargetsAt + 4L * edges;
+    long inSourcesAt = inOffsetsAt + 4L * (numNodes + 1);
+    long nameOffsetsAt = inSourcesAt + 4L * edges;
+    long namesAt = nameOffsetsAt + 4L * (numNodes + 1);
+
+    RandomAccessFile raf = new RandomAccessFile(binary, "rw");
+    try {
+      raf.setLength(0);
+      raf.setLength(namesAt + nameBytes);
+      FileChannel channel = raf.getChannel();
+      ByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE).order(ORDER);
+      header.putInt(MAGIC).putInt(VERSION).putInt(numNodes).putInt(edges).putInt((int) nameBytes);
+      IntBuffer outOffsets = writableInts(channel, HEADER_SIZE, numNodes + 1);
+      IntBuffer inOffsets = writableInts(channel, inOffsetsAt, numNodes + 1);
+      int outSum = 0, inSum = 0;
+      for (int v = 0; v < numNodes; v++) {
+        outOffsets.put(v, outSum);
+        inOffsets.put(v, inSum);
+        outSum += outDegree[v];
+        inSum += inDegree[v];
+      }
+      outOffsets.put(numNodes, outSum);
+      inOffsets.put(numNodes, inSum);
+
+      // Place each spooled edge after the earlier ones of its source
+      IntBuffer outTargets = writableInts(channel, outTargetsAt, edges);
+      int[] next = new int[numNodes];
+      for (int v = 0; v < numNodes; v++)
+        next[v] = outOffsets.get(v);
+      DataInputStream edgesIn = new DataInputStream(new BufferedInputStream(new FileInputStream(spool), 1 << 16));
+      try {
+        for (int i = 0; i < edges; i++) {
+          int source = edgesIn.readInt();
+          outTargets.put(next[source]++, edgesIn.readInt());
+        }
+      }
+      finally {
+        edgesIn.close();
+      }
+
+      // Sort each node's targets, then transpose.  Reading sources in
+      // increasing order leaves each node's in-edges sorted.
+      IntBuffer inSources = writableInts(channel, inSourcesAt, edges);
+      for (int v = 0; v < numNodes; v++)
+        next[v] = inOffsets.get(v);
+      int[] targets = new int[16];
+      for (int v = 0; v < numNodes; v++) {
+        int start = outOffsets.get(v);
+        int degree = outDegree[v];
+        if (degree > targets.length)
+          targets = new int[Math.max(degree, targets.length * 2)];
+        for (int i = 0; i < degree; i++)
+          targets[i] = outTargets.get(start + i);
+        Arrays.sort(targets, 0, degree);
+        for (int i = 0; i < degree; i++) {
+          outTargets.put(start + i, targets[i]);
+          inSources.put(next[targets[i]]++, v);
+        }
+      }
+
+      IntBuffer nameOffsets = writableInts(channel, nameOffsetsAt, numNodes + 1);
+      ByteBuffer namesOut = channel.map(FileChannel.MapMode.READ_WRITE, namesAt, nameBytes);
+      int offset = 0;
+      for (int v = 0; v < numNodes; v++) {
+        nameOffsets.put(v, offset);
+        namesOut.put(nodeNames[v]);
+        offset += nodeNames[v].length;
+      }
+      nameOffsets.put(numNodes, offset);
+    }
+    finally {
+      raf.close();
+      spool.delete();
+    }
+  }
+
+  /**
+   * Maps a section of ints for writing.
+   */
+  protected static IntBuffer writableInts(FileChannel channel, long position, int count) throws IOException {
+    return channel.map(FileChannel.MapMode.READ_WRITE, position, 4L * count).order(ORDER).asIntBuffer();
+  }
+
+  public static void main(String[] args) throws IOException {
+    String textName = null;
+    int i = 0;
+    for (; i < args.length - 1; i++) {
+      if (args[i].equals("-convert"))
+        textName = args[++i];
+      else
+        throw new IllegalArgumentException("Unknown flag: " + args[i]);
+    }
+    File file = new File(args[i]);
+    long start = System.nanoTime();
+    if (textName != null) {
+      convert(new File(textName), file);
+      System.out.println("Converted " + textName + " to " + file + " in " +
+          (System.nanoTime() - start) / 1000000 + " ms");
+      start = System.nanoTime();
+    }
+    CSRGraph graph = open(file);
+    System.out.println("Opened " + file + " in " + (System.nanoTime() - start) / 1000000 + " ms: " +
+        graph.numNodes() + " nodes, " + graph.numEdges() + " edges");
+  }
+}
@@ -0,0 +1,346 @@
+package ir.webutils;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.io.*;
+
+import ir.utilities.MoreString;
+
+/**
+ * Structural statistics of a link graph, for tuning the crawl scope and
+ * PageRank damping: strongly connected components, the share of
+ * dangling nodes, in- and out-degree histograms and the BFS depth of
+ * every node from the seeds.  Everything works on the int arrays of a
+ * CSRGraph.  Degree histograms and BFS levels are computed in parallel;
+ * the components are found with an iterative version of Tarjan's
+ * algorithm, which is sequential but linear and needs no recursion
+ * however deep the graph.
+ * <p/>
+ * Command format: "GraphStats [-seed URL]* FILE" where FILE is in the
+ * format of Graph.readFromFile or GraphFile.  Without seeds the BFS
+ * starts from node 0, which in a graph built by PageRankSpider is the
+ * first page crawled.
+ *
+ * @see CSRGraph
+ */
+public class GraphStats {
+
+  /**
+   * Nodes handled by one task before splitting.
+   */
+  public static final int SPLIT_SIZE = 4096;
+
+  /**
+   * Depth of nodes BFS did not reach.
+   */
+  public static final int UNREACHED = -1;
+
+  /**
+   * The graph analyzed.
+   */
+  protected final CSRGraph graph;
+
+  /**
+   * Pool the parallel parts run in.
+   */
+  protected ForkJoinPool pool = ForkJoinPool.commonPool();
+
+  /**
+   * Creates statistics over a graph.
+   */
+  public GraphStats(CSRGraph graph) {
+    this.graph = graph;
+  }
+
+  /**
+   * Sets the pool the parallel parts run in.
+   */
+  public void setPool(ForkJoinPool pool) {
+    this.pool = pool;
+  }
+
+  /**
+   * Finds the strongly connected components with Tarjan's algorithm,
+   * keeping the depth-first search on explicit stacks.
+   *
+   * @return The component of each node, numbered from 0 in the order
+   *         they are completed, which is a reverse topological order.
+   */
+  public int[] stronglyConnectedComponents() {
+    int numNodes = graph.numNodes();
+    int[] index = new int[numNodes];
+    int[] lowLink = new int[numNodes];
+    int[] component = new int[numNodes];
+    Arrays.fill(index, -1);
+    // Nodes on the path of the search and the next out-edge of each
+    int[] callStack = new int[numNodes];
+    int[] nextEdge = new int[numNodes];
+    // Tarjan's stack of nodes not yet assigned to a component
+    int[] stack = new int[numNodes];
+    boolean[] onStack = new boolean[numNodes];
+    int stackSize = 0, nextIndex = 0, numComponents = 0;
+    for (int root = 0; root < numNodes; root++) {
+      if (index[root] >= 0)
+        continue;
+      int depth = 0;
+      callStack[depth++] = root;
+      index[root] = lowLink[root] = nextIndex++;
+      nextEdge[root] = graph.outStart(root);
+      stack[stackSize++] = root;
+      onStack[root] = true;
+      while (depth > 0) {
+        int v = callStack[depth - 1];
+        if (nextEdge[v] < graph.outEnd(v)) {
+          int w = graph.outTarget(nextEdge[v]++);
+          if (index[w] < 0) {
+            index[w] = lowLink[w] = nextIndex++;
+            nextEdge[w] = graph.outStart(w);
+            stack[stackSize++] = w;
+            onStack[w] = true;
+            callStack[depth++] = w;
+          } else if (onStack[w])
+            lowLink[v] = Math.min(lowLink[v], index[w]);
+          continue;
+        }
+        // All edges of v are done, so return from it
+        depth--;
+        if (depth > 0) {
+          int parent = callStack[depth - 1];
+          lowLink[parent] = Math.min(lowLink[parent], lowLink[v]);
+        }
+        if (lowLink[v] == index[v]) {
+          int w;
+          do {
+            w = stack[--stackSize];
+            onStack[w] = false;
+            component[w] = numComponents;
+          }
+          while (w != v);
+          numComponents++;
+        }
+      }
+    }
+    return component;
+  }
+
+  /**
+   * Returns the bucket of a degree in a histogram with buckets 0, 1,
+   * 2-3, 4-7 and so on.
+   */
+  public static int bucket(int degree) {
+    return (degree == 0) ? 0 : 32 - Integer.numberOfLeadingZeros(degree);
+  }
+
+  /**
+   * Computes the histograms of in- and out-degrees in parallel.
+   *
+   * @return Two histograms, out-degrees first, with the buckets of
+   *         bucket().
+   */
+  public long[][] degreeHistograms() {
+    return pool.invoke(new DegreeTask(0, graph.numNodes()));
+  }
+
+  /**
+   * Counts degrees over a range of nodes.
+   */
+  protected class DegreeTask extends RecursiveTask<long[][]> {
+    private static final long serialVersionUID = 1L;
+
+    final int from, to;
+
+    DegreeTask(int from, int to) {
+      this.from = from;
+      this.to = to;
+    }
+
+    protected long[][] compute() {
+      if (to - from > SPLIT_SIZE) {
+        int middle = (from + to) >>> 1;
+        DegreeTask left = new DegreeTask(from, middle);
+        DegreeTask right = new DegreeTask(middle, to);
+        right.fork();
+        long[][] counts = left.compute();
+        long[][] other = right.join();
+        for (int d = 0; d < 2; d++) {
+          for (int b = 0; b < counts[d].length; b++)
+            counts[d][b] += other[d][b];
+        }
+        return counts;
+      }
+      long[][] counts = new long[2][33];
+      for (int v = from; v < to; v++) {
+        counts[0][bucket(graph.outDegree(v))]++;
+        counts[1][bucket(graph.inDegree(v))]++;
+      }
+      return counts;
+    }
+  }
+
+  /**
+   * Breadth-first search from the seeds.  Each level's frontier is
+   * expanded in parallel, and a node is claimed by the first task to set
+   * its depth.
+   *
+   * @return The depth of each node, UNREACHED for nodes not reached.
+   */
+  public int[] bfsDepths(int[] seeds) {
+    int numNodes = graph.numNodes();
+    AtomicIntegerArray depths = new AtomicIntegerArray(numNodes);
+    for (int v = 0; v < numNodes; v++)
+      depths.set(v, UNREACHED);
+    int[] frontier = new int[seeds.length];
+    int size = 0;
+    for (int seed : seeds) {
+      if (depths.compareAndSet(seed, UNREACHED, 0))
+        frontier[size++] = seed;
+    }
+    frontier = Arrays.copyOf(frontier, size);
+    for (int level = 1; frontier.length > 0; level++)
+      frontier = pool.invoke(new FrontierTask(depths, frontier, level, 0, frontier.length));
+    int[] result = new int[numNodes];
+    for (int v = 0; v < numNodes; v++)
+      result[v] = depths.get(v);
+    return result;
+  }
+
+  /**
+   * Expands a range of the frontier into the nodes first reached at the
+   * next level.
+   */
+  protected class FrontierTask extends RecursiveTask<int[]> {
+    private static final long serialVersionUID = 1L;
+
+    final AtomicIntegerArray depths;
+    final int[] frontier;
+    final int level, from, to;
+
+    FrontierTask(AtomicIntegerArray depths, int[] frontier, int level, int from, int to) {
+      this.depths = depths;
+      this.frontier = frontier;
+      this.level = level;
+      this.from = from;
+      this.to = to;
+    }
+
+    protected int[] compute() {
+      if (to - from > SPLIT_SIZE / 4) {
+        int middle = (from + to) >>> 1;
+        FrontierTask left = new FrontierTask(depths, frontier, level, from, middle);
+        FrontierTask right = new FrontierTask(depths, frontier, level, middle, to);
+        right.fork();
+        int[] first = left.compute();
+        int[] second = right.join();
+        int[] next = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, next, first.length, second.length);
+        return next;
+      }
+      int[] next = new int[16];
+      int size = 0;
+      for (int i = from; i < to; i++) {
+        int v = frontier[i];
+        int end = graph.outEnd(v);
+        for (int e = graph.outStart(v); e < end; e++) {
+          int w = graph.outTarget(e);
+          if (depths.get(w) == UNREACHED && depths.compareAndSet(w, UNREACHED, level)) {
+            if (size == next.length)
+              next = Arrays.copyOf(next, size * 2);
+            next[size++] = w;
+          }
+        }
+      }
+      return Arrays.copyOf(next, size);
+    }
+  }
+
+  /**
+   * Prints a compact report of all the statistics.
+   *
+   * @param seeds Nodes to start the BFS from.
+   */
+  public void report(int[] seeds, PrintStream out) {
+    int numNodes = graph.numNodes();
+    out.println("Nodes: " + numNodes + ", edges: " + graph.numEdges() +
+        String.format(", average degree: %.2f", (double) graph.numEdges() / Math.max(1, numNodes)));
+
+    long start = System.nanoTime();
+    long[][] histograms = degreeHistograms();
+    out.println(String.format("Dangling nodes: %d (%.1f%%), no in-links: %d (%.1f%%)",
+        histograms[0][0], 100.0 * histograms[0][0] / Math.max(1, numNodes),
+        histograms[1][0], 100.0 * histograms[1][0] / Math.max(1, numNodes)));
+    out.println("Degree histogram (" + (System.nanoTime() - start) / 1000000 + " ms):");
+    out.println(MoreString.padTo("degree", 12) + MoreString.padToLeft("out", 12) + MoreString.padToLeft("in", 12));
+    int lastBucket = 0;
+    for (int b = 0; b < 33; b++) {
+      if (histograms[0][b] > 0 || histograms[1][b] > 0)
+        lastBucket = b;
+    }
+    for (int b = 0; b <= lastBucket; b++) {
+      String range = (b <= 1) ? Integer.toString(b) : (1L << (b - 1)) + "-" + ((1L << b) - 1);
+      out.println(MoreString.padTo(range, 12) + MoreString.padToLeft(Long.toString(histograms[0][b]), 12) +
+          MoreString.padToLeft(Long.toString(histograms[1][b]), 12));
+    }
+
+    start = System.nanoTime();
+    int[] component = stronglyConnectedComponents();
+    int numComponents = 0;
+    for (int c : component)
+      numComponents = Math.max(numComponents, c + 1);
+    int[] sizes = new int[numComponents];
+    for (int c : component)
+      sizes[c]++;
+    int largest = 0, singletons = 0;
+    for (int size : sizes) {
+      largest = Math.max(largest, size);
+      if (size == 1)
+        singletons++;
+    }
+    out.println(String.format("Strongly connected components: %d, largest: %d nodes (%.1f%%), singletons: %d (%d ms)",
+        numComponents, largest, 100.0 * largest / Math.max(1, numNodes), singletons,
+        (System.nanoTime() - start) / 1000000));
+
+    start = System.nanoTime();
+    int[] depths = bfsDepths(seeds);
+    int maxDepth = 0;
+    for (int depth : depths)
+      maxDepth = Math.max(maxDepth, depth);
+    long[] perDepth = new long[maxDepth + 1];
+    int unreached = 0;
+    for (int depth : depths) {
+      if (depth == UNREACHED)
+        unreached++;
+      else
+        perDepth[depth]++;
+    }
+    out.println("BFS depth from " + seeds.length + " seed(s) (" + (System.nanoTime() - start) / 1000000 + " ms):");
+    StringBuilder line = new StringBuilder();
+    for (int d = 0; d <= maxDepth; d++)
+      line.append((d == 0) ? "" : ", ").append(d).append(": ").append(perDepth[d]);
+    out.println(line);
+    out.println(String.format("Unreached: %d (%.1f%%)", unreached, 100.0 * unreached / Math.max(1, numNodes)));
+  }
+
+  public static void main(String[] args) throws IOException {
+    List<String> seedNames = new ArrayList<String>();
+    for (int i = 0; i < args.length - 1; i++) {
+      if (args[i].equals("-seed"))
+        seedNames.add(args[++i]);
+      else
+        throw new IllegalArgumentException("Unknown flag: " + args[i]);
+    }
+    CSRGraph graph = GraphFile.load(args[args.length - 1]);
+    int[] seeds;
+    if (seedNames.isEmpty())
+      seeds = (graph.numNodes() == 0) ? new int[0] : new int[]{0};
+    else {
+      seeds = new int[seedNames.size()];
+      for (int s = 0; s < seeds.length; s++) {
+        seeds[s] = graph.getId(seedNames.get(s));
+        if (seeds[s] < 0)
+          throw new IllegalArgumentException("No node named " + seedNames.get(s));
+      }
+    }
+    new GraphStats(graph).report(seeds, System.out);
+  }
+}
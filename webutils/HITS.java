@@ -0,0 +1,280 @@
+package ir.webutils;
+
+import java.util.*;
+import java.io.*;
+
+/**
+ * Query-dependent link analysis with HITS (Kleinberg, 1999).  A root
+ * set of pages, such as the top retrievals for a query, is expanded to
+ * a base set with the pages the root links to and up to maxInLinks of
+ * the pages linking to each root page.  Hub and authority scores are
+ * then iterated on the subgraph of the base set, held as primitive
+ * arrays in compressed sparse row form with local ids, so a query costs
+ * time in the size of the base set only.
+ * <p/>
+ * A HITS object reuses a scratch array the size of the graph across
+ * queries and must only be used by one thread at a time.
+ * <p/>
+ * Command format: "HITS [-in MAX] FILE ROOT*" where FILE is in the format
+ * of Graph.readFromFile or GraphFile and each ROOT is a node name.
+ *
+ * @see PageRank
+ */
+public class HITS {
+
+  /**
+   * Default number of in-links followed from each root page.
+   */
+  public static final int DEFAULT_MAX_IN_LINKS = 50;
+
+  /**
+   * Default L1 change in both score vectors at which to stop.
+   */
+  public static final double DEFAULT_TOLERANCE = 1e-6;
+
+  /**
+   * Default maximum number of iterations.
+   */
+  public static final int DEFAULT_MAX_ITERATIONS = 50;
+
+  /**
+   * The crawl graph.
+   */
+  protected final CSRGraph graph;
+
+  /**
+   * Number of in-links followed from each root page.
+   */
+  protected int maxInLinks = DEFAULT_MAX_IN_LINKS;
+
+  /**
+   * L1 change at which to stop.
+   */
+  protected double tolerance = DEFAULT_TOLERANCE;
+
+  /**
+   * Maximum number of iterations.
+   */
+  protected int maxIterations = DEFAULT_MAX_ITERATIONS;
+
+  /**
+   * Local id of each graph node in the current base set, -1 outside it.
+   * Reset after every query.
+   */
+  protected final int[] localIds;
+
+  /**
+   * Creates a HITS engine over a crawl graph.
+   */
+  public HITS(CSRGraph graph) {
+    this.graph = graph;
+    localIds = new int[graph.numNodes()];
+    Arrays.fill(localIds, -1);
+  }
+
+  /**
+   * Sets the number of in-links followed from each root page.
+   */
+  public void setMaxInLinks(int maxInLinks) {
+    this.maxInLinks = maxInLinks;
+  }
+
+  /**
+   * Sets the L1 change at which to stop.
+   */
+  public void setTolerance(double tolerance) {
+    this.tolerance = tolerance;
+  }
+
+  /**
+   * Sets the maximum number of iterations.
+   */
+  public void setMaxIterations(int maxIterations) {
+    this.maxIterations = maxIterations;
+  }
+
+  /**
+   * Hub and authority scores of a base set.
+   */
+  public static class Result {
+    /**
+     * Graph node ids of the base set, root pages first.
+     */
+    public final int[] nodes;
+    /**
+     * Hub score of each base set node, with unit L2 norm.
+     */
+    public final double[] hubs;
+    /**
+     * Authority score of each base set node, with unit L2 norm.
+     */
+    public final double[] authorities;
+    /**
+     * Number of edges in the base set subgraph.
+     */
+    public final int numEdges;
+    /**
+     * Number of iterations done.
+     */
+    public final int iterations;
+
+    Result(int[] nodes, double[] hubs, double[] authorities, int numEdges, int iterations) {
+      this.nodes = nodes;
+      this.hubs = hubs;
+      this.authorities = authorities;
+      this.numEdges = numEdges;
+      this.iterations = iterations;
+    }
+  }
+
+  /**
+   * Computes hub and authority scores for the base set of a root set.
+   *
+   * @param root Graph node ids of the root pages.
+   */
+  public Result compute(int[] root) {
+    int[] nodes = new int[Math.max(16, root.length * 4)];
+    int size = 0;
+    try {
+      for (int v : root) {
+        if (localIds[v] < 0) {
+          nodes = grow(nodes, size);
+          localIds[v] = size;
+          nodes[size++] = v;
+        }
+      }
+      int rootSize = size;
+      for (int r = 0; r < rootSize; r++) {
+        int v = nodes[r];
+        for (int i = graph.outStart(v); i < graph.outEnd(v); i++) {
+          int w = graph.outTarget(i);
+          if (localIds[w] < 0) {
+            nodes = grow(nodes, size);
+            localIds[w] = size;
+            nodes[size++] = w;
+          }
+        }
+        int inEnd = Math.min(graph.inEnd(v), graph.inStart(v) + maxInLinks);
+        for (int i = graph.inStart(v); i < inEnd; i++) {
+          int u = graph.inSource(i);
+          if (localIds[u] < 0) {
+            nodes = grow(nodes, size);
+            localIds[u] = size;
+            nodes[size++] = u;
+          }
+        }
+      }
+      // Subgraph of the base set with local ids, without self-links
+      int[] offsets = new int[size + 1];
+      int[] targets = new int[16];
+      int numEdges = 0;
+      for (int local = 0; local < size; local++) {
+        int v = nodes[local];
+        for (int i = graph.outStart(v); i < graph.outEnd(v); i++) {
+          int target = localIds[graph.outTarget(i)];
+          if (target >= 0 && target != local) {
+            if (numEdges == targets.length)
+              targets = Arrays.copyOf(targets, numEdges * 2);
+            targets[numEdges++] = target;
+          }
+        }
+        offsets[local + 1] = numEdges;
+      }
+      return iterate(Arrays.copyOf(nodes, size), offsets, targets, numEdges);
+    }
+    finally {
+      for (int i = 0; i < size; i++)
+        localIds[nodes[i]] = -1;
+    }
+  }
+
+  /**
+   * Alternates the authority update a = A'h and the hub update h = A a
+   * on the subgraph, normalizing both to unit length.
+   */
+  protected Result iterate(int[] nodes, int[] offsets, int[] targets, int numEdges) {
+    int size = nodes.length;
+    double[] hubs = new double[size];
+    double[] authorities = new double[size];
+    double[] nextHubs = new double[size];
+    double[] nextAuthorities = new double[size];
+    Arrays.fill(hubs, 1.0 / Math.sqrt(Math.max(size, 1)));
+    Arrays.fill(authorities, 1.0 / Math.sqrt(Math.max(size, 1)));
+    int iterations = 0;
+    while (iterations < maxIterations && size > 0) {
+      Arrays.fill(nextAuthorities, 0.0);
+      for (int u = 0; u < size; u++) {
+        double hub = hubs[u];
+        for (int i = offsets[u]; i < offsets[u + 1]; i++)
+          nextAuthorities[targets[i]] += hub;
+      }
+      normalize(nextAuthorities);
+      for (int u = 0; u < size; u++) {
+        double sum = 0.0;
+        for (int i = offsets[u]; i < offsets[u + 1]; i++)
+          sum += nextAuthorities[targets[i]];
+        nextHubs[u] = sum;
+      }
+      normalize(nextHubs);
+      double delta = 0.0;
+      for (int v = 0; v < size; v++)
+        delta += Math.abs(nextHubs[v] - hubs[v]) + Math.abs(nextAuthorities[v] - authorities[v]);
+      double[] swap = hubs;
+      hubs = nextHubs;
+      nextHubs = swap;
+      swap = authorities;
+      authorities = nextAuthorities;
+      nextAuthorities = swap;
+      iterations++;
+      if (delta < tolerance)
+        break;
+    }
+    return new Result(nodes, hubs, authorities, numEdges, iterations);
+  }
+
+  /**
+   * Scales a vector to unit L2 norm unless it is all zero.
+   */
+  protected static void normalize(double[] vector) {
+    double sum = 0.0;
+    for (double value : vector)
+      sum += value * value;
+    if (sum > 0.0) {
+      double scale = 1.0 / Math.sqrt(sum);
+      for (int i = 0; i < vector.length; i++)
+        vector[i] *= scale;
+    }
+  }
+
+  /**
+   * Makes room for one more node.
+   */
+  protected static int[] grow(int[] nodes, int size) {
+    return (size < nodes.length) ? nodes : Arrays.copyOf(nodes, size * 2);
+  }
+
+  public static void main(String[] args) throws IOException {
+    int maxInLinks = DEFAULT_MAX_IN_LINKS;
+    int i = 0;
+    if (args.length > 1 && args[0].equals("-in")) {
+      maxInLinks = Integer.parseInt(args[1]);
+      i = 2;
+    }
+    CSRGraph graph = GraphFile.load(args[i++]);
+    int[] root = new int[args.length - i];
+    for (int r = 0; r < root.length; r++) {
+      root[r] = graph.getId(args[i + r]);
+      if (root[r] < 0)
+        throw new IllegalArgumentException("No node named " + args[i + r]);
+    }
+    HITS hits = new HITS(graph);
+    hits.setMaxInLinks(maxInLinks);
+    long start = System.nanoTime();
+    Result result = hits.compute(root);
+    System.out.println("Base set of " + result.nodes.length + " nodes, " + result.numEdges + " edges, " +
+        result.iterations + " iterations in " + (System.nanoTime() - start) / 1000 + " us");
+    for (int v = 0; v < result.nodes.length; v++)
+      System.out.println(String.format("%s: hub %.5f, authority %.5f", graph.getName(result.nodes[v]),
+          result.hubs[v], result.authorities[v]));
+  }
+}
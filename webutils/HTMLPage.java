@@ -128,6 +128,28 @@ public class HTMLPage {
     return name + ".html";
   }
 
+  /**
+   * Reads back the URL in the BASE HTML element that write puts at
+   * the start of a saved page.
+   *
+   * @param file A page saved by write.
+   * @return The URL, or null if the file does not start with a BASE element.
+   */
+  public static String readBaseURL(File file) throws IOException {
+    BufferedReader in = new BufferedReader(new FileReader(file));
+    try {
+      String line = in.readLine();
+      String prefix = "<base href=\"";
+      if (line == null || !line.startsWith(prefix))
+        return null;
+      int end = line.indexOf('"', prefix.length());
+      return (end < 0) ? null : line.substring(prefix.length(), end);
+    }
+    finally {
+      in.close();
+    }
+  }
+
   /**
    * If URL looks like a directory rather than a file, then
    * add a "/" at the end so that it acts as a proper base URL
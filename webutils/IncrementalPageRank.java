@@ -0,0 +1,231 @@
+package ir.webutils;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.io.*;
+
+/**
+ * Updates PageRank for a grown graph starting from the ranks of an
+ * earlier crawl instead of from the uniform distribution.  One parallel
+ * pass computes the residual of the warm start in the linear system
+ * x = alpha/N + (1 - alpha) (A x + dangling(x)/N) that PageRank solves.
+ * Rank is then pushed along out-edges only from nodes whose residual is
+ * still large, so the work stays in the region around the new nodes
+ * and edges.  A residual that is the same for every node, such as the
+ * one pushed out of dangling nodes, is a multiple of the random jump
+ * vector and only rescales the solution, so it is dropped and the ranks
+ * are normalized at the end.  Pushing stops once the total residual,
+ * which bounds the L1 error of the ranks times alpha, falls below the
+ * tolerance times alpha.
+ *
+ * @see PageRank
+ */
+public class IncrementalPageRank extends PageRank {
+
+  /**
+   * Number of pushes done by the last computation.
+   */
+  protected long pushes = 0;
+
+  /**
+   * Returns the number of pushes done by the last computation.
+   */
+  public long getPushes() {
+    return pushes;
+  }
+
+  /**
+   * Loads the ranks saved in page_ranks.txt in the directory of an
+   * earlier crawl, keyed by the URL of each page as recorded in the
+   * BASE element of the saved page.
+   */
+  public static Map<String, Double> loadRanks(File crawlDir) throws IOException {
+    Map<String, Double> ranks = new HashMap<String, Double>();
+    BufferedReader in = new BufferedReader(new FileReader(new File(crawlDir, "page_ranks.txt")));
+    String line;
+    while ((line = in.readLine()) != null) {
+      String[] parts = line.split(" ");
+      if (parts.length != 2)
+        continue;
+      File page = new File(crawlDir, parts[0]);
+      if (!page.exists())
+        continue;
+      String url = HTMLPage.readBaseURL(page);
+      if (url != null)
+        ranks.put(url, Double.parseDouble(parts[1]));
+    }
+    in.close();
+    return ranks;
+  }
+
+  /**
+   * Builds a warm start vector for the graph from earlier ranks keyed
+   * by node name.  Saved pages carry their URL with a "/" added to
+   * directories, so that form is tried as well.  Earlier ranks are
+   * scaled by the share of nodes that were already known and new nodes
+   * start at 1/N, which takes the change in N out of the residual of
+   * every old node that kept its links.
+   */
+  public static double[] warmStart(CSRGraph graph, Map<String, Double> ranks) {
+    int numNodes = graph.numNodes();
+    double[] rank = new double[numNodes];
+    boolean[] known = new boolean[numNodes];
+    int numKnown = 0;
+    for (int v = 0; v < numNodes; v++) {
+      String name = graph.getName(v);
+      Double value = ranks.get(name);
+      if (value == null)
+        value = ranks.get(name + "/");
+      if (value != null) {
+        rank[v] = value;
+        known[v] = true;
+        numKnown++;
+      }
+    }
+    double scale = (double) numKnown / numNodes;
+    for (int v = 0; v < numNodes; v++)
+      rank[v] = known[v] ? rank[v] * scale : 1.0 / numNodes;
+    return rank;
+  }
+
+  /**
+   * Computes the PageRank of every node in the graph by pushing the
+   * residual of the given warm start, which is overwritten.
+   *
+   * @return The rank of each node indexed by node id.
+   */
+  public double[] compute(CSRGraph graph, double[] rank) {
+    int numNodes = graph.numNodes();
+    pushes = 0;
+    iterations = 0;
+    if (numNodes == 0)
+      return rank;
+    // Dropping the uniform part of the residual relies on uniform jumps
+    if (jump != null)
+      return super.compute(graph, rank);
+    long start = System.nanoTime();
+    double follow = 1.0 - alpha;
+    double[] share = new double[numNodes];
+    double dangling = computeShares(graph, rank, share);
+    double[] residual = new double[numNodes];
+    ResidualTask task = new ResidualTask(graph, rank, share, residual,
+        (alpha + follow * dangling) / numNodes, 0, numNodes);
+    pool.invoke(task);
+    // Only the part of the residual that differs between nodes needs
+    // pushing.  Subtracting the median leaves the least L1 mass, which
+    // removes the shift from the change in N and in the dangling rank.
+    double[] sorted = residual.clone();
+    Arrays.sort(sorted);
+    double median = sorted[numNodes / 2];
+    double mass = 0.0;
+    for (int v = 0; v < numNodes; v++) {
+      residual[v] -= median;
+      mass += Math.abs(residual[v]);
+    }
+    if (verbose)
+      System.out.println("Initial residual: " + String.format("%.3e", mass) +
+          " (" + (System.nanoTime() - start) / 1000000 + " ms)");
+
+    // A node is pushed once its residual is above its part of the bound
+    double bound = tolerance * alpha;
+    double threshold = bound / numNodes;
+    // A node is queued at most once, so a ring of numNodes ids is enough
+    int[] queue = new int[numNodes];
+    int head = 0, queueSize = 0;
+    boolean[] queued = new boolean[numNodes];
+    for (int v = 0; v < numNodes; v++) {
+      if (Math.abs(residual[v]) > threshold) {
+        queue[queueSize++] = v;
+        queued[v] = true;
+      }
+    }
+    if (queueSize > numNodes / 2) {
+      // The change reaches most of the graph, where sweeping every node
+      // in parallel beats pushing one node at a time.
+      if (verbose)
+        System.out.println("Residual is spread over " + queueSize + " of " + numNodes +
+            " nodes, iterating from the warm start instead");
+      return super.compute(graph, rank);
+    }
+    while (queueSize > 0 && mass >= bound) {
+      int u = queue[head];
+      head = (head + 1) % numNodes;
+      queueSize--;
+      queued[u] = false;
+      double r = residual[u];
+      residual[u] = 0.0;
+      mass -= Math.abs(r);
+      rank[u] += r;
+      pushes++;
+      int degree = graph.outDegree(u);
+      // Residual from a dangling node goes to every node alike, which
+      // is a multiple of the random jump vector, so it only changes the
+      // scale of the solution and is dropped.
+      if (degree == 0)
+        continue;
+      double pushed = follow * r / degree;
+      int end = graph.outEnd(u);
+      for (int i = graph.outStart(u); i < end; i++) {
+        int v = graph.outTarget(i);
+        double old = residual[v];
+        residual[v] = old + pushed;
+        mass += Math.abs(residual[v]) - Math.abs(old);
+        if (!queued[v] && Math.abs(residual[v]) > threshold) {
+          queue[(head + queueSize++) % numNodes] = v;
+          queued[v] = true;
+        }
+      }
+    }
+    normalize(rank);
+    delta = mass;
+    if (verbose)
+      System.out.println("Pushed " + pushes + " times, final residual: " + String.format("%.3e", delta) +
+          " (" + (System.nanoTime() - start) / 1000000 + " ms)");
+    return rank;
+  }
+
+  /**
+   * Computes the residual alpha/N + (1 - alpha) (A x + dangling(x)/N) - x
+   * over a range of nodes and its L1 norm.
+   */
+  protected class ResidualTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    final CSRGraph graph;
+    final double[] rank, share, residual;
+    final double base;
+    final int from, to;
+    double mass = 0.0;
+
+    ResidualTask(CSRGraph graph, double[] rank, double[] share, double[] residual,
+                 double base, int from, int to) {
+      this.graph = graph;
+      this.rank = rank;
+      this.share = share;
+      this.residual = residual;
+      this.base = base;
+      this.from = from;
+      this.to = to;
+    }
+
+    protected void compute() {
+      if (to - from > SPLIT_SIZE) {
+        int middle = (from + to) >>> 1;
+        ResidualTask left = new ResidualTask(graph, rank, share, residual, base, from, middle);
+        ResidualTask right = new ResidualTask(graph, rank, share, residual, base, middle, to);
+        invokeAll(left, right);
+        mass = left.mass + right.mass;
+        return;
+      }
+      double follow = 1.0 - alpha;
+      for (int v = from; v < to; v++) {
+        double sum = 0.0;
+        int end = graph.inEnd(v);
+        for (int i = graph.inStart(v); i < end; i++)
+          sum += share[graph.inSource(i)];
+        residual[v] = base + follow * sum - rank[v];
+        mass += Math.abs(residual[v]);
+      }
+    }
+  }
+}
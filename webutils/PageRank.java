@@ -0,0 +1,633 @@
+package ir.webutils;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.io.*;
+
+/**
+ * Computes PageRank by power iteration over a CSRGraph.  Each iteration
+ * pulls rank along the in-edges of every node, split across the cores
+ * with fork/join, into a second rank vector that is swapped with the
+ * first when the iteration is done.  The rank of dangling nodes (no
+ * out-edges) is spread uniformly over all nodes.  Iteration stops when
+ * the L1 change in the rank vector falls below the tolerance or after
+ * the maximum number of iterations.
+ * <p/>
+ * Plain power iteration converges slowly when few random jumps are
+ * taken, so several other solvers can be chosen with setSolver:
+ * <ul>
+ * <li>GAUSS_SEIDEL : In-place sweeps that use the ranks already updated
+ * in the current sweep.</li>
+ * <li>EXTRAPOLATION : Power iteration with quadratic extrapolation from
+ * the last four iterates every EXTRAPOLATION_PERIOD iterations.</li>
+ * <li>ADAPTIVE : Power iteration that stops recomputing nodes whose rank
+ * has converged.</li>
+ * </ul>
+ *
+ * @see CSRGraph
+ */
+public class PageRank {
+
+  /**
+   * Default probability of a random jump instead of following a link.
+   */
+  public static final double DEFAULT_ALPHA = 0.15;
+
+  /**
+   * Default L1 change in the rank vector below which iteration stops.
+   */
+  public static final double DEFAULT_TOLERANCE = 1e-8;
+
+  /**
+   * Default maximum number of iterations.
+   */
+  public static final int DEFAULT_MAX_ITERATIONS = 50;
+
+  /**
+   * Number of nodes below which a fork/join task does its range directly.
+   */
+  protected static final int SPLIT_SIZE = 2048;
+
+  /**
+   * Number of power iterations between quadratic extrapolations.
+   */
+  public static final int EXTRAPOLATION_PERIOD = 10;
+
+  /**
+   * The ways of solving for the rank vector.
+   */
+  public enum Solver {
+    POWER, GAUSS_SEIDEL, EXTRAPOLATION, ADAPTIVE
+  }
+
+  /**
+   * The solver used.
+   */
+  protected Solver solver = Solver.POWER;
+
+  /**
+   * Probability of a random jump instead of following a link.
+   */
+  protected double alpha = DEFAULT_ALPHA;
+
+  /**
+   * L1 change in the rank vector below which iteration stops.
+   */
+  protected double tolerance = DEFAULT_TOLERANCE;
+
+  /**
+   * Maximum number of iterations.
+   */
+  protected int maxIterations = DEFAULT_MAX_ITERATIONS;
+
+  /**
+   * Distribution over the nodes that random jumps land on, or null for
+   * the uniform distribution.
+   */
+  protected double[] jump = null;
+
+  /**
+   * Whether to print a line for every iteration.
+   */
+  protected boolean verbose = true;
+
+  /**
+   * The pool running the fork/join tasks.
+   */
+  protected ForkJoinPool pool = ForkJoinPool.commonPool();
+
+  /**
+   * Number of iterations done by the last computation.
+   */
+  protected int iterations = 0;
+
+  /**
+   * L1 change in the last iteration of the last computation.
+   */
+  protected double delta = 0.0;
+
+  /**
+   * Sets the probability of a random jump.
+   */
+  public void setAlpha(double alpha) {
+    this.alpha = alpha;
+  }
+
+  /**
+   * Sets the distribution over the nodes that random jumps land on,
+   * which personalizes the ranks toward those nodes.  It must sum to
+   * one, and null restores the uniform distribution.  The rank of
+   * dangling nodes is still spread uniformly, which keeps the ranks
+   * linear in the jump distribution: the ranks for a weighted mix of
+   * jump distributions are the same mix of their ranks.
+   */
+  public void setJump(double[] jump) {
+    this.jump = jump;
+  }
+
+  /**
+   * Sets the solver used.
+   */
+  public void setSolver(Solver solver) {
+    this.solver = solver;
+  }
+
+  /**
+   * Returns the solver with the given name, ignoring case and allowing
+   * "-" for "_" (e.g. "gauss-seidel").
+   */
+  public static Solver parseSolver(String name) {
+    try {
+      return Solver.valueOf(name.toUpperCase().replace('-', '_'));
+    }
+    catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException("Unknown PageRank solver: " + name +
+          " (choose from " + Arrays.toString(Solver.values()) + ")");
+    }
+  }
+
+  /**
+   * Sets the L1 change below which iteration stops.
+   */
+  public void setTolerance(double tolerance) {
+    this.tolerance = tolerance;
+  }
+
+  /**
+   * Sets the maximum number of iterations.
+   */
+  public void setMaxIterations(int maxIterations) {
+    this.maxIterations = maxIterations;
+  }
+
+  /**
+   * Sets whether a line is printed for every iteration.
+   */
+  public void setVerbose(boolean verbose) {
+    this.verbose = verbose;
+  }
+
+  /**
+   * Sets the pool running the fork/join tasks.
+   */
+  public void setPool(ForkJoinPool pool) {
+    this.pool = pool;
+  }
+
+  /**
+   * Returns the number of iterations done by the last computation.
+   */
+  public int getIterations() {
+    return iterations;
+  }
+
+  /**
+   * Returns the L1 change in the last iteration of the last computation.
+   */
+  public double getDelta() {
+    return delta;
+  }
+
+  /**
+   * Computes the PageRank of every node in the graph starting from the
+   * uniform distribution.
+   *
+   * @return The rank of each node indexed by node id.
+   */
+  public double[] compute(CSRGraph graph) {
+    int numNodes = graph.numNodes();
+    double[] rank = new double[numNodes];
+    if (numNodes > 0)
+      Arrays.fill(rank, 1.0 / numNodes);
+    return compute(graph, rank);
+  }
+
+  /**
+   * Computes the PageRank of every node in the graph starting from the
+   * given rank vector, which is overwritten.
+   *
+   * @return The rank of each node indexed by node id.
+   */
+  public double[] compute(CSRGraph graph, double[] rank) {
+    iterations = 0;
+    delta = 0.0;
+    if (graph.numNodes() == 0)
+      return rank;
+    switch (solver) {
+      case GAUSS_SEIDEL:
+        return gaussSeidel(graph, rank);
+      case EXTRAPOLATION:
+        return powerIterate(graph, rank, 4, null);
+      case ADAPTIVE:
+        return powerIterate(graph, rank, 2, new boolean[graph.numNodes()]);
+      default:
+        return powerIterate(graph, rank, 2, null);
+    }
+  }
+
+  /**
+   * Computes the PageRank of every node of a compressed graph by power
+   * iteration starting from the uniform distribution.  Predecessor lists
+   * are decoded on the fly in every iteration, so only the out-degrees
+   * are kept uncompressed.  The solver setting does not apply.
+   *
+   * @return The rank of each node indexed by node id.
+   */
+  public double[] compute(CompressedGraph graph) {
+    int numNodes = graph.numNodes();
+    iterations = 0;
+    delta = 0.0;
+    double[] rank = new double[numNodes];
+    if (numNodes == 0)
+      return rank;
+    Arrays.fill(rank, 1.0 / numNodes);
+    int[] degrees = new int[numNodes];
+    double[] share = new double[numNodes];
+    double dangling = 0.0;
+    for (int v = 0; v < numNodes; v++) {
+      degrees[v] = graph.outDegree(v);
+      if (degrees[v] == 0)
+        dangling += rank[v];
+      else
+        share[v] = rank[v] / degrees[v];
+    }
+    double[] next = new double[numNodes];
+    double[] nextShare = new double[numNodes];
+    while (iterations < maxIterations) {
+      long start = System.nanoTime();
+      double base = ((jump == null) ? alpha + (1.0 - alpha) * dangling : (1.0 - alpha) * dangling) / numNodes;
+      CompressedIterationTask task = new CompressedIterationTask(graph, degrees, rank, next, share,
+          nextShare, base, 0, numNodes);
+      pool.invoke(task);
+      delta = task.delta;
+      dangling = task.dangling;
+      double[] swap = rank;
+      rank = next;
+      next = swap;
+      swap = share;
+      share = nextShare;
+      nextShare = swap;
+      iterations++;
+      if (verbose)
+        System.out.println("Iteration " + iterations + ": L1 delta = " + String.format("%.3e", delta) +
+            " (" + (System.nanoTime() - start) / 1000000 + " ms)");
+      if (delta < tolerance)
+        break;
+    }
+    return rank;
+  }
+
+  /**
+   * Power iteration.  The iterates rotate through a ring of rank vectors
+   * so the last few are at hand for extrapolation without copying.
+   *
+   * @param history The number of rank vectors in the ring, 4 to
+   *                extrapolate and 2 otherwise.
+   * @param frozen  Nodes whose rank has converged and is no longer
+   *                recomputed, or null to always recompute every node.
+   */
+  protected double[] powerIterate(CSRGraph graph, double[] rank, int history, boolean[] frozen) {
+    int numNodes = graph.numNodes();
+    double[][] ring = new double[history][];
+    ring[0] = rank;
+    for (int i = 1; i < history; i++)
+      ring[i] = new double[numNodes];
+    // Rank each node passes along each of its out-edges, double-buffered
+    // like the rank vectors since it is recomputed along with them.
+    double[] share = new double[numNodes];
+    double[] nextShare = new double[numNodes];
+    double dangling = computeShares(graph, rank, share);
+    // Only freeze nodes that changed less than their part of the tolerance
+    double freezeLimit = tolerance / numNodes;
+    while (iterations < maxIterations) {
+      long start = System.nanoTime();
+      rank = ring[iterations % history];
+      double[] next = ring[(iterations + 1) % history];
+      // Rank every node gets from dangling nodes and, unless personalized, from random jumps
+      double base = ((jump == null) ? alpha + (1.0 - alpha) * dangling : (1.0 - alpha) * dangling) / numNodes;
+      IterationTask task = new IterationTask(graph, rank, next, share, nextShare, base, frozen,
+          freezeLimit, 0, numNodes);
+      pool.invoke(task);
+      delta = task.delta;
+      dangling = task.dangling;
+      double[] swap = share;
+      share = nextShare;
+      nextShare = swap;
+      iterations++;
+      rank = next;
+      String note = "";
+      if (history == 4 && iterations >= 4 && iterations % EXTRAPOLATION_PERIOD == 0 &&
+          quadraticExtrapolation(ring[(iterations - 3) % 4], ring[(iterations - 2) % 4],
+              ring[(iterations - 1) % 4], rank)) {
+        dangling = computeShares(graph, rank, share);
+        note = ", extrapolated";
+      }
+      if (verbose)
+        System.out.println("Iteration " + iterations + ": L1 delta = " + String.format("%.3e", delta) +
+            " (" + (System.nanoTime() - start) / 1000000 + " ms" + note + ")");
+      if (delta < tolerance)
+        break;
+    }
+    // Frozen nodes lag behind the others, so restore a distribution
+    if (frozen != null)
+      normalize(rank);
+    return rank;
+  }
+
+  /**
+   * Gauss-Seidel iteration.  Solves (I - (1 - alpha) H') y = alpha / N,
+   * where H' is the transposed link matrix with no rows for dangling
+   * nodes, by sweeping over the nodes in order and using the values
+   * already updated in the sweep.  Normalizing y gives the same ranks
+   * as power iteration with dangling rank spread uniformly.  With a
+   * personalized jump distribution the dangling rank of the previous
+   * sweep is spread instead, which converges to the ranks directly.
+   * Each sweep is sequential.
+   */
+  protected double[] gaussSeidel(CSRGraph graph, double[] rank) {
+    int numNodes = graph.numNodes();
+    double follow = 1.0 - alpha;
+    double uniform = 1.0 / numNodes;
+    // Work in the unnormalized scale of y, which sums to less than one
+    double[] previous = new double[numNodes];
+    double sum = 0.0;
+    for (int v = 0; v < numNodes; v++)
+      sum += rank[v];
+    while (iterations < maxIterations) {
+      long start = System.nanoTime();
+      System.arraycopy(rank, 0, previous, 0, numNodes);
+      double previousSum = sum;
+      double spread = 0.0;
+      if (jump != null) {
+        for (int v = 0; v < numNodes; v++) {
+          if (graph.outDegree(v) == 0)
+            spread += rank[v];
+        }
+        spread *= follow / numNodes;
+      }
+      sum = 0.0;
+      for (int v = 0; v < numNodes; v++) {
+        double in = 0.0;
+        double self = 0.0;
+        int end = graph.inEnd(v);
+        for (int i = graph.inStart(v); i < end; i++) {
+          int u = graph.inSource(i);
+          if (u == v)
+            self += 1.0 / graph.outDegree(v);
+          else
+            in += rank[u] / graph.outDegree(u);
+        }
+        double teleport = (jump == null) ? alpha * uniform : alpha * jump[v] + spread;
+        double value = (teleport + follow * in) / (1.0 - follow * self);
+        rank[v] = value;
+        sum += value;
+      }
+      // Compare the normalized iterates
+      delta = 0.0;
+      for (int v = 0; v < numNodes; v++)
+        delta += Math.abs(rank[v] / sum - previous[v] / previousSum);
+      iterations++;
+      if (verbose)
+        System.out.println("Iteration " + iterations + ": L1 delta = " + String.format("%.3e", delta) +
+            " (" + (System.nanoTime() - start) / 1000000 + " ms)");
+      if (delta < tolerance)
+        break;
+    }
+    normalize(rank);
+    return rank;
+  }
+
+  /**
+   * Replaces x with quadratic extrapolation from the last four iterates
+   * (Kamvar, Haveliwala, Manning and Golub, 2003), which cancels the
+   * components of the error along the next two eigenvectors.  Leaves x
+   * unchanged if the least squares system is degenerate.
+   *
+   * @param x3 The iterate three steps back.
+   * @param x2 The iterate two steps back.
+   * @param x1 The previous iterate.
+   * @param x  The current iterate, replaced by the extrapolation.
+   * @return true if x was extrapolated.
+   */
+  protected boolean quadraticExtrapolation(double[] x3, double[] x2, double[] x1, double[] x) {
+    // With y_i = x_i - x3, find g1, g2 minimizing |g1 y2 + g2 y1 + y|
+    // through the 2x2 normal equations.
+    double a11 = 0.0, a12 = 0.0, a22 = 0.0, b1 = 0.0, b2 = 0.0;
+    for (int v = 0; v < x.length; v++) {
+      double y2 = x2[v] - x3[v];
+      double y1 = x1[v] - x3[v];
+      double y = x[v] - x3[v];
+      a11 += y2 * y2;
+      a12 += y2 * y1;
+      a22 += y1 * y1;
+      b1 -= y2 * y;
+      b2 -= y1 * y;
+    }
+    double det = a11 * a22 - a12 * a12;
+    if (!(Math.abs(det) > 1e-300))
+      return false;
+    double g1 = (b1 * a22 - b2 * a12) / det;
+    double g2 = (a11 * b2 - a12 * b1) / det;
+    double beta0 = g1 + g2 + 1.0;
+    double beta1 = g2 + 1.0;
+    double sum = 0.0;
+    for (int v = 0; v < x.length; v++) {
+      double value = beta0 * x2[v] + beta1 * x1[v] + x[v];
+      // Extrapolation can overshoot a small rank below zero
+      x[v] = Math.max(value, 0.0);
+      sum += x[v];
+    }
+    if (!(sum > 0.0))
+      return false;
+    for (int v = 0; v < x.length; v++)
+      x[v] /= sum;
+    return true;
+  }
+
+  /**
+   * Computes the rank each node passes along each out-edge.
+   *
+   * @return The total rank of dangling nodes.
+   */
+  protected static double computeShares(CSRGraph graph, double[] rank, double[] share) {
+    double dangling = 0.0;
+    for (int v = 0; v < rank.length; v++) {
+      int degree = graph.outDegree(v);
+      if (degree == 0) {
+        share[v] = 0.0;
+        dangling += rank[v];
+      } else
+        share[v] = rank[v] / degree;
+    }
+    return dangling;
+  }
+
+  /**
+   * Scales a vector to sum to one.
+   */
+  protected static void normalize(double[] rank) {
+    double sum = 0.0;
+    for (double value : rank)
+      sum += value;
+    if (sum > 0.0) {
+      for (int v = 0; v < rank.length; v++)
+        rank[v] /= sum;
+    }
+  }
+
+  /**
+   * One power iteration over a range of nodes.  Computes the next rank
+   * of each node from the shares of its in-neighbors, and along with it
+   * the share the node passes on next time, the L1 change and the rank
+   * held by dangling nodes.  Frozen nodes keep their rank, and nodes that
+   * change less than the freeze limit become frozen.
+   */
+  protected class IterationTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    final CSRGraph graph;
+    final double[] rank, next, share, nextShare;
+    final double base;
+    final boolean[] frozen;
+    final double freezeLimit;
+    final int from, to;
+    double delta = 0.0;
+    double dangling = 0.0;
+
+    IterationTask(CSRGraph graph, double[] rank, double[] next, double[] share, double[] nextShare,
+                  double base, boolean[] frozen, double freezeLimit, int from, int to) {
+      this.graph = graph;
+      this.rank = rank;
+      this.next = next;
+      this.share = share;
+      this.nextShare = nextShare;
+      this.base = base;
+      this.frozen = frozen;
+      this.freezeLimit = freezeLimit;
+      this.from = from;
+      this.to = to;
+    }
+
+    protected void compute() {
+      if (to - from > SPLIT_SIZE) {
+        int middle = (from + to) >>> 1;
+        IterationTask left = new IterationTask(graph, rank, next, share, nextShare, base, frozen,
+            freezeLimit, from, middle);
+        IterationTask right = new IterationTask(graph, rank, next, share, nextShare, base, frozen,
+            freezeLimit, middle, to);
+        invokeAll(left, right);
+        delta = left.delta + right.delta;
+        dangling = left.dangling + right.dangling;
+        return;
+      }
+      double follow = 1.0 - alpha;
+      for (int v = from; v < to; v++) {
+        if (frozen != null && frozen[v]) {
+          next[v] = rank[v];
+          nextShare[v] = share[v];
+          if (graph.outDegree(v) == 0)
+            dangling += rank[v];
+          continue;
+        }
+        double sum = 0.0;
+        int end = graph.inEnd(v);
+        for (int i = graph.inStart(v); i < end; i++)
+          sum += share[graph.inSource(i)];
+        double value = base + follow * sum;
+        if (jump != null)
+          value += alpha * jump[v];
+        next[v] = value;
+        double change = Math.abs(value - rank[v]);
+        delta += change;
+        if (frozen != null && change < freezeLimit)
+          frozen[v] = true;
+        int degree = graph.outDegree(v);
+        if (degree == 0) {
+          nextShare[v] = 0.0;
+          dangling += value;
+        } else
+          nextShare[v] = value / degree;
+      }
+    }
+  }
+
+  /**
+   * One power iteration over a range of nodes of a compressed graph,
+   * like IterationTask without freezing.
+   */
+  protected class CompressedIterationTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    final CompressedGraph graph;
+    final int[] degrees;
+    final double[] rank, next, share, nextShare;
+    final double base;
+    final int from, to;
+    double delta = 0.0;
+    double dangling = 0.0;
+
+    CompressedIterationTask(CompressedGraph graph, int[] degrees, double[] rank, double[] next,
+                            double[] share, double[] nextShare, double base, int from, int to) {
+      this.graph = graph;
+      this.degrees = degrees;
+      this.rank = rank;
+      this.next = next;
+      this.share = share;
+      this.nextShare = nextShare;
+      this.base = base;
+      this.from = from;
+      this.to = to;
+    }
+
+    protected void compute() {
+      if (to - from > SPLIT_SIZE) {
+        int middle = (from + to) >>> 1;
+        CompressedIterationTask left = new CompressedIterationTask(graph, degrees, rank, next, share,
+            nextShare, base, from, middle);
+        CompressedIterationTask right = new CompressedIterationTask(graph, degrees, rank, next, share,
+            nextShare, base, middle, to);
+        invokeAll(left, right);
+        delta = left.delta + right.delta;
+        dangling = left.dangling + right.dangling;
+        return;
+      }
+      double follow = 1.0 - alpha;
+      for (int v = from; v < to; v++) {
+        double sum = 0.0;
+        CompressedGraph.SuccessorIterator in = graph.predecessors(v);
+        for (int u = in.nextInt(); u >= 0; u = in.nextInt())
+          sum += share[u];
+        double value = base + follow * sum;
+        if (jump != null)
+          value += alpha * jump[v];
+        next[v] = value;
+        delta += Math.abs(value - rank[v]);
+        if (degrees[v] == 0) {
+          nextShare[v] = 0.0;
+          dangling += value;
+        } else
+          nextShare[v] = value / degrees[v];
+      }
+    }
+  }
+
+  /**
+   * Reads a graph in the format of Graph.readFromFile or GraphFile and
+   * prints the PageRank of every node.
+   * Command format: "PageRank [-solver SOLVER] FILE" where SOLVER is one of
+   * power (the default), gauss-seidel, extrapolation or adaptive.
+   */
+  public static void main(String[] args) throws IOException {
+    PageRank pageRank = new PageRank();
+    for (int i = 0; i < args.length - 1; i++) {
+      if (args[i].equals("-solver"))
+        pageRank.setSolver(parseSolver(args[++i]));
+      else
+        throw new IllegalArgumentException("Unknown flag: " + args[i]);
+    }
+    CSRGraph csr = GraphFile.load(args[args.length - 1]);
+    double[] ranks = pageRank.compute(csr);
+    for (int v = 0; v < ranks.length; v++)
+      System.out.println(String.format("PR(%s): %.5f", csr.getName(v), ranks[v]));
+  }
+}
@@ -0,0 +1,121 @@
+package ir.webutils;
+
+import java.util.*;
+import java.io.*;
+
+import ir.utilities.*;
+
+/**
+ * Compares the PageRank solvers on the same graph.  For each solver
+ * prints the iterations needed to reach the tolerance, the wall time,
+ * and the L1 error against a reference solution computed to a much
+ * smaller tolerance.
+ * <p/>
+ * Command format: "PageRankBenchmark [OPTION]* [FILE]" where FILE is a
+ * graph in the format of Graph.readFromFile or GraphFile and OPTIONs can be:
+ * <ul>
+ * <li>-random &lt;nodes&gt; &lt;degree&gt; : Use a random graph with that many
+ * nodes and average out-degree instead of a file.</li>
+ * <li>-tol &lt;tolerance&gt; : L1 change at which to stop (default 1e-8).</li>
+ * <li>-alpha &lt;alpha&gt; : Random jump probability (default 0.15).</li>
+ * <li>-runs &lt;runs&gt; : Timed runs per solver, the best is reported (default 3).</li>
+ * </ul>
+ *
+ * @see PageRank
+ */
+public class PageRankBenchmark {
+
+  /**
+   * Builds a random graph where a tenth of the nodes are dangling and
+   * links favor nearby node ids, roughly like the locality of a crawl.
+   */
+  public static CSRGraph randomGraph(int numNodes, int degree, long seed) {
+    Random random = new Random(seed);
+    String[] names = new String[numNodes];
+    int[] outOffsets = new int[numNodes + 1];
+    int[] outTargets = new int[16];
+    int numEdges = 0;
+    for (int v = 0; v < numNodes; v++) {
+      names[v] = "n" + v;
+      int links = (random.nextInt(10) == 0) ? 0 : random.nextInt(2 * degree + 1);
+      for (int i = 0; i < links; i++) {
+        int target;
+        if (random.nextBoolean())
+          target = Math.floorMod(v + (int) (random.nextGaussian() * 100), numNodes);
+        else
+          target = random.nextInt(numNodes);
+        if (numEdges == outTargets.length)
+          outTargets = Arrays.copyOf(outTargets, numEdges * 2);
+        outTargets[numEdges++] = target;
+      }
+      outOffsets[v + 1] = numEdges;
+    }
+    return new CSRGraph(names, outOffsets, Arrays.copyOf(outTargets, numEdges));
+  }
+
+  public static void main(String[] args) throws IOException {
+    CSRGraph graph = null;
+    double tolerance = PageRank.DEFAULT_TOLERANCE;
+    double alpha = PageRank.DEFAULT_ALPHA;
+    int runs = 3;
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals("-random")) {
+        graph = randomGraph(Integer.parseInt(args[i + 1]), Integer.parseInt(args[i + 2]), 1);
+        i += 2;
+      } else if (args[i].equals("-tol"))
+        tolerance = Double.parseDouble(args[++i]);
+      else if (args[i].equals("-alpha"))
+        alpha = Double.parseDouble(args[++i]);
+      else if (args[i].equals("-runs"))
+        runs = Integer.parseInt(args[++i]);
+      else if (args[i].startsWith("-"))
+        throw new IllegalArgumentException("Unknown flag: " + args[i]);
+      else
+        graph = GraphFile.load(args[i]);
+    }
+    if (graph == null)
+      throw new IllegalArgumentException("No graph given, use a FILE or -random");
+    System.out.println("Graph: " + graph.numNodes() + " nodes, " + graph.numEdges() + " edges");
+
+    PageRank reference = new PageRank();
+    reference.setAlpha(alpha);
+    reference.setVerbose(false);
+    reference.setTolerance(1e-14);
+    reference.setMaxIterations(10000);
+    double[] exact = reference.compute(graph);
+
+    System.out.println(row("Solver", "Iterations", "Time (ms)", "L1 error"));
+    for (PageRank.Solver solver : PageRank.Solver.values()) {
+      PageRank pageRank = new PageRank();
+      pageRank.setAlpha(alpha);
+      pageRank.setTolerance(tolerance);
+      pageRank.setMaxIterations(10000);
+      pageRank.setVerbose(false);
+      pageRank.setSolver(solver);
+      // One untimed run to warm up the JIT
+      pageRank.compute(graph);
+      long best = Long.MAX_VALUE;
+      double[] ranks = null;
+      for (int run = 0; run < runs; run++) {
+        long start = System.nanoTime();
+        ranks = pageRank.compute(graph);
+        best = Math.min(best, System.nanoTime() - start);
+      }
+      double error = 0.0;
+      for (int v = 0; v < ranks.length; v++)
+        error += Math.abs(ranks[v] - exact[v]);
+      System.out.println(row(solver.toString(), Integer.toString(pageRank.getIterations()),
+          String.format("%.1f", best / 1e6), String.format("%.2e", error)));
+    }
+  }
+
+  /**
+   * Formats the columns of a row of the result table.
+   */
+  protected static String row(String... columns) {
+    StringBuilder row = new StringBuilder();
+    for (String column : columns)
+      row.append(MoreString.padTo(column, 16));
+    return row.toString();
+  }
+}
@@ -0,0 +1,178 @@
+package ir.webutils;
+
+import java.util.*;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Binary form of the PageRank of a crawl, page_ranks.bin, written by
+ * PageRankSpider next to the saved pages.  The file holds a header of
+ * four ints (magic number, version, number of documents and bytes of
+ * names), then one little-endian double per document and finally the
+ * document file names, each as a varint length and UTF-8 bytes.  The
+ * ranks are memory-mapped when opened, and align builds a dense array
+ * indexed by the document ids of an index in one pass.
+ *
+ * @see PageRankSpider
+ */
+public class PageRankFile {
+
+  /**
+   * Marks the start of a PageRank file.
+   */
+  public static final int MAGIC = 0x50524231;
+
+  /**
+   * Version of the file format.
+   */
+  public static final int VERSION = 1;
+
+  /**
+   * Bytes in the header, which keeps the ranks 8-byte aligned.
+   */
+  public static final int HEADER_SIZE = 4 * 4;
+
+  /**
+   * Document file names indexed by position in the file.
+   */
+  protected final String[] docs;
+
+  /**
+   * Mapped rank of each document by position in the file.
+   */
+  protected final DoubleBuffer ranks;
+
+  protected PageRankFile(String[] docs, DoubleBuffer ranks) {
+    this.docs = docs;
+    this.ranks = ranks;
+  }
+
+  /**
+   * Writes the rank of each document.
+   */
+  public static void write(File file, String[] docs, double[] ranks) throws IOException {
+    byte[][] names = new byte[docs.length][];
+    int nameBytes = 0;
+    for (int d = 0; d < docs.length; d++) {
+      names[d] = docs[d].getBytes(StandardCharsets.UTF_8);
+      nameBytes += varIntLength(names[d].length) + names[d].length;
+    }
+    ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + 8 * docs.length + nameBytes).order(GraphFile.ORDER);
+    buffer.putInt(MAGIC).putInt(VERSION).putInt(docs.length).putInt(nameBytes);
+    for (double rank : ranks)
+      buffer.putDouble(rank);
+    for (byte[] name : names) {
+      int length = name.length;
+      while ((length & ~0x7F) != 0) {
+        buffer.put((byte) ((length & 0x7F) | 0x80));
+        length >>>= 7;
+      }
+      buffer.put((byte) length);
+      buffer.put(name);
+    }
+    buffer.flip();
+    FileChannel channel = new FileOutputStream(file).getChannel();
+    try {
+      while (buffer.hasRemaining())
+        channel.write(buffer);
+    }
+    finally {
+      channel.close();
+    }
+  }
+
+  /**
+   * Returns the number of bytes of a varint.
+   */
+  protected static int varIntLength(int value) {
+    int length = 1;
+    while ((value & ~0x7F) != 0) {
+      value >>>= 7;
+      length++;
+    }
+    return length;
+  }
+
+  /**
+   * Opens a PageRank file, mapping the ranks read-only.
+   */
+  public static PageRankFile open(File file) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      FileChannel channel = raf.getChannel();
+      ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE).order(GraphFile.ORDER);
+      if (header.getInt() != MAGIC)
+        throw new IOException(file + " is not a PageRank file");
+      int version = header.getInt();
+      if (version != VERSION)
+        throw new IOException("Unsupported PageRank file version " + version + " in " + file);
+      int numDocs = header.getInt();
+      int nameBytes = header.getInt();
+      long namesAt = HEADER_SIZE + 8L * numDocs;
+      if (namesAt + nameBytes != channel.size())
+        throw new IOException(file + " is truncated or corrupt");
+      DoubleBuffer ranks = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE, 8L * numDocs)
+          .order(GraphFile.ORDER).asDoubleBuffer();
+      ByteBuffer names = channel.map(FileChannel.MapMode.READ_ONLY, namesAt, nameBytes);
+      String[] docs = new String[numDocs];
+      for (int d = 0; d < numDocs; d++) {
+        int length = 0;
+        for (int shift = 0; ; shift += 7) {
+          byte b = names.get();
+          length |= (b & 0x7F) << shift;
+          if (b >= 0)
+            break;
+        }
+        byte[] name = new byte[length];
+        names.get(name);
+        docs[d] = new String(name, StandardCharsets.UTF_8);
+      }
+      return new PageRankFile(docs, ranks);
+    }
+    finally {
+      raf.close();
+    }
+  }
+
+  /**
+   * Returns the number of documents.
+   */
+  public int numDocs() {
+    return docs.length;
+  }
+
+  /**
+   * Returns the file name of a document.
+   */
+  public String getDoc(int position) {
+    return docs[position];
+  }
+
+  /**
+   * Returns the rank of a document.
+   */
+  public double getRank(int position) {
+    return ranks.get(position);
+  }
+
+  /**
+   * Returns the rank of each of the given documents, 0 for documents
+   * not in the file.
+   *
+   * @param docNames File names of documents indexed by document id.
+   */
+  public double[] align(List<String> docNames) {
+    Map<String, Integer> positions = new HashMap<String, Integer>(docs.length * 4 / 3 + 1);
+    for (int d = 0; d < docs.length; d++)
+      positions.put(docs[d], d);
+    double[] aligned = new double[docNames.size()];
+    for (int id = 0; id < aligned.length; id++) {
+      Integer position = positions.get(docNames.get(id));
+      if (position != null)
+        aligned[id] = ranks.get(position);
+    }
+    return aligned;
+  }
+}
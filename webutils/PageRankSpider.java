@@ -14,37 +14,83 @@ import ir.webutils.LinkExtractor;
 import ir.webutils.Spider;
 
 public class PageRankSpider extends Spider {
-    protected Graph graph;
+    protected CSRGraph graph;
     
     //Mapping for the link name and the file name
     Map<String, String> pageMap = new HashMap<String, String>();
 
+    //Solver used to compute the pagerank values
+    protected PageRank.Solver solver = PageRank.Solver.POWER;
+
+    //Directory of an earlier crawl whose page_ranks.txt is used as a warm start
+    protected File prevDir = null;
+
+    //Seed URL prefixes of each topic for topic-sensitive PageRank, null if not used
+    protected Map<String, List<String>> topics = null;
+
     public void go(String[] args) {
-        graph = new Graph();
+        GraphBuilder builder = new GraphBuilder();
         processArgs(args);
-        doCrawl(graph);
+        doCrawl(builder);
 
-        //Delete every node that doesn't have an outgoing edge in the graph structure
-        graph.resetIterator();
-        Node node = graph.nextNode();
-        
-        while(node != null){
-          Iterator<Node> iterator = node.getEdgesOut().iterator();
-          while (iterator.hasNext()) {
-              Node out = iterator.next();
-              if (graph.getExistingNode(out.toString()) == null) {
-                  iterator.remove();
-              }
-          }
-          node = graph.nextNode();
-        }
+        //Keep only the indexed pages and the edges between them
+        graph = builder.toCSRGraph();
 
         System.out.println("Graph structure: ");
         graph.print();
+        writeGraph(graph);
         pagerank(graph);
+        if (topics != null)
+            topicRanks(graph);
     }
 
-    public void doCrawl(Graph graph) {
+    /**
+     * Handles "-solver &lt;solver&gt;" (power, gauss-seidel, extrapolation or
+     * adaptive), "-prev &lt;directory&gt;" (an earlier crawl to update
+     * the PageRank of incrementally) and "-topics &lt;file&gt;" (seed prefixes
+     * of topics to precompute personalized PageRank for, see TopicPageRank)
+     * in addition to the options of Spider.
+     */
+    public void processArgs(String[] args) {
+        super.processArgs(args);
+        for (int i = 0; i < args.length - 1; i++) {
+            if (args[i].equals("-solver"))
+                handleSolverCommandLineOption(args[++i]);
+            else if (args[i].equals("-prev"))
+                handlePrevCommandLineOption(args[++i]);
+            else if (args[i].equals("-topics"))
+                handleTopicsCommandLineOption(args[++i]);
+        }
+    }
+
+    /**
+     * Called when "-prev" is passed in on the command line.
+     */
+    protected void handlePrevCommandLineOption(String value) {
+        prevDir = new File(value);
+        if (!new File(prevDir, "page_ranks.txt").exists())
+            throw new IllegalArgumentException("No page_ranks.txt in " + prevDir);
+    }
+
+    /**
+     * Called when "-topics" is passed in on the command line.
+     */
+    protected void handleTopicsCommandLineOption(String value) {
+        try {
+            topics = TopicPageRank.readTopics(new File(value));
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Could not read topics from " + value + ": " + e);
+        }
+    }
+
+    /**
+     * Called when "-solver" is passed in on the command line.
+     */
+    protected void handleSolverCommandLineOption(String value) {
+        solver = PageRank.parseSolver(value);
+    }
+
+    public void doCrawl(GraphBuilder builder) {
         if (linksToVisit.size() == 0) {
           System.err.println("Exiting: No pages to visit.");
           System.exit(0);
@@ -96,13 +142,14 @@ public class PageRankSpider extends Spider {
             //save the link-filename entry to pageMap
             filename = indexPage(currentPage);
             pageMap.put(link.toString(), filename);
+            builder.setIndexed(builder.intern(link.toString()));
           }
           if (count <= maxCount) {
             List<Link> newLinks = getNewLinks(currentPage);
             //clean url before adding it to the graph
             link.cleanURL();
             String xName = link.toString();
-            Node node1 = graph.getNode(xName);
+            int x = builder.intern(xName);
             
             for (Link newlink : newLinks){
                 //clean url before adding it to the graph
@@ -115,123 +162,85 @@ public class PageRankSpider extends Spider {
                 //Eliminate self-loop
                 if(xName.equals(yName)) continue;
 
-                //Add the node only when it don't exist in the edgesOut list
-                Node node2 = new Node(yName);
-                boolean exists = false;
-                for (Node node : node1.getEdgesOut()) {
-                    if (node.toString().equals(yName)) {
-                        exists = true;
-                        break;
-                    }
-                }
-                if (!exists) node1.addEdge(node2);   
+                //Duplicate edges are dropped by the builder's edge set
+                builder.addEdge(x, builder.intern(yName));
               }
             linksToVisit.addAll(newLinks);
           }
         }
       }
 
-    //Calculating pagerank values for nodes in graph
-    public void pagerank(Graph graph){
-        int count = 0;
-        Node[] nodes = graph.nodeArray();
-        int num_nodes = nodes.length;
-        double random_jump = 0.15 / num_nodes;
-        
-        //Add Incoming Edges to nodes in graph
-        graph.resetIterator();
-        Node node = graph.nextNode();
-        while(node != null){
-          for (Node node_out : node.getEdgesOut()){
-            //Add the node in the edgesIn
-            if(graph.getExistingNode(node_out.toString()) != null){
-              graph.getNode(node_out.toString()).addEdgeFrom(node);
-            }
-          }
-          node = graph.nextNode();
-        }
-
-        //Initialize pagerank values
-        graph.resetIterator();
-        node = graph.nextNode();
-        while(node != null){
-            node.modify_pr(1.0 / num_nodes);
-            node = graph.nextNode();
+    //Write the graph to graph.bin in indexed/ directory so it can be reopened without crawling
+    public void writeGraph(CSRGraph graph){
+        try {
+            GraphFile.write(graph, new File(saveDir, "graph.bin"));
+        } catch (IOException e) {
+            System.err.println("Could not write graph.bin: " + e);
         }
+    }
 
-        //Iterate pagerank algorithm       
-        while(count < 50){
-            System.out.println("Iteration " + count);
-
-            graph.resetIterator();            
-            Node helper = graph.nextNode();
-            while(helper != null){
-              double num_out = (double) helper.getEdgesOut().size();
-              if(num_out != 0.0) helper.modify_pr_out(helper.getPageRank() / num_out);
-              else helper.modify_pr_out(0.0);
-              helper = graph.nextNode();
-            }
-
-            graph.resetIterator();
-            helper = graph.nextNode();
-            while(helper != null){
-                helper.modify_pr(0.0);
-                for(Node in_node : helper.getEdgesIn()){
-                    helper.add_pr(0.85 * graph.getNode(in_node.toString()).getpr_out());
-                    //helper.add_pr(0.85 * in_node.getpr_out());
-                }
-                helper.add_pr(random_jump);
-                helper = graph.nextNode();
-            }
-
-            //Unnormalized
-            graph.resetIterator();
-            helper = graph.nextNode();
-            double pagerank_total = 0.0;
-            while(helper != null){
-                System.out.println("Unnormalized P = " + String.format("%.5f", helper.getPageRank()) + " | " + helper.toString());
-                pagerank_total += helper.getPageRank();
-                helper = graph.nextNode();
+    //Calculating pagerank values for nodes in graph
+    public void pagerank(CSRGraph graph){
+        double[] ranks = null;
+        if (prevDir != null) {
+            //Start from the ranks of the earlier crawl and only re-solve around the changes
+            try {
+                Map<String, Double> prevRanks = IncrementalPageRank.loadRanks(prevDir);
+                IncrementalPageRank engine = new IncrementalPageRank();
+                engine.setSolver(solver);
+                ranks = engine.compute(graph, IncrementalPageRank.warmStart(graph, prevRanks));
+            } catch (IOException e) {
+                System.err.println("Could not load ranks from " + prevDir + ": " + e);
             }
-
-            //Normarlized
-            graph.resetIterator();
-            helper = graph.nextNode();
-            while(helper != null){
-                helper.div_pr(pagerank_total);
-                System.out.println("Normalized P = " + String.format("%.5f", helper.getPageRank()) + " | " + helper.toString());
-                helper = graph.nextNode();
-            }       
-            count += 1;
+        }
+        if (ranks == null) {
+            PageRank engine = new PageRank();
+            engine.setSolver(solver);
+            ranks = engine.compute(graph);
         }
 
         //Final PR values
         System.out.println("");
         System.out.println("PageRank:");
-        graph.resetIterator();
-        Node helper = graph.nextNode();
-        while(helper != null){
-            System.out.println(String.format("PR(%s): %.5f", helper.toString(), helper.getPageRank()));
-            helper = graph.nextNode();
+        for(int v = 0; v < graph.numNodes(); v++){
+            System.out.println(String.format("PR(%s): %.5f", graph.getName(v), ranks[v]));
         }
         
-        //Write page_ranks.txt in indexed/ directory
+        //Write page_ranks.txt and its binary form page_ranks.bin in indexed/ directory
         File pagerank = new File(saveDir, "page_ranks.txt");
-        graph.resetIterator();
-        helper = graph.nextNode();
+        String[] docNames = new String[graph.numNodes()];
+        for(int v = 0; v < graph.numNodes(); v++){
+            docNames[v] = pageMap.get(graph.getName(v));
+        }
 
         try {
           FileWriter writer = new FileWriter(pagerank);
-          while(helper != null){
-            writer.write(pageMap.get(helper.toString()) + " " +  helper.getPageRank() + "\n");
-            helper = graph.nextNode();
+          for(int v = 0; v < graph.numNodes(); v++){
+            writer.write(docNames[v] + " " +  ranks[v] + "\n");
           }
           writer.close();
+          PageRankFile.write(new File(saveDir, "page_ranks.bin"), docNames, ranks);
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
+    //Precompute a personalized PageRank vector per topic and write topic_ranks.bin in indexed/ directory
+    public void topicRanks(CSRGraph graph){
+        TopicPageRank topicRank = new TopicPageRank(topics);
+        topicRank.setSolver(solver);
+        String[] docNames = new String[graph.numNodes()];
+        for(int v = 0; v < graph.numNodes(); v++){
+            docNames[v] = pageMap.get(graph.getName(v));
+        }
+        try {
+            topicRank.computeRanks(graph, docNames).write(new File(saveDir, "topic_ranks.bin"));
+            System.out.println("Wrote PageRank for " + topics.size() + " topics");
+        } catch (IllegalArgumentException | IOException e) {
+            System.err.println("Could not compute topic ranks: " + e);
+        }
+    }
+
     public static void main(String args[]) {
         new PageRankSpider().go(args);
     }
@@ -0,0 +1,188 @@
+package ir.webutils;
+
+import java.util.*;
+import java.io.*;
+
+/**
+ * Computes topic-sensitive PageRank, one personalized vector per topic
+ * where random jumps land only on the seed pages of that topic.  The
+ * seeds of a topic are the nodes whose URL starts with one of its
+ * prefixes.  Topics are solved in parallel, each with its own PageRank
+ * engine over the same read-only CSRGraph.
+ * <p/>
+ * A topics file has one topic per line: its name followed by one or
+ * more URL prefixes, separated by whitespace.  Blank lines and lines
+ * starting with "#" are ignored.
+ * <p/>
+ * Command format: "TopicPageRank [-solver S] TOPICS GRAPH" where GRAPH
+ * is in the format of Graph.readFromFile or GraphFile.  Prints the top pages of
+ * each topic.
+ *
+ * @see TopicRanks
+ */
+public class TopicPageRank {
+
+  /**
+   * URL prefixes of the seed pages of each topic, in file order.
+   */
+  protected final Map<String, List<String>> topics;
+
+  /**
+   * Solver used for every topic.
+   */
+  protected PageRank.Solver solver = PageRank.Solver.POWER;
+
+  /**
+   * Random jump probability.
+   */
+  protected double alpha = PageRank.DEFAULT_ALPHA;
+
+  /**
+   * Creates a topic PageRank for these topics.
+   *
+   * @param topics URL prefixes of the seed pages of each topic.
+   */
+  public TopicPageRank(Map<String, List<String>> topics) {
+    this.topics = topics;
+  }
+
+  /**
+   * Sets the solver used for every topic.
+   */
+  public void setSolver(PageRank.Solver solver) {
+    this.solver = solver;
+  }
+
+  /**
+   * Sets the random jump probability.
+   */
+  public void setAlpha(double alpha) {
+    this.alpha = alpha;
+  }
+
+  /**
+   * Returns the topic names in file order.
+   */
+  public String[] getTopics() {
+    return topics.keySet().toArray(new String[0]);
+  }
+
+  /**
+   * Reads a topics file.
+   */
+  public static Map<String, List<String>> readTopics(File file) throws IOException {
+    Map<String, List<String>> topics = new LinkedHashMap<String, List<String>>();
+    BufferedReader in = new BufferedReader(new FileReader(file));
+    try {
+      String line;
+      while ((line = in.readLine()) != null) {
+        line = line.trim();
+        if (line.isEmpty() || line.startsWith("#"))
+          continue;
+        String[] parts = line.split("\\s+");
+        if (parts.length < 2)
+          throw new IOException("Topic without seed prefixes: " + line);
+        topics.put(parts[0], Arrays.asList(parts).subList(1, parts.length));
+      }
+    }
+    finally {
+      in.close();
+    }
+    return topics;
+  }
+
+  /**
+   * Builds the random jump vector of a topic, uniform over its seeds.
+   */
+  public double[] jumpVector(CSRGraph graph, List<String> prefixes) {
+    int numNodes = graph.numNodes();
+    boolean[] seed = new boolean[numNodes];
+    int numSeeds = 0;
+    for (int v = 0; v < numNodes; v++) {
+      String name = graph.getName(v);
+      for (String prefix : prefixes) {
+        if (name.startsWith(prefix)) {
+          seed[v] = true;
+          numSeeds++;
+          break;
+        }
+      }
+    }
+    if (numSeeds == 0)
+      return null;
+    double[] jump = new double[numNodes];
+    for (int v = 0; v < numNodes; v++) {
+      if (seed[v])
+        jump[v] = 1.0 / numSeeds;
+    }
+    return jump;
+  }
+
+  /**
+   * Computes the personalized vector of every topic in parallel.
+   *
+   * @return The rank of each node for each topic, indexed by topic in
+   *         file order and node id.
+   */
+  public double[][] compute(final CSRGraph graph) {
+    final String[] names = getTopics();
+    final double[][] ranks = new double[names.length][];
+    final double[][] jumps = new double[names.length][];
+    for (int t = 0; t < names.length; t++) {
+      jumps[t] = jumpVector(graph, topics.get(names[t]));
+      if (jumps[t] == null)
+        throw new IllegalArgumentException("No pages match the seeds of topic " + names[t]);
+    }
+    java.util.stream.IntStream.range(0, names.length).parallel().forEach(t -> {
+      PageRank engine = new PageRank();
+      engine.setSolver(solver);
+      engine.setAlpha(alpha);
+      engine.setVerbose(false);
+      engine.setJump(jumps[t]);
+      ranks[t] = engine.compute(graph);
+    });
+    return ranks;
+  }
+
+  /**
+   * Computes the topic vectors and packs them as TopicRanks with each
+   * node named by docNames.
+   */
+  public TopicRanks computeRanks(CSRGraph graph, String[] docNames) {
+    double[][] ranks = compute(graph);
+    float[][] packed = new float[ranks.length][graph.numNodes()];
+    for (int t = 0; t < ranks.length; t++) {
+      for (int v = 0; v < ranks[t].length; v++)
+        packed[t][v] = (float) ranks[t][v];
+    }
+    return new TopicRanks(getTopics(), docNames, packed);
+  }
+
+  public static void main(String[] args) throws IOException {
+    PageRank.Solver solver = PageRank.Solver.POWER;
+    int i = 0;
+    for (; i < args.length - 2; i++) {
+      if (args[i].equals("-solver"))
+        solver = PageRank.parseSolver(args[++i]);
+      else
+        throw new IllegalArgumentException("Unknown flag: " + args[i]);
+    }
+    TopicPageRank topicRank = new TopicPageRank(readTopics(new File(args[i])));
+    topicRank.setSolver(solver);
+    CSRGraph graph = GraphFile.load(args[i + 1]);
+    long start = System.nanoTime();
+    double[][] ranks = topicRank.compute(graph);
+    String[] names = topicRank.getTopics();
+    System.out.println("Computed " + names.length + " topics in " + (System.nanoTime() - start) / 1000000 + " ms");
+    for (int t = 0; t < names.length; t++) {
+      final double[] rank = ranks[t];
+      Integer[] order = new Integer[rank.length];
+      for (int v = 0; v < order.length; v++)
+        order[v] = v;
+      Arrays.sort(order, (a, b) -> Double.compare(rank[b], rank[a]));
+      System.out.println("\nTopic " + names[t] + ":");
+      for (int k = 0; k < Math.min(10, order.length); k++)
+        System.out.println(String.format("PR(%s): %.5f", graph.getName(order[k]), rank[order[k]]));
+    }
+  }
+}
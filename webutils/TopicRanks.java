@@ -0,0 +1,212 @@
+package ir.webutils;
+
+import java.util.*;
+import java.io.*;
+
+/**
+ * A set of topic-sensitive PageRank vectors over the same documents,
+ * one per topic, stored compactly so they can be mixed at query time.
+ * The binary file holds a header, the topic names, the document names
+ * and then one float per document for each topic.  Since PageRank is
+ * linear in its random jump vector, a weighted mix of the vectors is
+ * exactly the PageRank for jumps spread over the seeds of all the
+ * topics in those proportions, so no recomputation is needed.
+ *
+ * @see TopicPageRank
+ */
+public class TopicRanks {
+
+  /**
+   * Marks the start of a topic ranks file.
+   */
+  public static final int MAGIC = 0x54505231;
+
+  /**
+   * Version of the file format.
+   */
+  public static final int VERSION = 1;
+
+  /**
+   * Topic names indexed by topic.
+   */
+  protected final String[] topics;
+
+  /**
+   * Document names indexed by document.
+   */
+  protected final String[] docs;
+
+  /**
+   * Rank of each document for each topic, indexed by topic and document.
+   */
+  protected final float[][] ranks;
+
+  /**
+   * Creates topic ranks from vectors aligned with the document names.
+   */
+  public TopicRanks(String[] topics, String[] docs, float[][] ranks) {
+    if (ranks.length != topics.length)
+      throw new IllegalArgumentException("Expected " + topics.length + " vectors, got " + ranks.length);
+    for (float[] vector : ranks) {
+      if (vector.length != docs.length)
+        throw new IllegalArgumentException("Vector of length " + vector.length + " for " + docs.length + " documents");
+    }
+    this.topics = topics;
+    this.docs = docs;
+    this.ranks = ranks;
+  }
+
+  /**
+   * Returns the number of topics.
+   */
+  public int numTopics() {
+    return topics.length;
+  }
+
+  /**
+   * Returns the name of a topic.
+   */
+  public String getTopic(int topic) {
+    return topics[topic];
+  }
+
+  /**
+   * Returns the index of the topic with that name or -1 if not present.
+   */
+  public int topicIndex(String name) {
+    for (int t = 0; t < topics.length; t++) {
+      if (topics[t].equals(name))
+        return t;
+    }
+    return -1;
+  }
+
+  /**
+   * Returns the number of documents.
+   */
+  public int numDocs() {
+    return docs.length;
+  }
+
+  /**
+   * Returns the name of a document.
+   */
+  public String getDoc(int doc) {
+    return docs[doc];
+  }
+
+  /**
+   * Returns the rank of a document for a topic.
+   */
+  public float getRank(int topic, int doc) {
+    return ranks[topic][doc];
+  }
+
+  /**
+   * Mixes the topic vectors with the given weights, which are
+   * normalized to sum to one.
+   *
+   * @param weights  Weight of each topic by name.
+   * @param docNames Names of the documents to return ranks for, 0 for
+   *                 documents without one.
+   * @return The mixed rank of each of docNames in the same order.
+   */
+  public double[] mix(Map<String, Double> weights, List<String> docNames) {
+    double[] mixed = new double[docs.length];
+    double total = 0.0;
+    for (Map.Entry<String, Double> entry : weights.entrySet())
+      total += entry.getValue();
+    if (total <= 0.0)
+      throw new IllegalArgumentException("Topic weights must add up to more than zero");
+    for (Map.Entry<String, Double> entry : weights.entrySet()) {
+      int topic = topicIndex(entry.getKey());
+      if (topic < 0)
+        throw new IllegalArgumentException("Unknown topic: " + entry.getKey());
+      double weight = entry.getValue() / total;
+      float[] vector = ranks[topic];
+      for (int d = 0; d < docs.length; d++)
+        mixed[d] += weight * vector[d];
+    }
+    Map<String, Integer> positions = new HashMap<String, Integer>(docs.length * 4 / 3 + 1);
+    for (int d = 0; d < docs.length; d++)
+      positions.put(docs[d], d);
+    double[] result = new double[docNames.size()];
+    for (int i = 0; i < result.length; i++) {
+      Integer position = positions.get(docNames.get(i));
+      if (position != null)
+        result[i] = mixed[position];
+    }
+    return result;
+  }
+
+  /**
+   * Parses a mix of the form "topic:weight,topic:weight,..." where a
+   * missing weight counts as 1.
+   */
+  public static Map<String, Double> parseMix(String spec) {
+    Map<String, Double> weights = new LinkedHashMap<String, Double>();
+    for (String part : spec.split(",")) {
+      if (part.isEmpty())
+        continue;
+      int colon = part.lastIndexOf(':');
+      if (colon < 0)
+        weights.put(part, 1.0);
+      else
+        weights.put(part.substring(0, colon), Double.parseDouble(part.substring(colon + 1)));
+    }
+    return weights;
+  }
+
+  /**
+   * Writes the topic ranks to a binary file.
+   */
+  public void write(File file) throws IOException {
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+    try {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(topics.length);
+      out.writeInt(docs.length);
+      for (String topic : topics)
+        out.writeUTF(topic);
+      for (String doc : docs)
+        out.writeUTF(doc);
+      for (float[] vector : ranks) {
+        for (float rank : vector)
+          out.writeFloat(rank);
+      }
+    }
+    finally {
+      out.close();
+    }
+  }
+
+  /**
+   * Reads topic ranks written by write.
+   */
+  public static TopicRanks load(File file) throws IOException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+    try {
+      if (in.readInt() != MAGIC)
+        throw new IOException(file + " is not a topic ranks file");
+      int version = in.readInt();
+      if (version != VERSION)
+        throw new IOException("Unsupported topic ranks version " + version + " in " + file);
+      String[] topics = new String[in.readInt()];
+      String[] docs = new String[in.readInt()];
+      for (int t = 0; t < topics.length; t++)
+        topics[t] = in.readUTF();
+      for (int d = 0; d < docs.length; d++)
+        docs[d] = in.readUTF();
+      float[][] ranks = new float[topics.length][docs.length];
+      for (float[] vector : ranks) {
+        for (int d = 0; d < vector.length; d++)
+          vector[d] = in.readFloat();
+      }
+      return new TopicRanks(topics, docs, ranks);
+    }
+    finally {
+      in.close();
+    }
+  }
+}